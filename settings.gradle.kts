@@ -27,4 +27,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "WebrtcHelper"
 include(":webrtchelper")
+include(":webrtchelper-kernel")
 include(":example")
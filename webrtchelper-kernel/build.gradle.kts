@@ -0,0 +1,35 @@
+plugins {
+    id("java-library")
+    alias(libs.plugins.jmh)
+    id("maven-publish")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmhCore)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    // ./gradlew :webrtchelper-kernel:jmh -PjmhInclude=PlaneRotation
+    (project.findProperty("jmhInclude") as String?)?.let { includes.add(it) }
+}
+
+publishing {
+    publications {
+        create<MavenPublication>("release") {
+            from(components["java"])
+
+            groupId = "cn.cleartv"
+            artifactId = "webrtchelper-kernel"
+            version = "1.0.0"
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import cn.cleartv.webrtchelper.ArgbToI420Converter;
+import cn.cleartv.webrtchelper.YuvArgbConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ARGB to I420 into direct buffers, as bitmap2VideoFrame does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArgbToI420Benchmark {
+
+    @Param({"640x360", "1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private int chromaWidth;
+    private int[] argb;
+    private ByteBuffer y;
+    private ByteBuffer u;
+    private ByteBuffer v;
+
+    @Setup
+    public void setUp() {
+        final String[] parts = resolution.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        argb = new int[width * height];
+        final Random random = new Random(42);
+        for (int i = 0; i < argb.length; i++) argb[i] = 0xff000000 | random.nextInt(0x1000000);
+        y = ByteBuffer.allocateDirect(width * height);
+        u = ByteBuffer.allocateDirect(chromaWidth * chromaHeight);
+        v = ByteBuffer.allocateDirect(chromaWidth * chromaHeight);
+    }
+
+    @Benchmark
+    public ByteBuffer convert() {
+        ArgbToI420Converter.convert(argb, width, height, y, width, u, chromaWidth, v, chromaWidth);
+        return y;
+    }
+
+    @Benchmark
+    public ByteBuffer convertParallel() {
+        ArgbToI420Converter.convertParallel(argb, width, height, y, width, u, chromaWidth, v, chromaWidth,
+                YuvArgbConverter.defaultExecutor(), YuvArgbConverter.defaultBandCount(height));
+        return y;
+    }
+}
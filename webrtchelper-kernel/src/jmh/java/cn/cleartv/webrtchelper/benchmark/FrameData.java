@@ -0,0 +1,53 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Random I420 test frames, as heap arrays and as direct buffers with optional row padding.
+ */
+final class FrameData {
+    final int width;
+    final int height;
+    final int chromaWidth;
+    final int chromaHeight;
+    final int strideY;
+    final int strideUV;
+    final byte[] y;
+    final byte[] u;
+    final byte[] v;
+    final ByteBuffer directY;
+    final ByteBuffer directU;
+    final ByteBuffer directV;
+
+    /**
+     * @param resolution "WIDTHxHEIGHT"
+     * @param padding    Extra bytes at the end of every Y row (half of it for chroma rows).
+     */
+    FrameData(final String resolution, final int padding) {
+        final String[] parts = resolution.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        chromaWidth = (width + 1) / 2;
+        chromaHeight = (height + 1) / 2;
+        strideY = width + padding;
+        strideUV = chromaWidth + padding / 2;
+        final Random random = new Random(42);
+        y = new byte[strideY * height];
+        u = new byte[strideUV * chromaHeight];
+        v = new byte[strideUV * chromaHeight];
+        random.nextBytes(y);
+        random.nextBytes(u);
+        random.nextBytes(v);
+        directY = direct(y);
+        directU = direct(u);
+        directV = direct(v);
+    }
+
+    private static ByteBuffer direct(final byte[] data) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,69 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+/**
+ * The float per-pixel conversion YuvFrame used before YuvArgbConverter, kept as the baseline.
+ * Like the original it assumes packed planes (it ignores strides).
+ */
+final class LegacyYuvToArgb {
+
+    private LegacyYuvToArgb() {
+    }
+
+    static void convert(final byte[] yPlane, final byte[] uPlane, final byte[] vPlane,
+                        final int width, final int height, final int degree, final int[] outputArgb) {
+        final int size = width * height;
+        final int invertSize = size - 1;
+        final int uvWidth = width / 2;
+        final int uvHeight = height / 2;
+        final boolean needRotation = degree % 180 != 0;
+        final boolean needInvert = degree == -90 || degree == 270 || degree == 180 || degree == -180;
+
+        int u, v;
+        int y1, y2, y3, y4;
+        int p1, p2, p3, p4;
+        int uvIndex;
+        for (int row = 0; row < uvHeight; row++) {
+            for (int col = 0; col < uvWidth; col++) {
+                p1 = (row * 2 * width) + (col * 2);
+                p2 = p1 + 1;
+                p3 = p1 + width;
+                p4 = p3 + 1;
+                uvIndex = (row * uvWidth) + col;
+
+                u = (uPlane[uvIndex] & 0xff) - 128;
+                v = (vPlane[uvIndex] & 0xff) - 128;
+                y1 = yPlane[p1] & 0xff;
+                y2 = yPlane[p2] & 0xff;
+                y3 = yPlane[p3] & 0xff;
+                y4 = yPlane[p4] & 0xff;
+
+                if (needRotation) {
+                    p1 = (col * 2 + 1) * height - row * 2 - 1;
+                    p2 = p1 + height;
+                    p3 = p1 - 1;
+                    p4 = p3 + height;
+                }
+                if (needInvert) {
+                    p1 = invertSize - p1;
+                    p2 = invertSize - p2;
+                    p3 = invertSize - p3;
+                    p4 = invertSize - p4;
+                }
+                outputArgb[p1] = convert(y1, u, v);
+                outputArgb[p2] = convert(y2, u, v);
+                outputArgb[p3] = convert(y3, u, v);
+                outputArgb[p4] = convert(y4, u, v);
+            }
+        }
+    }
+
+    private static int convert(final int y, final int u, final int v) {
+        int r = y + (int) (1.402f * v);
+        int g = y - (int) (0.344f * u + 0.714f * v);
+        int b = y + (int) (1.772f * u);
+        r = (r > 255) ? 255 : (r < 0) ? 0 : r;
+        g = (g > 255) ? 255 : (g < 0) ? 0 : g;
+        b = (b > 255) ? 255 : (b < 0) ? 0 : b;
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,60 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import cn.cleartv.webrtchelper.LumaHistogram;
+import cn.cleartv.webrtchelper.YuvArgbConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brightness statistics of one frame: converting to ARGB and scanning the pixels, the way the Bitmap path does it,
+ * against reading the Y plane directly at several sampling steps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LumaHistogramBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"1", "4", "8"})
+    public int step;
+
+    private FrameData frame;
+    private int[] argb;
+    private LumaHistogram histogram;
+
+    @Setup
+    public void setUp() {
+        frame = new FrameData(resolution, 0);
+        argb = new int[frame.width * frame.height];
+        histogram = new LumaHistogram();
+    }
+
+    @Benchmark
+    public double argbScan() {
+        YuvArgbConverter.DEFAULT.convertRows(frame.directY, frame.strideY, frame.directU, frame.strideUV,
+                frame.directV, frame.strideUV, 1, frame.width, frame.height, 0, argb, 0, frame.height);
+        long sum = 0;
+        for (int i = 0; i < argb.length; i += step * step) {
+            final int c = argb[i];
+            sum += ((c >> 16) & 0xff) * 77 + ((c >> 8) & 0xff) * 150 + (c & 0xff) * 29 >> 8;
+        }
+        return (double) sum / (argb.length / (step * step));
+    }
+
+    @Benchmark
+    public double lumaPlane() {
+        histogram.compute(frame.directY, frame.strideY, frame.width, frame.height, step);
+        return histogram.getMean() + histogram.getVariance();
+    }
+}
@@ -0,0 +1,73 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import cn.cleartv.webrtchelper.PcmKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One 10 ms 16-bit PCM buffer per call, the unit AudioTrackInterceptor.write sees.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PcmBenchmark {
+
+    @Param({"16000", "48000"})
+    public int sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    private int size;
+    private byte[] heap;
+    private ByteBuffer direct;
+    private byte[] reused;
+
+    @Setup
+    public void setUp() {
+        size = sampleRate / 100 * channels * 2;
+        heap = new byte[size];
+        new Random(42).nextBytes(heap);
+        direct = ByteBuffer.allocateDirect(size);
+        direct.put(heap);
+        direct.flip();
+        reused = new byte[size];
+    }
+
+    @Benchmark
+    public byte[] copyOfRangeHeap() {
+        return Arrays.copyOfRange(heap, 0, size);
+    }
+
+    @Benchmark
+    public byte[] copyDirect() {
+        return PcmKernels.copy(direct, 0, size, null);
+    }
+
+    @Benchmark
+    public byte[] copyDirectReused() {
+        return PcmKernels.copy(direct, 0, size, reused);
+    }
+
+    @Benchmark
+    public double rms() {
+        return PcmKernels.rms16(heap, 0, size);
+    }
+
+    @Benchmark
+    public double peak() {
+        return PcmKernels.peak16(heap, 0, size);
+    }
+}
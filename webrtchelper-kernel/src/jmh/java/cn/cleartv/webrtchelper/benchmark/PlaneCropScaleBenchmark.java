@@ -0,0 +1,68 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import cn.cleartv.webrtchelper.PlaneScaler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying a padded Y plane out of a direct buffer: full copy, centre-square crop and 160x90 thumbnails.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlaneCropScaleBenchmark {
+
+    @Param({"640x360", "1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    private FrameData frame;
+    private byte[] full;
+    private byte[] square;
+    private byte[] thumbnail;
+    private final PlaneScaler scaler = new PlaneScaler();
+
+    @Setup
+    public void setUp() {
+        frame = new FrameData(resolution, 64);
+        full = new byte[frame.width * frame.height];
+        square = new byte[frame.height * frame.height];
+        thumbnail = new byte[160 * 90];
+    }
+
+    @Benchmark
+    public byte[] copyPlane() {
+        PlaneScaler.copyPlane(frame.directY, frame.strideY, frame.width, frame.height, full);
+        return full;
+    }
+
+    @Benchmark
+    public byte[] cropToSquare() {
+        final int x = (frame.width - frame.height) / 2;
+        scaler.scale(frame.directY, frame.strideY, x, 0, frame.height, frame.height,
+                square, frame.height, frame.height, 0, PlaneScaler.Filter.BOX);
+        return square;
+    }
+
+    @Benchmark
+    public byte[] thumbnailBox() {
+        scaler.scale(frame.directY, frame.strideY, 0, 0, frame.width, frame.height,
+                thumbnail, 160, 90, 0, PlaneScaler.Filter.BOX);
+        return thumbnail;
+    }
+
+    @Benchmark
+    public byte[] thumbnailBilinear() {
+        scaler.scale(frame.directY, frame.strideY, 0, 0, frame.width, frame.height,
+                thumbnail, 160, 90, 0, PlaneScaler.Filter.BILINEAR);
+        return thumbnail;
+    }
+}
@@ -0,0 +1,61 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import cn.cleartv.webrtchelper.PlaneRotator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rotating a Y plane: the per-pixel scatter the ARGB path used against the tiled rotator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlaneRotationBenchmark {
+
+    @Param({"640x360", "1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"90", "180", "270"})
+    public int rotation;
+
+    private FrameData frame;
+    private byte[] out;
+    private final PlaneRotator rotator = new PlaneRotator();
+
+    @Setup
+    public void setUp() {
+        frame = new FrameData(resolution, 0);
+        out = new byte[frame.width * frame.height];
+    }
+
+    @Benchmark
+    public byte[] naive() {
+        PlaneRotator.rotateNaive(frame.y, frame.strideY, frame.width, frame.height, out, rotation);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] tiled() {
+        rotator.rotate(frame.y, 0, frame.strideY, frame.width, frame.height, out, 0, dstStride(), 1, rotation);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] tiledDirectBuffer() {
+        rotator.rotate(frame.directY, frame.strideY, frame.width, frame.height, out, 0, dstStride(), 1, rotation);
+        return out;
+    }
+
+    private int dstStride() {
+        return rotation % 180 != 0 ? frame.height : frame.width;
+    }
+}
@@ -0,0 +1,86 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of applying a rotation the way VideoSourceHelper used to (look up and open the private field on
+ * every frame), with a cached field, and by building a new frame around the same buffer as it does now.
+ * <p>
+ * This module can't depend on org.webrtc, so {@link Frame} mirrors the shape of VideoFrame: a private final
+ * rotation next to a ref-counted buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReflectionBenchmark {
+
+    static final class Buffer {
+        private int refCount = 1;
+
+        void retain() {
+            refCount++;
+        }
+
+        void release() {
+            refCount--;
+        }
+    }
+
+    static final class Frame {
+        private final Buffer buffer;
+        private final int rotation;
+        private final long timestampNs;
+
+        Frame(final Buffer buffer, final int rotation, final long timestampNs) {
+            this.buffer = buffer;
+            this.rotation = rotation;
+            this.timestampNs = timestampNs;
+        }
+
+        int getRotation() {
+            return rotation;
+        }
+    }
+
+    private Frame frame;
+    private Field cachedRotation;
+
+    @Setup
+    public void setUp() throws Exception {
+        frame = new Frame(new Buffer(), 0, 0);
+        cachedRotation = Frame.class.getDeclaredField("rotation");
+        cachedRotation.setAccessible(true);
+    }
+
+    @Benchmark
+    public int lookupEveryFrame() throws Exception {
+        final Field field = Frame.class.getDeclaredField("rotation");
+        field.setAccessible(true);
+        field.setInt(frame, 90);
+        return frame.getRotation();
+    }
+
+    @Benchmark
+    public int cachedField() throws Exception {
+        cachedRotation.setInt(frame, 90);
+        return frame.getRotation();
+    }
+
+    @Benchmark
+    public int newFrame() {
+        frame.buffer.retain();
+        final Frame rotated = new Frame(frame.buffer, 90, frame.timestampNs);
+        final int rotation = rotated.getRotation();
+        rotated.buffer.release();
+        return rotation;
+    }
+}
@@ -0,0 +1,55 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import cn.cleartv.webrtchelper.TileMotionDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static-content detection on a full resolution luma plane: an unchanged frame only hashes the samples, a changed
+ * frame also compares every tile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TileMotionBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    private FrameData first;
+    private FrameData second;
+    private TileMotionDetector detector;
+    private boolean flip;
+
+    @Setup
+    public void setUp() {
+        first = new FrameData(resolution, 0);
+        second = new FrameData(resolution, 0);
+        for (int i = 0; i < second.y.length; i++) {
+            second.directY.put(i, (byte) (first.y[i] + 64));
+        }
+        detector = new TileMotionDetector(16, 9, 8, 24);
+        detector.update(first.directY, first.strideY, first.width, first.height);
+    }
+
+    @Benchmark
+    public int staticFrame() {
+        return detector.update(first.directY, first.strideY, first.width, first.height);
+    }
+
+    @Benchmark
+    public int changedFrame() {
+        flip = !flip;
+        final FrameData frame = flip ? second : first;
+        return detector.update(frame.directY, frame.strideY, frame.width, frame.height);
+    }
+}
@@ -0,0 +1,66 @@
+package cn.cleartv.webrtchelper.benchmark;
+
+import cn.cleartv.webrtchelper.YuvArgbConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUV to ARGB: the legacy float loop against the fixed-point engine, single-threaded and banded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class YuvToArgbBenchmark {
+
+    @Param({"640x360", "1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"0", "90"})
+    public int rotation;
+
+    private FrameData frame;
+    private int[] argb;
+
+    @Setup
+    public void setUp() {
+        frame = new FrameData(resolution, 0);
+        argb = new int[frame.width * frame.height];
+    }
+
+    @Benchmark
+    public int[] legacyFloat() {
+        LegacyYuvToArgb.convert(frame.y, frame.u, frame.v, frame.width, frame.height, rotation, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] fixedPoint() {
+        YuvArgbConverter.DEFAULT.convert(frame.y, frame.strideY, frame.u, frame.strideUV, frame.v, frame.strideUV, 1,
+                frame.width, frame.height, rotation, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] fixedPointDirectBuffer() {
+        YuvArgbConverter.DEFAULT.convertRows(frame.directY, frame.strideY, frame.directU, frame.strideUV,
+                frame.directV, frame.strideUV, 1, frame.width, frame.height, rotation, argb, 0, frame.height);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] fixedPointParallel() {
+        YuvArgbConverter.DEFAULT.convertParallel(frame.y, frame.strideY, frame.u, frame.strideUV, frame.v, frame.strideUV, 1,
+                frame.width, frame.height, rotation, argb,
+                YuvArgbConverter.defaultExecutor(), YuvArgbConverter.defaultBandCount(frame.height));
+        return argb;
+    }
+}
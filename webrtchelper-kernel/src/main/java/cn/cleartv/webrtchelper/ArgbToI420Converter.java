@@ -0,0 +1,133 @@
+package cn.cleartv.webrtchelper;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Integer ARGB_8888 to I420 conversion, BT.601 limited range (what WebRTC encoders expect).
+ * <p>
+ * Pixels are processed in 2x2 blocks: four luma samples are written and the block's averaged RGB gives one U and one V
+ * sample. Output rows are assembled in small scratch arrays and written to the destination planes with one bulk put
+ * per row, so direct ByteBuffers don't pay a per-byte cost. The scratch rows are kept per thread and only grow, so
+ * converting frames of a steady size allocates no arrays, also on the executor threads of the parallel mode.
+ */
+public final class ArgbToI420Converter {
+
+    private static final ThreadLocal<RowScratch> SCRATCH = new ThreadLocal<RowScratch>() {
+        @Override
+        protected RowScratch initialValue() {
+            return new RowScratch();
+        }
+    };
+
+    /**
+     * Two luma rows and one row of each chroma plane, at least as long as the widest frame converted on the thread.
+     */
+    private static final class RowScratch {
+        byte[] yRow0 = new byte[0];
+        byte[] yRow1 = new byte[0];
+        byte[] uRow = new byte[0];
+        byte[] vRow = new byte[0];
+
+        void ensure(final int width, final int chromaWidth) {
+            if (yRow0.length < width) {
+                yRow0 = new byte[width];
+                yRow1 = new byte[width];
+            }
+            if (uRow.length < chromaWidth) {
+                uRow = new byte[chromaWidth];
+                vRow = new byte[chromaWidth];
+            }
+        }
+    }
+
+    private ArgbToI420Converter() {
+    }
+
+    /**
+     * @param argb    Source pixels, {@code width} per row, as returned by {@code Bitmap.getPixels}.
+     * @param dataY   Destination Y plane, written from index 0.
+     * @param strideY Distance between two Y rows.
+     */
+    public static void convert(final int[] argb, final int width, final int height,
+                               final ByteBuffer dataY, final int strideY,
+                               final ByteBuffer dataU, final int strideU,
+                               final ByteBuffer dataV, final int strideV) {
+        convertRows(argb, width, height, dataY, strideY, dataU, strideU, dataV, strideV, 0, height);
+    }
+
+    /**
+     * Same as {@link #convert}, split into row bands that run on {@code executor} and the calling thread.
+     */
+    public static void convertParallel(final int[] argb, final int width, final int height,
+                                       final ByteBuffer dataY, final int strideY,
+                                       final ByteBuffer dataU, final int strideU,
+                                       final ByteBuffer dataV, final int strideV,
+                                       final Executor executor, final int bands) {
+        YuvArgbConverter.runBanded(height, executor, bands, (rowStart, rowEnd) ->
+                convertRows(argb, width, height, dataY, strideY, dataU, strideU, dataV, strideV, rowStart, rowEnd));
+    }
+
+    /**
+     * Converts source rows {@code [rowStart, rowEnd)}, {@code rowStart} must be even.
+     */
+    public static void convertRows(final int[] argb, final int width, final int height,
+                                   final ByteBuffer dataY, final int strideY,
+                                   final ByteBuffer dataU, final int strideU,
+                                   final ByteBuffer dataV, final int strideV,
+                                   final int rowStart, final int rowEnd) {
+        final int chromaWidth = (width + 1) >> 1;
+        final RowScratch scratch = SCRATCH.get();
+        scratch.ensure(width, chromaWidth);
+        final byte[] yRow0 = scratch.yRow0;
+        final byte[] yRow1 = scratch.yRow1;
+        final byte[] uRow = scratch.uRow;
+        final byte[] vRow = scratch.vRow;
+        // Duplicates keep bands from racing on the shared buffer positions.
+        final ByteBuffer y = dataY.duplicate();
+        final ByteBuffer u = dataU.duplicate();
+        final ByteBuffer v = dataV.duplicate();
+        final int end = Math.min(rowEnd, height);
+        for (int row = rowStart; row < end; row += 2) {
+            final int p0 = row * width;
+            // The last row of an odd-height image is paired with itself.
+            final boolean hasSecondRow = row + 1 < height;
+            final int p1 = hasSecondRow ? p0 + width : p0;
+            for (int x = 0; x < width; x += 2) {
+                final boolean hasSecondColumn = x + 1 < width;
+                final int c00 = argb[p0 + x];
+                final int c01 = hasSecondColumn ? argb[p0 + x + 1] : c00;
+                final int c10 = argb[p1 + x];
+                final int c11 = hasSecondColumn ? argb[p1 + x + 1] : c10;
+
+                yRow0[x] = luma(c00);
+                yRow1[x] = luma(c10);
+                if (hasSecondColumn) {
+                    yRow0[x + 1] = luma(c01);
+                    yRow1[x + 1] = luma(c11);
+                }
+
+                final int r = (((c00 >> 16) & 0xff) + ((c01 >> 16) & 0xff) + ((c10 >> 16) & 0xff) + ((c11 >> 16) & 0xff) + 2) >> 2;
+                final int g = (((c00 >> 8) & 0xff) + ((c01 >> 8) & 0xff) + ((c10 >> 8) & 0xff) + ((c11 >> 8) & 0xff) + 2) >> 2;
+                final int b = ((c00 & 0xff) + (c01 & 0xff) + (c10 & 0xff) + (c11 & 0xff) + 2) >> 2;
+                uRow[x >> 1] = (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+                vRow[x >> 1] = (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+            }
+            y.position(row * strideY);
+            y.put(yRow0, 0, width);
+            if (hasSecondRow) {
+                y.position((row + 1) * strideY);
+                y.put(yRow1, 0, width);
+            }
+            final int chromaRow = row >> 1;
+            u.position(chromaRow * strideU);
+            u.put(uRow, 0, chromaWidth);
+            v.position(chromaRow * strideV);
+            v.put(vRow, 0, chromaWidth);
+        }
+    }
+
+    private static byte luma(final int c) {
+        return (byte) (((66 * ((c >> 16) & 0xff) + 129 * ((c >> 8) & 0xff) + 25 * (c & 0xff) + 128) >> 8) + 16);
+    }
+}
@@ -0,0 +1,61 @@
+package cn.cleartv.webrtchelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Small helpers for the 16-bit PCM buffers passed through the audio interceptors.
+ */
+public final class PcmKernels {
+
+    private PcmKernels() {
+    }
+
+    /**
+     * Copies {@code size} bytes starting at {@code position} out of a heap or direct buffer.
+     * The buffer's own position and limit are left untouched.
+     *
+     * @param dst Destination, or null to allocate one of exactly {@code size} bytes.
+     * @return The destination array.
+     */
+    public static byte[] copy(final ByteBuffer src, final int position, final int size, byte[] dst) {
+        if (dst == null || dst.length < size) {
+            dst = new byte[size];
+        }
+        if (src.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + position, dst, 0, size);
+        } else {
+            final ByteBuffer in = src.duplicate();
+            in.limit(position + size);
+            in.position(position);
+            in.get(dst, 0, size);
+        }
+        return dst;
+    }
+
+    /**
+     * Root mean square of little-endian signed 16-bit samples, normalized to {@code [0, 1]}.
+     */
+    public static double rms16(final byte[] pcm, final int offset, final int size) {
+        final int samples = size >> 1;
+        if (samples == 0) return 0.0;
+        long sum = 0;
+        for (int i = offset, end = offset + (samples << 1); i < end; i += 2) {
+            final int sample = (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8));
+            sum += (long) sample * sample;
+        }
+        return Math.sqrt((double) sum / samples) / 32768.0;
+    }
+
+    /**
+     * Peak absolute amplitude of little-endian signed 16-bit samples, normalized to {@code [0, 1]}.
+     */
+    public static double peak16(final byte[] pcm, final int offset, final int size) {
+        int peak = 0;
+        for (int i = offset, end = offset + (size & ~1); i < end; i += 2) {
+            final int sample = (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8));
+            final int abs = sample < 0 ? -sample : sample;
+            if (abs > peak) peak = abs;
+        }
+        return peak / 32768.0;
+    }
+}
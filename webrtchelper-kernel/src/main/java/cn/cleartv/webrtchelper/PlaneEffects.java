@@ -0,0 +1,143 @@
+package cn.cleartv.webrtchelper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-plane pixel operations used by the CPU frame processors and the compositor: copy, mirror, fill and alpha blend.
+ * <p>
+ * Planes are ByteBuffers addressed from index 0 with an explicit stride; their positions are never modified.
+ * Every row is moved with one bulk get/put through a caller-supplied scratch row, so direct buffers don't pay
+ * a per-byte cost and nothing is allocated per frame.
+ */
+public final class PlaneEffects {
+
+    private PlaneEffects() {
+    }
+
+    /**
+     * Copies {@code rows} rows of {@code width} bytes between two planes.
+     *
+     * @param row Scratch row, at least {@code width} bytes.
+     */
+    public static void copy(final ByteBuffer src, final int srcStride, final ByteBuffer dst, final int dstStride,
+                            final int width, final int rows, final byte[] row) {
+        final ByteBuffer in = src.duplicate();
+        final ByteBuffer out = dst.duplicate();
+        for (int y = 0; y < rows; y++) {
+            in.position(y * srcStride);
+            in.get(row, 0, width);
+            out.position(y * dstStride);
+            out.put(row, 0, width);
+        }
+    }
+
+    /**
+     * Copies a plane, flipping it left to right and/or top to bottom.
+     *
+     * @param row Scratch row, at least {@code width} bytes.
+     */
+    public static void mirror(final ByteBuffer src, final int srcStride, final ByteBuffer dst, final int dstStride,
+                              final int width, final int rows, final boolean horizontal, final boolean vertical,
+                              final byte[] row) {
+        final ByteBuffer in = src.duplicate();
+        final ByteBuffer out = dst.duplicate();
+        for (int y = 0; y < rows; y++) {
+            in.position(y * srcStride);
+            in.get(row, 0, width);
+            if (horizontal) {
+                for (int i = 0, j = width - 1; i < j; i++, j--) {
+                    final byte t = row[i];
+                    row[i] = row[j];
+                    row[j] = t;
+                }
+            }
+            out.position((vertical ? rows - 1 - y : y) * dstStride);
+            out.put(row, 0, width);
+        }
+    }
+
+    /**
+     * Sets {@code rows} rows of {@code width} bytes to {@code value}.
+     *
+     * @param row Scratch row, at least {@code width} bytes; its content is overwritten.
+     */
+    public static void fill(final ByteBuffer dst, final int dstStride, final int width, final int rows,
+                            final byte value, final byte[] row) {
+        Arrays.fill(row, 0, width, value);
+        final ByteBuffer out = dst.duplicate();
+        for (int y = 0; y < rows; y++) {
+            out.position(y * dstStride);
+            out.put(row, 0, width);
+        }
+    }
+
+    /**
+     * Sets a {@code width} x {@code rows} rectangle whose top-left sample is ({@code x}, {@code y}) to {@code value}.
+     *
+     * @param row Scratch row, at least {@code width} bytes; its content is overwritten.
+     */
+    public static void fillRect(final ByteBuffer dst, final int dstStride, final int x, final int y,
+                                final int width, final int rows, final byte value, final byte[] row) {
+        Arrays.fill(row, 0, width, value);
+        final ByteBuffer out = dst.duplicate();
+        for (int i = 0; i < rows; i++) {
+            out.position((y + i) * dstStride + x);
+            out.put(row, 0, width);
+        }
+    }
+
+    /**
+     * Copies a {@code width} x {@code rows} rectangle from a packed array plane into {@code dst}. No clipping is done,
+     * both rectangles must lie inside their planes.
+     */
+    public static void copyRect(final byte[] src, final int srcStride, final int srcX, final int srcY,
+                                final ByteBuffer dst, final int dstStride, final int dstX, final int dstY,
+                                final int width, final int rows) {
+        final ByteBuffer out = dst.duplicate();
+        for (int i = 0; i < rows; i++) {
+            out.position((dstY + i) * dstStride + dstX);
+            out.put(src, (srcY + i) * srcStride + srcX, width);
+        }
+    }
+
+    /**
+     * Blends a packed overlay plane onto {@code dst} at ({@code x}, {@code y}) using a per-pixel alpha plane of the
+     * same size: {@code dst = (src * a + dst * (255 - a)) / 255}. Parts outside the destination are clipped.
+     *
+     * @param overlay Overlay samples, {@code overlayWidth} per row.
+     * @param alpha   Alpha per overlay sample, 0 keeps the destination and 255 replaces it.
+     * @param row     Scratch row, at least {@code overlayWidth} bytes.
+     */
+    public static void blend(final ByteBuffer dst, final int dstStride, final int dstWidth, final int dstRows,
+                             final int x, final int y,
+                             final byte[] overlay, final byte[] alpha, final int overlayWidth, final int overlayRows,
+                             final byte[] row) {
+        final int left = Math.max(0, -x);
+        final int top = Math.max(0, -y);
+        final int right = Math.min(overlayWidth, dstWidth - x);
+        final int bottom = Math.min(overlayRows, dstRows - y);
+        if (left >= right || top >= bottom) return;
+        final int span = right - left;
+        final ByteBuffer out = dst.duplicate();
+        for (int oy = top; oy < bottom; oy++) {
+            final int dstOffset = (y + oy) * dstStride + x + left;
+            out.position(dstOffset);
+            out.get(row, 0, span);
+            int o = oy * overlayWidth + left;
+            for (int i = 0; i < span; i++, o++) {
+                final int a = alpha[o] & 0xff;
+                if (a == 0) continue;
+                if (a == 255) {
+                    row[i] = overlay[o];
+                } else {
+                    // With the +128 already in v, (v + (v >> 8)) >> 8 is v / 255 rounded to nearest.
+                    final int v = (overlay[o] & 0xff) * a + (row[i] & 0xff) * (255 - a) + 128;
+                    row[i] = (byte) ((v + (v >> 8)) >> 8);
+                }
+            }
+            out.position(dstOffset);
+            out.put(row, 0, span);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package cn.cleartv.webrtchelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rotates 8-bit planes by multiples of 90 degrees using blocked transposition.
+ * <p>
+ * For 90 and 270 degrees a naive loop reads rows and writes columns, so every written byte lands on a different cache
+ * line. Working in {@link #TILE} x {@link #TILE} blocks keeps both the source rows and the destination rows of a block
+ * in cache. 0 and 180 degrees are plain (reversed) row copies.
+ * <p>
+ * The destination can be written with a pixel stride of 2, which lets U and V be rotated straight into an interleaved
+ * NV12 chroma plane. Not thread safe, it keeps a scratch tile for ByteBuffer sources.
+ */
+public final class PlaneRotator {
+
+    /**
+     * Block edge in samples. 32 x 32 source bytes plus the touched destination lines fit comfortably in L1.
+     */
+    public static final int TILE = 32;
+
+    private final byte[] tile = new byte[TILE * TILE];
+
+    /**
+     * @param src            Source plane.
+     * @param srcOffset      Index of the first source sample.
+     * @param srcStride      Distance between two source rows.
+     * @param width          Source width in samples.
+     * @param height         Source height in rows.
+     * @param dst            Destination, large enough for the rotated plane.
+     * @param dstOffset      Index of the first destination sample.
+     * @param dstStride      Distance between two destination rows.
+     * @param dstPixelStride 1 for planar output, 2 for interleaved output.
+     * @param rotation       Clockwise rotation, a multiple of 90.
+     */
+    public void rotate(final byte[] src, final int srcOffset, final int srcStride, final int width, final int height,
+                       final byte[] dst, final int dstOffset, final int dstStride, final int dstPixelStride,
+                       final int rotation) {
+        final int degree = YuvArgbConverter.normalizeRotation(rotation);
+        switch (degree) {
+            case 0:
+                if (dstPixelStride == 1) {
+                    for (int y = 0; y < height; y++) {
+                        System.arraycopy(src, srcOffset + y * srcStride, dst, dstOffset + y * dstStride, width);
+                    }
+                } else {
+                    for (int y = 0; y < height; y++) {
+                        int s = srcOffset + y * srcStride;
+                        int d = dstOffset + y * dstStride;
+                        for (int x = 0; x < width; x++, d += dstPixelStride) dst[d] = src[s + x];
+                    }
+                }
+                return;
+            case 180:
+                for (int y = 0; y < height; y++) {
+                    final int s = srcOffset + y * srcStride;
+                    int d = dstOffset + (height - 1 - y) * dstStride + (width - 1) * dstPixelStride;
+                    for (int x = 0; x < width; x++, d -= dstPixelStride) dst[d] = src[s + x];
+                }
+                return;
+            default:
+                for (int ty = 0; ty < height; ty += TILE) {
+                    final int th = Math.min(TILE, height - ty);
+                    for (int tx = 0; tx < width; tx += TILE) {
+                        final int tw = Math.min(TILE, width - tx);
+                        transposeTile(src, srcOffset + ty * srcStride + tx, srcStride, tx, ty, tw, th,
+                                width, height, dst, dstOffset, dstStride, dstPixelStride, degree);
+                    }
+                }
+        }
+    }
+
+    /**
+     * ByteBuffer variant of {@link #rotate(byte[], int, int, int, int, byte[], int, int, int, int)}, for direct
+     * I420Buffer planes. Source tiles are fetched with one bulk read per tile row, the buffer position is untouched.
+     */
+    public void rotate(final ByteBuffer src, final int srcStride, final int width, final int height,
+                       final byte[] dst, final int dstOffset, final int dstStride, final int dstPixelStride,
+                       final int rotation) {
+        final ByteBuffer in = src.duplicate();
+        final int degree = YuvArgbConverter.normalizeRotation(rotation);
+        if (degree == 0 && dstPixelStride == 1) {
+            for (int y = 0; y < height; y++) {
+                in.position(y * srcStride);
+                in.get(dst, dstOffset + y * dstStride, width);
+            }
+            return;
+        }
+        final byte[] tile = this.tile;
+        for (int ty = 0; ty < height; ty += TILE) {
+            final int th = Math.min(TILE, height - ty);
+            for (int tx = 0; tx < width; tx += TILE) {
+                final int tw = Math.min(TILE, width - tx);
+                for (int y = 0; y < th; y++) {
+                    in.position((ty + y) * srcStride + tx);
+                    in.get(tile, y * TILE, tw);
+                }
+                transposeTile(tile, 0, TILE, tx, ty, tw, th, width, height, dst, dstOffset, dstStride, dstPixelStride, degree);
+            }
+        }
+    }
+
+    /**
+     * Rotates one block whose top-left source sample is at ({@code tx}, {@code ty}) and lives at {@code src[s]}.
+     */
+    private static void transposeTile(final byte[] src, final int s, final int srcStride,
+                                      final int tx, final int ty, final int tw, final int th,
+                                      final int width, final int height,
+                                      final byte[] dst, final int dstOffset, final int dstStride, final int dstPixelStride,
+                                      final int degree) {
+        switch (degree) {
+            case 90:
+                // (x, y) -> (height - 1 - y, x). Walk destination rows so writes are sequential.
+                for (int x = 0; x < tw; x++) {
+                    int d = dstOffset + (tx + x) * dstStride + (height - 1 - ty) * dstPixelStride;
+                    int si = s + x;
+                    for (int y = 0; y < th; y++, si += srcStride, d -= dstPixelStride) dst[d] = src[si];
+                }
+                break;
+            case 270:
+                // (x, y) -> (y, width - 1 - x)
+                for (int x = 0; x < tw; x++) {
+                    int d = dstOffset + (width - 1 - tx - x) * dstStride + ty * dstPixelStride;
+                    int si = s + x;
+                    for (int y = 0; y < th; y++, si += srcStride, d += dstPixelStride) dst[d] = src[si];
+                }
+                break;
+            case 180:
+                for (int y = 0; y < th; y++) {
+                    int d = dstOffset + (height - 1 - ty - y) * dstStride + (width - 1 - tx) * dstPixelStride;
+                    int si = s + y * srcStride;
+                    for (int x = 0; x < tw; x++, si++, d -= dstPixelStride) dst[d] = src[si];
+                }
+                break;
+            default:
+                for (int y = 0; y < th; y++) {
+                    int d = dstOffset + (ty + y) * dstStride + tx * dstPixelStride;
+                    int si = s + y * srcStride;
+                    for (int x = 0; x < tw; x++, si++, d += dstPixelStride) dst[d] = src[si];
+                }
+        }
+    }
+
+    /**
+     * Reference per-pixel rotation, the way the ARGB conversion used to scatter its writes. Kept for benchmarks.
+     */
+    public static void rotateNaive(final byte[] src, final int srcStride, final int width, final int height,
+                                   final byte[] dst, final int rotation) {
+        final int degree = YuvArgbConverter.normalizeRotation(rotation);
+        final int step = YuvArgbConverter.outputStep(degree, width, height);
+        for (int y = 0; y < height; y++) {
+            int o = YuvArgbConverter.outputRowStart(degree, width, height, y);
+            final int s = y * srcStride;
+            for (int x = 0; x < width; x++, o += step) dst[o] = src[s + x];
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package cn.cleartv.webrtchelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Crops, scales and rotates one 8-bit plane in a single pass from a ByteBuffer into a packed byte array.
+ * <p>
+ * Only the source bytes that contribute to an output sample are read: bilinear touches four samples per output
+ * pixel, box touches the crop rectangle once. Rotation is applied through the output index, so the result is upright.
+ * <p>
+ * The instance keeps its sampling tables between calls so repeated frames of the same geometry allocate nothing.
+ * It is not thread safe.
+ */
+public final class PlaneScaler {
+
+    public enum Filter {
+        /**
+         * Averages every source sample covered by the output sample, best for large downscales.
+         */
+        BOX,
+        /**
+         * Interpolates the four nearest source samples, cheapest for small thumbnails and for upscaling.
+         */
+        BILINEAR
+    }
+
+    // Fixed-point precision of the bilinear weights.
+    private static final int WEIGHT_SHIFT = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_SHIFT;
+
+    private int[] xStart = new int[0];
+    private int[] xEnd = new int[0];
+    private int[] xWeight = new int[0];
+    private byte[] row = new byte[0];
+
+    /**
+     * @param src       Source plane, its position is left untouched.
+     * @param srcStride Distance in bytes between the starts of two source rows.
+     * @param cropX     Left of the crop rectangle in source samples.
+     * @param cropY     Top of the crop rectangle in source rows.
+     * @param cropW     Width of the crop rectangle.
+     * @param cropH     Height of the crop rectangle.
+     * @param dst       Output, at least {@code dstW * dstH} bytes, packed (stride = rotated width).
+     * @param dstW      Output width before rotation.
+     * @param dstH      Output height before rotation.
+     * @param rotation  Clockwise rotation applied while writing, a multiple of 90.
+     */
+    public void scale(final ByteBuffer src, final int srcStride,
+                      final int cropX, final int cropY, final int cropW, final int cropH,
+                      final byte[] dst, final int dstW, final int dstH,
+                      final int rotation, final Filter filter) {
+        final int degree = YuvArgbConverter.normalizeRotation(rotation);
+        if (cropW == dstW && cropH == dstH) {
+            copy(src, srcStride, cropX, cropY, dst, dstW, dstH, degree);
+        } else if (filter == Filter.BILINEAR) {
+            bilinear(src, srcStride, cropX, cropY, cropW, cropH, dst, dstW, dstH, degree);
+        } else {
+            box(src, srcStride, cropX, cropY, cropW, cropH, dst, dstW, dstH, degree);
+        }
+    }
+
+    /**
+     * Copies the visible part of a plane into a packed array, one bulk read when the rows are already packed.
+     *
+     * @param src       Source plane, its position is left untouched.
+     * @param srcStride Distance in bytes between the starts of two source rows.
+     * @param rowWidth  Visible bytes per row.
+     * @param rows      Number of rows.
+     * @param dst       Output, at least {@code rowWidth * rows} bytes.
+     */
+    public static void copyPlane(final ByteBuffer src, final int srcStride, final int rowWidth, final int rows,
+                                 final byte[] dst) {
+        final ByteBuffer in = src.duplicate();
+        if (srcStride == rowWidth) {
+            in.position(0);
+            in.get(dst, 0, rowWidth * rows);
+        } else {
+            for (int i = 0; i < rows; i++) {
+                in.position(i * srcStride);
+                in.get(dst, i * rowWidth, rowWidth);
+            }
+        }
+    }
+
+    private void copy(final ByteBuffer src, final int srcStride, final int cropX, final int cropY,
+                      final byte[] dst, final int w, final int h, final int degree) {
+        final ByteBuffer in = src.duplicate();
+        if (degree == 0) {
+            // Straight row copies
+            for (int y = 0; y < h; y++) {
+                in.position((cropY + y) * srcStride + cropX);
+                in.get(dst, y * w, w);
+            }
+            return;
+        }
+        final byte[] row = rowBuffer(w);
+        final int step = YuvArgbConverter.outputStep(degree, w, h);
+        for (int y = 0; y < h; y++) {
+            in.position((cropY + y) * srcStride + cropX);
+            in.get(row, 0, w);
+            int o = YuvArgbConverter.outputRowStart(degree, w, h, y);
+            for (int x = 0; x < w; x++) {
+                dst[o] = row[x];
+                o += step;
+            }
+        }
+    }
+
+    private void bilinear(final ByteBuffer src, final int srcStride,
+                          final int cropX, final int cropY, final int cropW, final int cropH,
+                          final byte[] dst, final int dstW, final int dstH, final int degree) {
+        ensureTables(dstW);
+        // Sample centres map as (d + 0.5) * crop / dst - 0.5, kept in WEIGHT_SHIFT fixed point.
+        for (int x = 0; x < dstW; x++) {
+            final int pos = Math.max(0, (int) (((2L * x + 1) * cropW * WEIGHT_ONE / dstW - WEIGHT_ONE) / 2));
+            final int x0 = Math.min(pos >> WEIGHT_SHIFT, cropW - 1);
+            xStart[x] = cropX + x0;
+            xEnd[x] = cropX + Math.min(x0 + 1, cropW - 1);
+            xWeight[x] = x0 == cropW - 1 ? 0 : pos & (WEIGHT_ONE - 1);
+        }
+        final int step = YuvArgbConverter.outputStep(degree, dstW, dstH);
+        for (int y = 0; y < dstH; y++) {
+            final int pos = Math.max(0, (int) (((2L * y + 1) * cropH * WEIGHT_ONE / dstH - WEIGHT_ONE) / 2));
+            final int y0 = Math.min(pos >> WEIGHT_SHIFT, cropH - 1);
+            final int y1 = Math.min(y0 + 1, cropH - 1);
+            final int fy = y0 == cropH - 1 ? 0 : pos & (WEIGHT_ONE - 1);
+            final int row0 = (cropY + y0) * srcStride;
+            final int row1 = (cropY + y1) * srcStride;
+            int o = YuvArgbConverter.outputRowStart(degree, dstW, dstH, y);
+            for (int x = 0; x < dstW; x++) {
+                final int fx = xWeight[x];
+                final int a = src.get(row0 + xStart[x]) & 0xff;
+                final int b = src.get(row0 + xEnd[x]) & 0xff;
+                final int c = src.get(row1 + xStart[x]) & 0xff;
+                final int d = src.get(row1 + xEnd[x]) & 0xff;
+                final int top = a * (WEIGHT_ONE - fx) + b * fx;
+                final int bottom = c * (WEIGHT_ONE - fx) + d * fx;
+                dst[o] = (byte) ((top * (WEIGHT_ONE - fy) + bottom * fy + (1 << (2 * WEIGHT_SHIFT - 1))) >> (2 * WEIGHT_SHIFT));
+                o += step;
+            }
+        }
+    }
+
+    private void box(final ByteBuffer src, final int srcStride,
+                     final int cropX, final int cropY, final int cropW, final int cropH,
+                     final byte[] dst, final int dstW, final int dstH, final int degree) {
+        ensureTables(dstW);
+        for (int x = 0; x < dstW; x++) {
+            final int start = (int) ((long) x * cropW / dstW);
+            xStart[x] = start;
+            xEnd[x] = Math.max(start + 1, (int) ((long) (x + 1) * cropW / dstW));
+        }
+        final byte[] row = rowBuffer(cropW);
+        final int[] sums = xWeight;
+        final ByteBuffer in = src.duplicate();
+        final int step = YuvArgbConverter.outputStep(degree, dstW, dstH);
+        for (int y = 0; y < dstH; y++) {
+            final int yStart = (int) ((long) y * cropH / dstH);
+            final int yEnd = Math.max(yStart + 1, (int) ((long) (y + 1) * cropH / dstH));
+            for (int x = 0; x < dstW; x++) sums[x] = 0;
+            // Accumulate the covered source rows, one bulk read per row.
+            for (int sy = yStart; sy < yEnd; sy++) {
+                in.position((cropY + sy) * srcStride + cropX);
+                in.get(row, 0, cropW);
+                for (int x = 0; x < dstW; x++) {
+                    int sum = 0;
+                    for (int sx = xStart[x], end = xEnd[x]; sx < end; sx++) {
+                        sum += row[sx] & 0xff;
+                    }
+                    sums[x] += sum;
+                }
+            }
+            final int rows = yEnd - yStart;
+            int o = YuvArgbConverter.outputRowStart(degree, dstW, dstH, y);
+            for (int x = 0; x < dstW; x++) {
+                final int area = (xEnd[x] - xStart[x]) * rows;
+                dst[o] = (byte) ((sums[x] + (area >> 1)) / area);
+                o += step;
+            }
+        }
+    }
+
+    private void ensureTables(final int size) {
+        if (xStart.length < size) {
+            xStart = new int[size];
+            xEnd = new int[size];
+            xWeight = new int[size];
+        }
+    }
+
+    private byte[] rowBuffer(final int size) {
+        if (row.length < size) {
+            row = new byte[size];
+        }
+        return row;
+    }
+}
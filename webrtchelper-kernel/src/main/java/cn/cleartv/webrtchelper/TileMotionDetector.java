@@ -0,0 +1,209 @@
+package cn.cleartv.webrtchelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cheap per-frame motion measure on a luma plane, used to detect static content.
+ * <p>
+ * The plane is split into a grid of tiles and every tile is represented by a small evenly spaced sample grid, so the
+ * cost depends on the grid and not on the frame size. Each tile's samples are hashed while they are read: an equal
+ * hash (the usual case for unchanged screen content) marks the tile unchanged without further work. Only tiles whose
+ * hash differs are compared sample by sample, and count as changed when at least {@code minChangedSamples} samples
+ * differ by more than the per-sample threshold. A per-sample test keeps a small change (a caret, a typed glyph) from
+ * being averaged away, while the threshold keeps sensor noise on a still camera from reading as motion.
+ * <p>
+ * A fixed grid never sees a change that falls between its sample points, so the grid is shifted inside each sample
+ * cell from frame to frame through {@link #PHASES_PER_SIDE}^2 phases. The phase order walks the diagonals of the phase
+ * grid: any {@link #PHASES_PER_SIDE} consecutive frames use every horizontal offset, and every aligned group of
+ * {@link #PHASES_PER_SIDE} frames also uses every vertical offset. A change wider than a quarter of a sample cell and
+ * taller than a sample cell is caught within four frames, one wider and taller than a quarter cell within seven. Each
+ * phase is compared with the samples it read the last time it was used, the first frame after a reset fills every
+ * phase.
+ * <p>
+ * The instance keeps the previous samples of every phase. It is not thread safe.
+ */
+public final class TileMotionDetector {
+
+    /**
+     * Sampling offsets per axis inside a sample cell.
+     */
+    public static final int PHASES_PER_SIDE = 4;
+
+    private static final int PHASES = PHASES_PER_SIDE * PHASES_PER_SIDE;
+
+    private final int tilesX;
+    private final int tilesY;
+    private final int samplesPerSide;
+    private final int sampleThreshold;
+    private final int minChangedSamples;
+    private final int samplesPerPhase;
+
+    // Per phase: tile hashes and samples from the last frame that used the phase.
+    private final int[] hashes;
+    private final byte[] previous;
+    private final byte[] current;
+    private final int[] currentHashes;
+    // Per phase: sample positions, PHASES_PER_SIDE rows of tilesX * samplesPerSide (tilesY * samplesPerSide) entries.
+    private int[] sampleX = new int[0];
+    private int[] sampleY = new int[0];
+    private int width;
+    private int height;
+    private boolean hasPrevious;
+    private int frameIndex;
+    private int lastMaxSampleDiff;
+
+    /**
+     * Same as {@link #TileMotionDetector(int, int, int, int, int)} with a single changed sample flagging a tile.
+     */
+    public TileMotionDetector(final int tilesX, final int tilesY, final int samplesPerSide, final int sampleThreshold) {
+        this(tilesX, tilesY, samplesPerSide, sampleThreshold, 1);
+    }
+
+    /**
+     * @param tilesX            Tiles per row.
+     * @param tilesY            Tiles per column.
+     * @param samplesPerSide    Samples along each side of a tile, a tile reads {@code samplesPerSide^2} samples.
+     * @param sampleThreshold   Absolute difference of one sample (0-255) above which the sample counts as changed.
+     * @param minChangedSamples Changed samples needed to flag a tile.
+     */
+    public TileMotionDetector(final int tilesX, final int tilesY, final int samplesPerSide, final int sampleThreshold,
+                              final int minChangedSamples) {
+        if (tilesX <= 0 || tilesY <= 0 || samplesPerSide <= 0 || minChangedSamples <= 0) {
+            throw new IllegalArgumentException("invalid grid " + tilesX + "x" + tilesY + "x" + samplesPerSide
+                    + ", minChangedSamples " + minChangedSamples);
+        }
+        this.tilesX = tilesX;
+        this.tilesY = tilesY;
+        this.samplesPerSide = samplesPerSide;
+        this.sampleThreshold = sampleThreshold;
+        this.minChangedSamples = minChangedSamples;
+        samplesPerPhase = tilesX * tilesY * samplesPerSide * samplesPerSide;
+        hashes = new int[PHASES * tilesX * tilesY];
+        previous = new byte[PHASES * samplesPerPhase];
+        current = new byte[samplesPerPhase];
+        currentHashes = new int[tilesX * tilesY];
+    }
+
+    public int getTileCount() {
+        return tilesX * tilesY;
+    }
+
+    /**
+     * Largest absolute difference of a single sample seen by the last {@link #update}, 0 when every hash matched.
+     */
+    public int getLastMaxSampleDiff() {
+        return lastMaxSampleDiff;
+    }
+
+    /**
+     * Forgets the previous frames, the next update reports every tile as changed.
+     */
+    public void reset() {
+        hasPrevious = false;
+    }
+
+    /**
+     * Samples a new frame at the next phase and compares it with the samples that phase read last time.
+     *
+     * @param plane  Luma plane, its position is left untouched.
+     * @param stride Distance in bytes between the starts of two rows.
+     * @return Number of changed tiles; every tile when there is no previous frame or the size changed.
+     */
+    public int update(final ByteBuffer plane, final int stride, final int width, final int height) {
+        if (width != this.width || height != this.height) {
+            layout(width, height);
+            hasPrevious = false;
+        }
+        final int tileCount = tilesX * tilesY;
+        if (!hasPrevious) {
+            for (int phase = 0; phase < PHASES; phase++) {
+                sample(plane, stride, phase, previous, phase * samplesPerPhase, hashes, phase * tileCount);
+            }
+            hasPrevious = true;
+            frameIndex = 0;
+            lastMaxSampleDiff = 0;
+            return tileCount;
+        }
+        final int phase = phaseOf(frameIndex++);
+        final int hashBase = phase * tileCount;
+        final int sampleBase = phase * samplesPerPhase;
+        final int perTile = samplesPerSide * samplesPerSide;
+        final byte[] current = this.current;
+        final byte[] previous = this.previous;
+        final int[] currentHashes = this.currentHashes;
+        sample(plane, stride, phase, current, 0, currentHashes, 0);
+        int changed = 0;
+        int maxDiff = 0;
+        for (int tile = 0; tile < tileCount; tile++) {
+            if (currentHashes[tile] == hashes[hashBase + tile]) continue;
+            final int base = tile * perTile;
+            int changedSamples = 0;
+            for (int k = base; k < base + perTile; k++) {
+                final int diff = Math.abs((current[k] & 0xff) - (previous[sampleBase + k] & 0xff));
+                if (diff > maxDiff) maxDiff = diff;
+                if (diff > sampleThreshold) changedSamples++;
+            }
+            if (changedSamples >= minChangedSamples) changed++;
+        }
+        System.arraycopy(current, 0, previous, sampleBase, samplesPerPhase);
+        System.arraycopy(currentHashes, 0, hashes, hashBase, tileCount);
+        lastMaxSampleDiff = maxDiff;
+        return changed;
+    }
+
+    /**
+     * Phase {@code k} within a cycle uses horizontal offset {@code k % P} and vertical offset
+     * {@code (k % P + k / P) % P}: any run of {@code P} frames covers each horizontal offset, a run starting at a
+     * multiple of {@code P} also covers each vertical offset.
+     */
+    static int phaseOf(final int frameIndex) {
+        final int k = frameIndex & (PHASES - 1);
+        final int px = k % PHASES_PER_SIDE;
+        final int py = (px + k / PHASES_PER_SIDE) % PHASES_PER_SIDE;
+        return py * PHASES_PER_SIDE + px;
+    }
+
+    private void sample(final ByteBuffer plane, final int stride, final int phase, final byte[] dst,
+                        final int dstOffset, final int[] tileHashes, final int hashOffset) {
+        final int n = samplesPerSide;
+        final int columns = tilesX * n;
+        final int rows = tilesY * n;
+        final int xBase = (phase % PHASES_PER_SIDE) * columns;
+        final int yBase = (phase / PHASES_PER_SIDE) * rows;
+        int s = dstOffset;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                int hash = 1;
+                for (int j = 0; j < n; j++) {
+                    final int rowStart = sampleY[yBase + ty * n + j] * stride;
+                    for (int i = 0; i < n; i++, s++) {
+                        final byte value = plane.get(rowStart + sampleX[xBase + tx * n + i]);
+                        dst[s] = value;
+                        hash = 31 * hash + value;
+                    }
+                }
+                tileHashes[hashOffset + ty * tilesX + tx] = hash;
+            }
+        }
+    }
+
+    private void layout(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        final int columns = tilesX * samplesPerSide;
+        final int rows = tilesY * samplesPerSide;
+        if (sampleX.length != PHASES_PER_SIDE * columns) sampleX = new int[PHASES_PER_SIDE * columns];
+        if (sampleY.length != PHASES_PER_SIDE * rows) sampleY = new int[PHASES_PER_SIDE * rows];
+        // Every sample cell is split into PHASES_PER_SIDE sub-cells per axis, a phase samples their centres.
+        for (int p = 0; p < PHASES_PER_SIDE; p++) {
+            for (int i = 0; i < columns; i++) {
+                sampleX[p * columns + i] = (int) ((2L * (i * PHASES_PER_SIDE + p) + 1) * width
+                        / (2L * columns * PHASES_PER_SIDE));
+            }
+            for (int i = 0; i < rows; i++) {
+                sampleY[p * rows + i] = (int) ((2L * (i * PHASES_PER_SIDE + p) + 1) * height
+                        / (2L * rows * PHASES_PER_SIDE));
+            }
+        }
+    }
+}
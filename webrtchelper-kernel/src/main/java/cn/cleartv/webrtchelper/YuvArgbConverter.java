@@ -0,0 +1,408 @@
+package cn.cleartv.webrtchelper;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-point YUV to ARGB_8888 conversion engine.
+ * <p>
+ * All per-pixel work is done with integer lookup tables built once per colour space, so the inner loop is a handful of
+ * table reads, adds and shifts. Planes are walked row by row using their own strides, and the requested rotation is
+ * applied while writing, so the output is already upright.
+ * <p>
+ * Instances are immutable and thread safe, use {@link #get(Matrix, Range)} to obtain one.
+ */
+public final class YuvArgbConverter {
+
+    /**
+     * YUV to RGB matrix coefficients.
+     */
+    public enum Matrix {
+        BT601(0.299, 0.114),
+        BT709(0.2126, 0.0722);
+
+        final double kr;
+        final double kb;
+
+        Matrix(double kr, double kb) {
+            this.kr = kr;
+            this.kb = kb;
+        }
+    }
+
+    /**
+     * Quantization range of the source samples.
+     * FULL: Y and UV use 0..255. LIMITED: Y uses 16..235 and UV uses 16..240 (studio swing).
+     */
+    public enum Range {
+        FULL, LIMITED
+    }
+
+    /**
+     * BT.601 full range, the same coefficients the original float loop in {@link YuvFrame} used.
+     */
+    public static final YuvArgbConverter DEFAULT;
+
+    private static final YuvArgbConverter[] INSTANCES;
+
+    // Fixed-point precision of the lookup tables (16.16).
+    private static final int SHIFT = 16;
+    // Offset into the clamp tables, large enough to cover the most negative intermediate value of any matrix/range.
+    private static final int CLAMP_OFFSET = 384;
+    // Clamped channel values, pre-shifted into their ARGB position (alpha is folded into the red table).
+    private static final int[] CLAMP_R = new int[1024];
+    private static final int[] CLAMP_G = new int[1024];
+    private static final int[] CLAMP_B = new int[1024];
+
+    static {
+        for (int i = 0; i < CLAMP_B.length; i++) {
+            final int value = i - CLAMP_OFFSET;
+            final int clamped = value < 0 ? 0 : Math.min(value, 255);
+            CLAMP_R[i] = 0xff000000 | (clamped << 16);
+            CLAMP_G[i] = clamped << 8;
+            CLAMP_B[i] = clamped;
+        }
+        final Matrix[] matrices = Matrix.values();
+        final Range[] ranges = Range.values();
+        INSTANCES = new YuvArgbConverter[matrices.length * ranges.length];
+        for (Matrix matrix : matrices) {
+            for (Range range : ranges) {
+                INSTANCES[matrix.ordinal() * ranges.length + range.ordinal()] = new YuvArgbConverter(matrix, range);
+            }
+        }
+        DEFAULT = get(Matrix.BT601, Range.FULL);
+    }
+
+    public static YuvArgbConverter get(Matrix matrix, Range range) {
+        return INSTANCES[matrix.ordinal() * Range.values().length + range.ordinal()];
+    }
+
+    public final Matrix matrix;
+    public final Range range;
+
+    // Y contribution, already including the rounding bias and the clamp table offset.
+    private final int[] yTable = new int[256];
+    private final int[] rvTable = new int[256];
+    private final int[] guTable = new int[256];
+    private final int[] gvTable = new int[256];
+    private final int[] buTable = new int[256];
+
+    private YuvArgbConverter(Matrix matrix, Range range) {
+        this.matrix = matrix;
+        this.range = range;
+        final double kr = matrix.kr;
+        final double kb = matrix.kb;
+        final double kg = 1.0 - kr - kb;
+        final double yScale = range == Range.LIMITED ? 255.0 / 219.0 : 1.0;
+        final double yOffset = range == Range.LIMITED ? 16.0 : 0.0;
+        final double cScale = range == Range.LIMITED ? 255.0 / 224.0 : 1.0;
+        final double one = 1 << SHIFT;
+        for (int i = 0; i < 256; i++) {
+            final double c = (i - 128) * cScale;
+            yTable[i] = (int) Math.round(((i - yOffset) * yScale + CLAMP_OFFSET) * one) + (1 << (SHIFT - 1));
+            rvTable[i] = (int) Math.round(2.0 * (1.0 - kr) * c * one);
+            guTable[i] = (int) Math.round(-2.0 * kb * (1.0 - kb) / kg * c * one);
+            gvTable[i] = (int) Math.round(-2.0 * kr * (1.0 - kr) / kg * c * one);
+            buTable[i] = (int) Math.round(2.0 * (1.0 - kb) * c * one);
+        }
+    }
+
+    /**
+     * Converts a planar YUV image to ARGB, rotating it clockwise by {@code rotation} degrees.
+     * When the rotation is 90 or 270 the output is {@code height} pixels wide and {@code width} pixels tall.
+     *
+     * @param chromaShiftY 1 for 4:2:0 (one chroma row per two luma rows), 0 for 4:2:2.
+     * @param out          Output array, at least {@code width * height} long.
+     */
+    public void convert(final byte[] yPlane, final int yStride,
+                        final byte[] uPlane, final int uStride,
+                        final byte[] vPlane, final int vStride,
+                        final int chromaShiftY, final int width, final int height,
+                        final int rotation, final int[] out) {
+        convertRows(yPlane, yStride, uPlane, uStride, vPlane, vStride, chromaShiftY, width, height, rotation, out,
+                0, height);
+    }
+
+    /**
+     * Same as {@link #convert}, but only converts source rows {@code [rowStart, rowEnd)}.
+     * Distinct row ranges write to distinct output pixels for every rotation.
+     */
+    public void convertRows(final byte[] yPlane, final int yStride,
+                            final byte[] uPlane, final int uStride,
+                            final byte[] vPlane, final int vStride,
+                            final int chromaShiftY, final int width, final int height,
+                            final int rotation, final int[] out,
+                            final int rowStart, final int rowEnd) {
+        final int degree = normalizeRotation(rotation);
+        // Rows beyond what the planes actually hold are skipped rather than read out of bounds.
+        final int chromaWidth = (width + 1) >> 1;
+        final int end = Math.min(rowEnd, Math.min(
+                availableRows(yPlane.length, yStride, width),
+                Math.min(availableRows(uPlane.length, uStride, chromaWidth),
+                        availableRows(vPlane.length, vStride, chromaWidth)) << chromaShiftY));
+        for (int row = rowStart; row < end; row++) {
+            final int chromaRow = row >> chromaShiftY;
+            convertRow(yPlane, row * yStride,
+                    uPlane, chromaRow * uStride,
+                    vPlane, chromaRow * vStride,
+                    width, out, outputRowStart(degree, width, height, row), outputStep(degree, width, height));
+        }
+    }
+
+    /**
+     * Same as {@link #convertRows}, reading from (typically direct) ByteBuffers such as the planes of a
+     * {@code VideoFrame.I420Buffer}. Each row is fetched with one bulk read and the buffers' positions are left untouched.
+     */
+    public void convertRows(final ByteBuffer yPlane, final int yStride,
+                            final ByteBuffer uPlane, final int uStride,
+                            final ByteBuffer vPlane, final int vStride,
+                            final int chromaShiftY, final int width, final int height,
+                            final int rotation, final int[] out,
+                            final int rowStart, final int rowEnd) {
+        final int degree = normalizeRotation(rotation);
+        final int chromaWidth = (width + 1) >> 1;
+        final int end = Math.min(rowEnd, Math.min(
+                availableRows(yPlane.limit(), yStride, width),
+                Math.min(availableRows(uPlane.limit(), uStride, chromaWidth),
+                        availableRows(vPlane.limit(), vStride, chromaWidth)) << chromaShiftY));
+        if (rowStart >= end) return;
+        // Duplicates give this band its own position, the plane buffers may be shared with other bands.
+        final ByteBuffer y = yPlane.duplicate();
+        final ByteBuffer u = uPlane.duplicate();
+        final ByteBuffer v = vPlane.duplicate();
+        final byte[] yRow = new byte[width];
+        final byte[] uRow = new byte[chromaWidth];
+        final byte[] vRow = new byte[chromaWidth];
+        int loadedChromaRow = -1;
+        for (int row = rowStart; row < end; row++) {
+            final int chromaRow = row >> chromaShiftY;
+            y.position(row * yStride);
+            y.get(yRow, 0, width);
+            if (chromaRow != loadedChromaRow) {
+                u.position(chromaRow * uStride);
+                u.get(uRow, 0, chromaWidth);
+                v.position(chromaRow * vStride);
+                v.get(vRow, 0, chromaWidth);
+                loadedChromaRow = chromaRow;
+            }
+            convertRow(yRow, 0, uRow, 0, vRow, 0,
+                    width, out, outputRowStart(degree, width, height, row), outputStep(degree, width, height));
+        }
+    }
+
+    /**
+     * Same as {@link #convert}, but splits the source rows into {@code bands} bands and converts them concurrently.
+     * The calling thread converts the last band itself and returns once every band is done. Bands write to disjoint
+     * parts of {@code out} whatever the rotation, so no further synchronization is needed.
+     *
+     * @param executor Runs all bands but the last one. If it rejects a band, that band runs on the calling thread.
+     * @param bands    Number of bands, values below 2 convert everything on the calling thread.
+     */
+    public void convertParallel(final byte[] yPlane, final int yStride,
+                                final byte[] uPlane, final int uStride,
+                                final byte[] vPlane, final int vStride,
+                                final int chromaShiftY, final int width, final int height,
+                                final int rotation, final int[] out,
+                                final Executor executor, final int bands) {
+        runBanded(height, executor, bands, (rowStart, rowEnd) ->
+                convertRows(yPlane, yStride, uPlane, uStride, vPlane, vStride, chromaShiftY, width, height,
+                        rotation, out, rowStart, rowEnd));
+    }
+
+    /**
+     * ByteBuffer variant of {@link #convertParallel(byte[], int, byte[], int, byte[], int, int, int, int, int, int[], Executor, int)}.
+     */
+    public void convertParallel(final ByteBuffer yPlane, final int yStride,
+                                final ByteBuffer uPlane, final int uStride,
+                                final ByteBuffer vPlane, final int vStride,
+                                final int chromaShiftY, final int width, final int height,
+                                final int rotation, final int[] out,
+                                final Executor executor, final int bands) {
+        runBanded(height, executor, bands, (rowStart, rowEnd) ->
+                convertRows(yPlane, yStride, uPlane, uStride, vPlane, vStride, chromaShiftY, width, height,
+                        rotation, out, rowStart, rowEnd));
+    }
+
+    /**
+     * Work on a range of rows {@code [rowStart, rowEnd)}.
+     */
+    public interface BandTask {
+        void run(int rowStart, int rowEnd);
+    }
+
+    /**
+     * Splits {@code rows} into even-aligned bands and runs {@code task} on each, the last band on the calling thread.
+     * Returns once every band is done, rethrowing the first failure.
+     */
+    public static void runBanded(final int rows, final Executor executor, final int bands, final BandTask task) {
+        final int bandCount = Math.min(bands, rows);
+        if (bandCount < 2) {
+            task.run(0, rows);
+            return;
+        }
+        // Keep band borders on even rows so a 4:2:0 chroma row is never shared between bands.
+        final int bandRows = ((rows + bandCount - 1) / bandCount + 1) & ~1;
+        final int submitted = (rows + bandRows - 1) / bandRows - 1;
+        final CountDownLatch latch = new CountDownLatch(submitted);
+        final Throwable[] error = new Throwable[1];
+        for (int band = 0; band < submitted; band++) {
+            final int rowStart = band * bandRows;
+            final int rowEnd = rowStart + bandRows;
+            final Runnable runnable = () -> {
+                try {
+                    task.run(rowStart, rowEnd);
+                } catch (Throwable t) {
+                    synchronized (error) {
+                        error[0] = t;
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            };
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                runnable.run();
+            }
+        }
+        task.run(submitted * bandRows, rows);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        synchronized (error) {
+            if (error[0] != null) throw new RuntimeException("YuvArgbConverter: band failed", error[0]);
+        }
+    }
+
+    /**
+     * A shared pool with one daemon thread per CPU core, used when no executor is supplied for parallel conversion.
+     */
+    public static ExecutorService defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Number of bands worth using for a frame of the given height on this device.
+     */
+    public static int defaultBandCount(final int height) {
+        // Bands shorter than ~64 rows cost more to schedule than they save.
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 64));
+    }
+
+    private static final class DefaultExecutorHolder {
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "YuvArgbConverter-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Converts one row of pixels.
+     *
+     * @param outOffset Index of the first converted pixel in {@code out}.
+     * @param outStep   Distance between two neighbouring converted pixels in {@code out}, can be negative.
+     */
+    public void convertRow(final byte[] yRow, final int yOffset,
+                           final byte[] uRow, final int uOffset,
+                           final byte[] vRow, final int vOffset,
+                           final int width, final int[] out, final int outOffset, final int outStep) {
+        final int[] yTable = this.yTable;
+        final int[] clampR = CLAMP_R;
+        final int[] clampG = CLAMP_G;
+        final int[] clampB = CLAMP_B;
+        int o = outOffset;
+        int x = 0;
+        for (; x + 1 < width; x += 2) {
+            final int u = uRow[uOffset + (x >> 1)] & 0xff;
+            final int v = vRow[vOffset + (x >> 1)] & 0xff;
+            final int rv = rvTable[v];
+            final int guv = guTable[u] + gvTable[v];
+            final int bu = buTable[u];
+
+            int y = yTable[yRow[yOffset + x] & 0xff];
+            out[o] = clampR[(y + rv) >> SHIFT] | clampG[(y + guv) >> SHIFT] | clampB[(y + bu) >> SHIFT];
+            o += outStep;
+            y = yTable[yRow[yOffset + x + 1] & 0xff];
+            out[o] = clampR[(y + rv) >> SHIFT] | clampG[(y + guv) >> SHIFT] | clampB[(y + bu) >> SHIFT];
+            o += outStep;
+        }
+        if (x < width) {
+            final int u = uRow[uOffset + (x >> 1)] & 0xff;
+            final int v = vRow[vOffset + (x >> 1)] & 0xff;
+            final int y = yTable[yRow[yOffset + x] & 0xff];
+            out[o] = clampR[(y + rvTable[v]) >> SHIFT]
+                    | clampG[(y + guTable[u] + gvTable[v]) >> SHIFT]
+                    | clampB[(y + buTable[u]) >> SHIFT];
+        }
+    }
+
+    /**
+     * Converts a single pixel, mostly useful for sampling.
+     */
+    public int convertPixel(final int y, final int u, final int v) {
+        final int yy = yTable[y & 0xff];
+        return CLAMP_R[(yy + rvTable[v & 0xff]) >> SHIFT]
+                | CLAMP_G[(yy + guTable[u & 0xff] + gvTable[v & 0xff]) >> SHIFT]
+                | CLAMP_B[(yy + buTable[u & 0xff]) >> SHIFT];
+    }
+
+    /**
+     * @return The rotation in {@code [0, 360)}, rounded down to a multiple of 90.
+     */
+    public static int normalizeRotation(final int rotation) {
+        return ((rotation % 360 + 360) % 360) / 90 * 90;
+    }
+
+    /**
+     * Index in the rotated output of the first pixel of source row {@code row}.
+     */
+    public static int outputRowStart(final int degree, final int width, final int height, final int row) {
+        switch (degree) {
+            case 90:
+                return height - 1 - row;
+            case 180:
+                return (height - 1 - row) * width + width - 1;
+            case 270:
+                return (width - 1) * height + row;
+            default:
+                return row * width;
+        }
+    }
+
+    /**
+     * Distance in the rotated output between two horizontally neighbouring source pixels.
+     */
+    public static int outputStep(final int degree, final int width, final int height) {
+        switch (degree) {
+            case 90:
+                return height;
+            case 180:
+                return -1;
+            case 270:
+                return -height;
+            default:
+                return 1;
+        }
+    }
+
+    private static int availableRows(final int length, final int stride, final int rowWidth) {
+        if (length < rowWidth || stride <= 0) return 0;
+        return (length - rowWidth) / stride + 1;
+    }
+}
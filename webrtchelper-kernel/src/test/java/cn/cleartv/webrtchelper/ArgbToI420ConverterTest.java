@@ -0,0 +1,176 @@
+package cn.cleartv.webrtchelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ArgbToI420ConverterTest {
+
+    // Per-channel error of ARGB -> I420 -> ARGB for 2x2 blocks of one colour: 8-bit limited-range quantization only.
+    private static final int ROUND_TRIP_TOLERANCE = 4;
+
+    private static final YuvArgbConverter TO_ARGB =
+            YuvArgbConverter.get(YuvArgbConverter.Matrix.BT601, YuvArgbConverter.Range.LIMITED);
+
+    @Test
+    public void greyLevelsMapToLimitedRange() {
+        final Planes black = convert(new int[]{0xff000000}, 1, 1, 0);
+        final Planes white = convert(new int[]{0xffffffff}, 1, 1, 0);
+        assertEquals(16, black.y[0] & 0xff);
+        assertEquals(235, white.y[0] & 0xff);
+        assertEquals(128, black.u[0] & 0xff);
+        assertEquals(128, white.v[0] & 0xff);
+    }
+
+    @Test
+    public void roundTripWithinTolerance() {
+        final Random random = new Random(7);
+        for (int[] size : TestPlanes.SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            // One colour per 2x2 block, so chroma subsampling loses nothing.
+            final int[] argb = new int[width * height];
+            for (int y = 0; y < height; y += 2) {
+                for (int x = 0; x < width; x += 2) {
+                    final int colour = 0xff000000 | random.nextInt(0x1000000);
+                    for (int dy = 0; dy < 2 && y + dy < height; dy++) {
+                        for (int dx = 0; dx < 2 && x + dx < width; dx++) {
+                            argb[(y + dy) * width + x + dx] = colour;
+                        }
+                    }
+                }
+            }
+            final Planes planes = convert(argb, width, height, 3);
+            final int[] back = new int[width * height];
+            TO_ARGB.convert(planes.y, planes.strideY, planes.u, planes.strideUV, planes.v, planes.strideUV, 1,
+                    width, height, 0, back);
+            for (int i = 0; i < argb.length; i++) {
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    final int expected = (argb[i] >> shift) & 0xff;
+                    final int actual = (back[i] >> shift) & 0xff;
+                    assertTrue(YuvArgbConverterTest.size(width, height) + " pixel " + i + ": "
+                                    + Integer.toHexString(argb[i]) + " -> " + Integer.toHexString(back[i]),
+                            Math.abs(expected - actual) <= ROUND_TRIP_TOLERANCE);
+                }
+                assertEquals(0xff, back[i] >>> 24);
+            }
+        }
+    }
+
+    @Test
+    public void chromaAveragesEachBlock() {
+        // A red row over a blue row averages to (128, 0, 128) before the matrix is applied.
+        final int[] argb = {0xffff0000, 0xffff0000, 0xff0000ff, 0xff0000ff};
+        final Planes mixed = convert(argb, 2, 2, 0);
+        final Planes average = convert(new int[]{0xff800080}, 1, 1, 0);
+        assertEquals(average.u[0], mixed.u[0]);
+        assertEquals(average.v[0], mixed.v[0]);
+    }
+
+    @Test
+    public void paddingIsLeftUntouched() {
+        for (int[] size : TestPlanes.SIZES) {
+            final int[] argb = new int[size[0] * size[1]];
+            final Planes planes = new Planes(size[0], size[1], 4, (byte) 0x5a);
+            ArgbToI420Converter.convert(argb, size[0], size[1],
+                    planes.directY, planes.strideY, planes.directU, planes.strideUV, planes.directV, planes.strideUV);
+            planes.read();
+            for (int row = 0; row < size[1]; row++) {
+                for (int x = size[0]; x < planes.strideY; x++) {
+                    assertEquals(0x5a, planes.y[row * planes.strideY + x]);
+                }
+            }
+            for (int row = 0; row < (size[1] + 1) / 2; row++) {
+                for (int x = (size[0] + 1) / 2; x < planes.strideUV; x++) {
+                    assertEquals(0x5a, planes.u[row * planes.strideUV + x]);
+                    assertEquals(0x5a, planes.v[row * planes.strideUV + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        final Random random = new Random(11);
+        for (int[] size : TestPlanes.SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            final int[] argb = new int[width * height];
+            for (int i = 0; i < argb.length; i++) argb[i] = random.nextInt();
+            final Planes serial = convert(argb, width, height, 2);
+            for (int bands : new int[]{2, 3, 7}) {
+                final Planes parallel = new Planes(width, height, 2, (byte) 0);
+                ArgbToI420Converter.convertParallel(argb, width, height,
+                        parallel.directY, parallel.strideY, parallel.directU, parallel.strideUV,
+                        parallel.directV, parallel.strideUV, TestPlanes::runOnNewThread, bands);
+                parallel.read();
+                final String message = YuvArgbConverterTest.size(width, height) + " bands " + bands;
+                assertArrayEquals(message, serial.y, parallel.y);
+                assertArrayEquals(message, serial.u, parallel.u);
+                assertArrayEquals(message, serial.v, parallel.v);
+            }
+        }
+    }
+
+    @Test
+    public void widerFrameAfterNarrowFrameOnSameThread() {
+        // The per-thread scratch rows must grow rather than truncate.
+        convert(new int[4], 2, 2, 0);
+        final int[] argb = new int[130 * 2];
+        Arrays.fill(argb, 0xffffffff);
+        final Planes planes = convert(argb, 130, 2, 0);
+        for (int x = 0; x < 130; x++) {
+            assertEquals(235, planes.y[x] & 0xff);
+            assertEquals(235, planes.y[130 + x] & 0xff);
+        }
+    }
+
+    private static Planes convert(final int[] argb, final int width, final int height, final int padding) {
+        final Planes planes = new Planes(width, height, padding, (byte) 0);
+        ArgbToI420Converter.convert(argb, width, height,
+                planes.directY, planes.strideY, planes.directU, planes.strideUV, planes.directV, planes.strideUV);
+        planes.read();
+        return planes;
+    }
+
+    /**
+     * Direct destination planes and their contents after {@link #read()}.
+     */
+    private static final class Planes {
+        final int strideY;
+        final int strideUV;
+        final ByteBuffer directY;
+        final ByteBuffer directU;
+        final ByteBuffer directV;
+        byte[] y;
+        byte[] u;
+        byte[] v;
+
+        Planes(final int width, final int height, final int padding, final byte fill) {
+            strideY = width + padding;
+            strideUV = (width + 1) / 2 + padding;
+            final int chromaHeight = (height + 1) / 2;
+            directY = filled(strideY * height, fill);
+            directU = filled(strideUV * chromaHeight, fill);
+            directV = filled(strideUV * chromaHeight, fill);
+        }
+
+        void read() {
+            y = TestPlanes.toArray(directY);
+            u = TestPlanes.toArray(directU);
+            v = TestPlanes.toArray(directV);
+        }
+
+        private static ByteBuffer filled(final int size, final byte fill) {
+            final byte[] data = new byte[size];
+            Arrays.fill(data, fill);
+            return TestPlanes.direct(data);
+        }
+    }
+}
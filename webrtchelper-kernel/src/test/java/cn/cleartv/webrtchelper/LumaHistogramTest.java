@@ -0,0 +1,76 @@
+package cn.cleartv.webrtchelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class LumaHistogramTest {
+
+    private final LumaHistogram histogram = new LumaHistogram();
+
+    @Test
+    public void halfDarkHalfBright() {
+        // Left half 16, right half 235, with row padding that must not be sampled.
+        final int width = 20;
+        final int height = 7;
+        final int stride = 24;
+        final byte[] data = new byte[stride * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < stride; x++) {
+                data[y * stride + x] = (byte) (x >= width ? 255 : x < width / 2 ? 16 : 235);
+            }
+        }
+        histogram.compute(ByteBuffer.wrap(data), stride, width, height, 1);
+        assertEquals(width * height, histogram.getCount());
+        assertEquals((16 + 235) / 2.0, histogram.getMean(), 1e-9);
+        assertEquals(109.5 * 109.5, histogram.getVariance(), 1e-6);
+        assertEquals(0.5, histogram.fractionAtOrBelow(16), 1e-9);
+        assertEquals(0.5, histogram.fractionAtOrAbove(235), 1e-9);
+        assertEquals(16, histogram.percentile(0.5));
+        assertEquals(235, histogram.percentile(0.51));
+
+        final long[] bins = new long[LumaHistogram.BINS];
+        histogram.copyBins(bins);
+        assertEquals(width * height / 2, bins[16]);
+        assertEquals(width * height / 2, bins[235]);
+        assertEquals(0, bins[255]);
+    }
+
+    @Test
+    public void stepSamplesCentredGrid() {
+        final int width = 17;
+        final int height = 9;
+        final byte[] data = TestPlanes.random(9, width, height);
+        histogram.compute(ByteBuffer.wrap(data), width, width, height, 4);
+        // Columns 2, 6, 10, 14 and rows 2, 6.
+        assertEquals(4 * 2, histogram.getCount());
+        long sum = 0;
+        for (int y = 2; y < height; y += 4) {
+            for (int x = 2; x < width; x += 4) sum += data[y * width + x] & 0xff;
+        }
+        assertEquals(sum / 8.0, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void tinyPlaneLargerStepStillSamples() {
+        histogram.compute(ByteBuffer.wrap(new byte[]{(byte) 200}), 1, 1, 1, 8);
+        assertEquals(1, histogram.getCount());
+        assertEquals(200.0, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void checksumTracksContent() {
+        final byte[] data = TestPlanes.random(4, 64, 32);
+        histogram.compute(TestPlanes.direct(data), 64, 64, 32, 2);
+        final long first = histogram.getChecksum();
+        histogram.compute(TestPlanes.direct(data.clone()), 64, 64, 32, 2);
+        assertEquals(first, histogram.getChecksum());
+        // Step 2 samples odd rows and columns.
+        data[64 + 1]++;
+        histogram.compute(TestPlanes.direct(data), 64, 64, 32, 2);
+        assertNotEquals(first, histogram.getChecksum());
+    }
+}
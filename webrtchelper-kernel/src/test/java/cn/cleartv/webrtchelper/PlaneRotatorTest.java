@@ -0,0 +1,98 @@
+package cn.cleartv.webrtchelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PlaneRotatorTest {
+
+    private final PlaneRotator rotator = new PlaneRotator();
+
+    @Test
+    public void tiledMatchesNaiveForEveryRotation() {
+        for (int[] size : TestPlanes.SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            final byte[] src = TestPlanes.random(width * 7L + height, width, height);
+            for (int rotation : TestPlanes.ROTATIONS) {
+                final byte[] expected = new byte[width * height];
+                PlaneRotator.rotateNaive(src, width, width, height, expected, rotation);
+                final int dstStride = rotation % 180 == 0 ? width : height;
+
+                final byte[] fromArray = new byte[width * height];
+                rotator.rotate(src, 0, width, width, height, fromArray, 0, dstStride, 1, rotation);
+                final byte[] fromBuffer = new byte[width * height];
+                rotator.rotate(TestPlanes.direct(src), width, width, height, fromBuffer, 0, dstStride, 1, rotation);
+
+                final String message = YuvArgbConverterTest.size(width, height) + " rotation " + rotation;
+                assertArrayEquals(message, expected, fromArray);
+                assertArrayEquals(message, expected, fromBuffer);
+            }
+        }
+    }
+
+    @Test
+    public void paddedSourceAndInterleavedDestination() {
+        // Rotate U and V with row padding straight into an NV12-style interleaved plane.
+        final int width = 37;
+        final int height = 19;
+        final int srcStride = width + 5;
+        final byte[] u = TestPlanes.random(1, srcStride, height);
+        final byte[] v = TestPlanes.random(2, srcStride, height);
+        for (int rotation : TestPlanes.ROTATIONS) {
+            final boolean swap = rotation % 180 != 0;
+            final int outWidth = swap ? height : width;
+            final int outHeight = swap ? width : height;
+            final int dstStride = outWidth * 2 + 4;
+            final byte[] uv = new byte[dstStride * outHeight];
+            rotator.rotate(u, 0, srcStride, width, height, uv, 0, dstStride, 2, rotation);
+            rotator.rotate(TestPlanes.direct(v), srcStride, width, height, uv, 1, dstStride, 2, rotation);
+
+            final byte[] packedU = pack(u, srcStride, width, height);
+            final byte[] packedV = pack(v, srcStride, width, height);
+            final byte[] expectedU = new byte[width * height];
+            final byte[] expectedV = new byte[width * height];
+            PlaneRotator.rotateNaive(packedU, width, width, height, expectedU, rotation);
+            PlaneRotator.rotateNaive(packedV, width, width, height, expectedV, rotation);
+            for (int y = 0; y < outHeight; y++) {
+                for (int x = 0; x < outWidth; x++) {
+                    final String message = "rotation " + rotation + " at " + x + "," + y;
+                    assertEquals(message, expectedU[y * outWidth + x], uv[y * dstStride + 2 * x]);
+                    assertEquals(message, expectedV[y * outWidth + x], uv[y * dstStride + 2 * x + 1]);
+                }
+                // Row padding is never written.
+                for (int x = outWidth * 2; x < dstStride; x++) {
+                    assertEquals(0, uv[y * dstStride + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fourQuarterTurnsAreIdentity() {
+        final int width = 45;
+        final int height = 29;
+        final byte[] src = TestPlanes.random(3, width, height);
+        byte[] current = src;
+        int currentWidth = width;
+        int currentHeight = height;
+        for (int i = 0; i < 4; i++) {
+            final byte[] next = new byte[src.length];
+            rotator.rotate(current, 0, currentWidth, currentWidth, currentHeight, next, 0, currentHeight, 1, 90);
+            current = next;
+            final int swap = currentWidth;
+            currentWidth = currentHeight;
+            currentHeight = swap;
+        }
+        assertArrayEquals(src, current);
+    }
+
+    static byte[] pack(final byte[] src, final int stride, final int width, final int height) {
+        final byte[] packed = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(src, y * stride, packed, y * width, width);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,93 @@
+package cn.cleartv.webrtchelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class PlaneScalerTest {
+
+    private final PlaneScaler scaler = new PlaneScaler();
+
+    @Test
+    public void sameSizeCropMatchesRotatedCopy() {
+        for (int[] size : TestPlanes.SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            final int stride = width + 6;
+            // Crop one sample off the top-left when the plane is large enough.
+            final int cropX = width > 2 ? 1 : 0;
+            final int cropY = height > 2 ? 1 : 0;
+            final int cropW = width - cropX;
+            final int cropH = height - cropY;
+            final byte[] src = TestPlanes.random(width * 13L + height, stride, height);
+            final byte[] cropped = new byte[cropW * cropH];
+            for (int y = 0; y < cropH; y++) {
+                System.arraycopy(src, (cropY + y) * stride + cropX, cropped, y * cropW, cropW);
+            }
+            for (PlaneScaler.Filter filter : PlaneScaler.Filter.values()) {
+                for (int rotation : TestPlanes.ROTATIONS) {
+                    final byte[] expected = new byte[cropW * cropH];
+                    PlaneRotator.rotateNaive(cropped, cropW, cropW, cropH, expected, rotation);
+                    final byte[] actual = new byte[cropW * cropH];
+                    scaler.scale(TestPlanes.direct(src), stride, cropX, cropY, cropW, cropH,
+                            actual, cropW, cropH, rotation, filter);
+                    assertArrayEquals(YuvArgbConverterTest.size(width, height) + " " + filter + " rotation " + rotation,
+                            expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void constantPlaneStaysConstant() {
+        final byte[] src = new byte[37 * 23];
+        Arrays.fill(src, (byte) 173);
+        for (PlaneScaler.Filter filter : PlaneScaler.Filter.values()) {
+            for (int[] out : new int[][]{{1, 1}, {5, 3}, {18, 11}, {80, 47}}) {
+                for (int rotation : TestPlanes.ROTATIONS) {
+                    final byte[] dst = new byte[out[0] * out[1]];
+                    scaler.scale(TestPlanes.direct(src), 37, 0, 0, 37, 23, dst, out[0], out[1], rotation, filter);
+                    for (byte value : dst) {
+                        assertEquals(filter + " " + out[0] + "x" + out[1], 173, value & 0xff);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boxHalvesByAveragingBlocks() {
+        final int width = 6;
+        final int height = 4;
+        final byte[] src = TestPlanes.random(5, width, height);
+        final byte[] dst = new byte[3 * 2];
+        scaler.scale(TestPlanes.direct(src), width, 0, 0, width, height, dst, 3, 2, 0, PlaneScaler.Filter.BOX);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                final int sum = (src[2 * y * width + 2 * x] & 0xff) + (src[2 * y * width + 2 * x + 1] & 0xff)
+                        + (src[(2 * y + 1) * width + 2 * x] & 0xff) + (src[(2 * y + 1) * width + 2 * x + 1] & 0xff);
+                assertEquals((sum + 2) / 4, dst[y * 3 + x] & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void bilinearStaysWithinNeighbourRange() {
+        // A horizontal ramp upscaled keeps every output between its two source neighbours.
+        final int width = 9;
+        final byte[] src = new byte[width];
+        for (int x = 0; x < width; x++) src[x] = (byte) (x * 30);
+        final byte[] dst = new byte[31];
+        scaler.scale(TestPlanes.direct(src), width, 0, 0, width, 1, dst, 31, 1, 0, PlaneScaler.Filter.BILINEAR);
+        int previous = 0;
+        for (byte value : dst) {
+            final int current = value & 0xff;
+            assertEquals("monotonic", true, current >= previous);
+            previous = current;
+        }
+        assertEquals(240, dst[30] & 0xff);
+    }
+}
@@ -0,0 +1,47 @@
+package cn.cleartv.webrtchelper;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Plane fixtures shared by the kernel tests.
+ */
+final class TestPlanes {
+
+    // Odd sizes, sizes below and across a rotation tile, and a width that isn't a multiple of the band alignment.
+    static final int[][] SIZES = {{1, 1}, {2, 2}, {3, 5}, {5, 3}, {7, 1}, {1, 9}, {33, 17}, {37, 71}, {64, 48}, {130, 67}};
+
+    static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    private TestPlanes() {
+    }
+
+    /**
+     * Random samples, {@code stride * rows} long, padding included.
+     */
+    static byte[] random(final long seed, final int stride, final int rows) {
+        final byte[] data = new byte[stride * rows];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    static ByteBuffer direct(final byte[] data) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    static byte[] toArray(final ByteBuffer buffer) {
+        final byte[] data = new byte[buffer.limit()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    /**
+     * Executor that starts a new thread per band, so bands really run concurrently.
+     */
+    static void runOnNewThread(final Runnable runnable) {
+        new Thread(runnable).start();
+    }
+}
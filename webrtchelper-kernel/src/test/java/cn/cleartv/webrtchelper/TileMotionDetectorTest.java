@@ -0,0 +1,117 @@
+package cn.cleartv.webrtchelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TileMotionDetectorTest {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    private static TileMotionDetector newDetector() {
+        return new TileMotionDetector(16, 9, 8, 24);
+    }
+
+    private static byte[] white() {
+        final byte[] data = new byte[WIDTH * HEIGHT];
+        Arrays.fill(data, (byte) 235);
+        return data;
+    }
+
+    @Test
+    public void firstFrameChangesEverythingThenStatic() {
+        final TileMotionDetector detector = newDetector();
+        final ByteBuffer plane = ByteBuffer.wrap(TestPlanes.random(1, WIDTH, HEIGHT));
+        assertEquals(detector.getTileCount(), detector.update(plane, WIDTH, WIDTH, HEIGHT));
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, detector.update(plane, WIDTH, WIDTH, HEIGHT));
+        }
+        detector.reset();
+        assertEquals(detector.getTileCount(), detector.update(plane, WIDTH, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void smallGlyphCaughtWithinFourFrames() {
+        // A 10x16 dark glyph is smaller than a sample cell (120 / 8 = 15 pixels), a fixed grid misses most positions.
+        final Random random = new Random(2);
+        final byte[] white = white();
+        for (int trial = 0; trial < 100; trial++) {
+            final TileMotionDetector detector = newDetector();
+            detector.update(ByteBuffer.wrap(white), WIDTH, WIDTH, HEIGHT);
+            // Start the glyph at any point of the phase cycle.
+            final int warmup = random.nextInt(16);
+            for (int i = 0; i < warmup; i++) {
+                assertEquals(0, detector.update(ByteBuffer.wrap(white), WIDTH, WIDTH, HEIGHT));
+            }
+            final byte[] glyph = white.clone();
+            final int gx = random.nextInt(WIDTH - 10);
+            final int gy = random.nextInt(HEIGHT - 16);
+            for (int y = gy; y < gy + 16; y++) {
+                Arrays.fill(glyph, y * WIDTH + gx, y * WIDTH + gx + 10, (byte) 16);
+            }
+            int changed = 0;
+            for (int frame = 0; frame < 4 && changed == 0; frame++) {
+                changed = detector.update(ByteBuffer.wrap(glyph), WIDTH, WIDTH, HEIGHT);
+            }
+            assertTrue("glyph at " + gx + "," + gy + " missed", changed > 0);
+        }
+    }
+
+    @Test
+    public void noiseBelowThresholdIsStatic() {
+        final TileMotionDetector detector = newDetector();
+        final byte[] base = new byte[WIDTH * HEIGHT];
+        Arrays.fill(base, (byte) 128);
+        detector.update(ByteBuffer.wrap(base), WIDTH, WIDTH, HEIGHT);
+        final Random random = new Random(3);
+        final byte[] noisy = new byte[base.length];
+        for (int frame = 0; frame < 20; frame++) {
+            for (int i = 0; i < noisy.length; i++) {
+                // Two frames differ by at most 24.
+                noisy[i] = (byte) (128 + random.nextInt(25) - 12);
+            }
+            assertEquals(0, detector.update(ByteBuffer.wrap(noisy), WIDTH, WIDTH, HEIGHT));
+            assertTrue(detector.getLastMaxSampleDiff() <= 24);
+        }
+    }
+
+    @Test
+    public void minChangedSamples() {
+        final TileMotionDetector detector = new TileMotionDetector(1, 1, 8, 24, 2);
+        final byte[] base = new byte[64 * 64];
+        detector.update(ByteBuffer.wrap(base), 64, 64, 64);
+        // Each phase samples one pixel of every 2x2 block, a single changed block touches one sample at most.
+        final byte[] one = base.clone();
+        one[0] = one[1] = one[64] = one[65] = (byte) 200;
+        for (int frame = 0; frame < 16; frame++) {
+            assertEquals(0, detector.update(ByteBuffer.wrap(one), 64, 64, 64));
+        }
+        final byte[] many = new byte[base.length];
+        Arrays.fill(many, (byte) 200);
+        assertEquals(1, detector.update(ByteBuffer.wrap(many), 64, 64, 64));
+    }
+
+    @Test
+    public void phaseOrderCoversEveryOffset() {
+        final int side = TileMotionDetector.PHASES_PER_SIDE;
+        for (int start = 0; start < 32; start++) {
+            final boolean[] xs = new boolean[side];
+            final boolean[] ys = new boolean[side];
+            for (int k = start; k < start + side; k++) {
+                final int phase = TileMotionDetector.phaseOf(k);
+                xs[phase % side] = true;
+                ys[phase / side] = true;
+            }
+            for (int i = 0; i < side; i++) {
+                assertTrue("start " + start, xs[i]);
+                assertTrue("start " + start, ys[i] || start % side != 0);
+            }
+        }
+    }
+}
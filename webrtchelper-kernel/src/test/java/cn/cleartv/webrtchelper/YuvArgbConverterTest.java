@@ -0,0 +1,156 @@
+package cn.cleartv.webrtchelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class YuvArgbConverterTest {
+
+    private static final YuvArgbConverter CONVERTER =
+            YuvArgbConverter.get(YuvArgbConverter.Matrix.BT601, YuvArgbConverter.Range.LIMITED);
+
+    @Test
+    public void limitedRangeBlackAndWhite() {
+        assertEquals(0xff000000, CONVERTER.convertPixel(16, 128, 128));
+        assertEquals(0xffffffff, CONVERTER.convertPixel(235, 128, 128));
+        // Below and above the nominal range clamps instead of wrapping.
+        assertEquals(0xff000000, CONVERTER.convertPixel(0, 128, 128));
+        assertEquals(0xffffffff, CONVERTER.convertPixel(255, 128, 128));
+    }
+
+    @Test
+    public void everyRotationMatchesPerPixelReference() {
+        for (int[] size : TestPlanes.SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            final Frame frame = new Frame(width, height, 3);
+            final int[] upright = new int[width * height];
+            CONVERTER.convert(frame.y, frame.strideY, frame.u, frame.strideUV, frame.v, frame.strideUV, 1,
+                    width, height, 0, upright);
+            // Unrotated output pixel by pixel against convertPixel, chroma sampled at (x/2, y/2).
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    final int chroma = (y / 2) * frame.strideUV + x / 2;
+                    assertEquals(size(width, height) + " at " + x + "," + y,
+                            CONVERTER.convertPixel(frame.y[y * frame.strideY + x], frame.u[chroma], frame.v[chroma]),
+                            upright[y * width + x]);
+                }
+            }
+            for (int rotation : TestPlanes.ROTATIONS) {
+                final int[] rotated = new int[width * height];
+                CONVERTER.convert(frame.y, frame.strideY, frame.u, frame.strideUV, frame.v, frame.strideUV, 1,
+                        width, height, rotation, rotated);
+                assertArrayEquals(size(width, height) + " rotation " + rotation,
+                        rotate(upright, width, height, rotation), rotated);
+            }
+        }
+    }
+
+    @Test
+    public void byteBufferMatchesArray() {
+        for (int[] size : TestPlanes.SIZES) {
+            final Frame frame = new Frame(size[0], size[1], 5);
+            for (int rotation : TestPlanes.ROTATIONS) {
+                final int[] expected = new int[frame.width * frame.height];
+                final int[] actual = new int[frame.width * frame.height];
+                CONVERTER.convert(frame.y, frame.strideY, frame.u, frame.strideUV, frame.v, frame.strideUV, 1,
+                        frame.width, frame.height, rotation, expected);
+                CONVERTER.convertRows(TestPlanes.direct(frame.y), frame.strideY,
+                        TestPlanes.direct(frame.u), frame.strideUV, TestPlanes.direct(frame.v), frame.strideUV, 1,
+                        frame.width, frame.height, rotation, actual, 0, frame.height);
+                assertArrayEquals(size(frame.width, frame.height) + " rotation " + rotation, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        for (int[] size : TestPlanes.SIZES) {
+            final Frame frame = new Frame(size[0], size[1], 0);
+            final ByteBuffer y = TestPlanes.direct(frame.y);
+            final ByteBuffer u = TestPlanes.direct(frame.u);
+            final ByteBuffer v = TestPlanes.direct(frame.v);
+            for (int rotation : TestPlanes.ROTATIONS) {
+                for (int bands : new int[]{2, 3, 7}) {
+                    final int[] serial = new int[frame.width * frame.height];
+                    final int[] parallel = new int[frame.width * frame.height];
+                    final int[] parallelBuffer = new int[frame.width * frame.height];
+                    CONVERTER.convert(frame.y, frame.strideY, frame.u, frame.strideUV, frame.v, frame.strideUV, 1,
+                            frame.width, frame.height, rotation, serial);
+                    CONVERTER.convertParallel(frame.y, frame.strideY, frame.u, frame.strideUV, frame.v, frame.strideUV,
+                            1, frame.width, frame.height, rotation, parallel, TestPlanes::runOnNewThread, bands);
+                    CONVERTER.convertParallel(y, frame.strideY, u, frame.strideUV, v, frame.strideUV,
+                            1, frame.width, frame.height, rotation, parallelBuffer, TestPlanes::runOnNewThread, bands);
+                    final String message = size(frame.width, frame.height) + " rotation " + rotation + " bands " + bands;
+                    assertArrayEquals(message, serial, parallel);
+                    assertArrayEquals(message, serial, parallelBuffer);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shortPlanesAreNotReadOutOfBounds() {
+        // Chroma for only the first two luma rows of a 4-row image: the remaining rows are skipped.
+        final int[] out = new int[4 * 4];
+        CONVERTER.convert(new byte[16], 4, new byte[2], 2, new byte[2], 2, 1, 4, 4, 0, out);
+        assertEquals(0, out[15]);
+    }
+
+    /**
+     * Reference rotation of an ARGB image, clockwise.
+     */
+    static int[] rotate(final int[] src, final int width, final int height, final int rotation) {
+        final int[] dst = new int[src.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int value = src[y * width + x];
+                switch (rotation) {
+                    case 90:
+                        dst[x * height + (height - 1 - y)] = value;
+                        break;
+                    case 180:
+                        dst[(height - 1 - y) * width + (width - 1 - x)] = value;
+                        break;
+                    case 270:
+                        dst[(width - 1 - x) * height + y] = value;
+                        break;
+                    default:
+                        dst[y * width + x] = value;
+                }
+            }
+        }
+        return dst;
+    }
+
+    static String size(final int width, final int height) {
+        return width + "x" + height;
+    }
+
+    /**
+     * Random I420 planes with {@code padding} extra bytes per row.
+     */
+    static final class Frame {
+        final int width;
+        final int height;
+        final int strideY;
+        final int strideUV;
+        final byte[] y;
+        final byte[] u;
+        final byte[] v;
+
+        Frame(final int width, final int height, final int padding) {
+            this.width = width;
+            this.height = height;
+            strideY = width + padding;
+            strideUV = (width + 1) / 2 + padding;
+            final int chromaHeight = (height + 1) / 2;
+            y = TestPlanes.random(width * 31L + height, strideY, height);
+            u = TestPlanes.random(width * 37L + height, strideUV, chromaHeight);
+            v = TestPlanes.random(width * 41L + height, strideUV, chromaHeight);
+        }
+    }
+}
@@ -60,4 +60,5 @@ dependencies {
     androidTestImplementation(libs.androidx.espresso.core)
 
     api(libs.webrtc)
+    api(project(":webrtchelper-kernel"))
 }
\ No newline at end of file
@@ -5,7 +5,6 @@ package cn.cleartv.webrtchelper
 import android.annotation.SuppressLint
 import android.content.Context
 import android.media.AudioDeviceInfo
-import android.media.AudioTrack
 import androidx.annotation.RequiresApi
 import org.webrtc.audio.AudioDeviceModule
 import org.webrtc.audio.JavaAudioDeviceModule
@@ -111,17 +110,8 @@ object AudioDeviceManager {
      * @param samplesReadyCallback 回调接口 ，原始pcm数据
      */
     fun JavaAudioDeviceModule.setAudioTrackSamplesReadyCallback(samplesReadyCallback: JavaAudioDeviceModule.SamplesReadyCallback) {
-        val deviceModuleClass = this::class.java
-        val audioOutputField = deviceModuleClass.getDeclaredField("audioOutput")
-        audioOutputField.isAccessible = true
-        val webRtcAudioTrack = audioOutputField.get(this)// as? org.webrtc.audio.WebRtcAudioTrack
-        webRtcAudioTrack ?: return
-        val audioTrackClass = webRtcAudioTrack::class.java
-        val audioTrackFiled = audioTrackClass.getDeclaredField("audioTrack")
-        audioTrackFiled.isAccessible = true
-        val audioTrack = audioTrackFiled.get(webRtcAudioTrack) as? AudioTrack
-        audioTrack ?: return
-        val interceptor = AudioTrackInterceptor(audioTrack, samplesReadyCallback)
-        audioTrackFiled.set(webRtcAudioTrack, interceptor)
+        if (!WebRTCInternals.interceptAudioTrack(this, samplesReadyCallback)) {
+            L.w("intercept audio track failed, output samples callback not available")
+        }
     }
 }
\ No newline at end of file
@@ -139,11 +139,11 @@ class AudioTrackInterceptor constructor(
     @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
     override fun write(audioData: ByteBuffer, sizeInBytes: Int, writeMode: Int): Int {
         val position = audioData.position()
-        val from = if (audioData.isDirect) position else audioData.arrayOffset() + position
 
         val write = originalTrack.write(audioData, sizeInBytes, writeMode)
         if (write == sizeInBytes) {
-            val bytes = audioData.array().copyOfRange(from, from + sizeInBytes)
+            // WebRtcAudioTrack传入的是direct buffer，没有array()，需要按position拷贝
+            val bytes = PcmKernels.copy(audioData, position, sizeInBytes, null)
             samplesReadyCallback.onWebRtcAudioRecordSamplesReady(
                 JavaAudioDeviceModule.AudioSamples(
                     originalTrack.audioFormat,
@@ -0,0 +1,132 @@
+package cn.cleartv.webrtchelper
+
+import android.graphics.Bitmap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 按尺寸复用ARGB像素数组和可变Bitmap，避免周期性截图时频繁分配大对象引起GC
+ *
+ * 用完的对象通过[releasePixels]/[releaseBitmap]归还，每种尺寸最多缓存[maxPerSize]个
+ */
+object BitmapPool {
+
+    data class Stats(
+        val pixelHits: Long,
+        val pixelMisses: Long,
+        val bitmapHits: Long,
+        val bitmapMisses: Long,
+        val pooledPixelBuffers: Int,
+        val pooledBitmaps: Int,
+    )
+
+    /**
+     * 每种尺寸最多缓存的对象个数
+     */
+    @JvmStatic
+    var maxPerSize: Int = 4
+
+    private val pixelBuffers = HashMap<Int, ArrayDeque<IntArray>>()
+    private val bitmaps = HashMap<Long, ArrayDeque<Bitmap>>()
+
+    private val pixelHits = AtomicLong()
+    private val pixelMisses = AtomicLong()
+    private val bitmapHits = AtomicLong()
+    private val bitmapMisses = AtomicLong()
+
+    /**
+     * 获取长度为[size]的像素数组，内容未清空
+     */
+    @JvmStatic
+    fun acquirePixels(size: Int): IntArray {
+        synchronized(pixelBuffers) {
+            pixelBuffers[size]?.removeLastOrNull()
+        }?.let {
+            pixelHits.incrementAndGet()
+            return it
+        }
+        pixelMisses.incrementAndGet()
+        return IntArray(size)
+    }
+
+    @JvmStatic
+    fun releasePixels(pixels: IntArray) {
+        synchronized(pixelBuffers) {
+            val queue = pixelBuffers.getOrPut(pixels.size) { ArrayDeque() }
+            if (queue.size < maxPerSize) {
+                queue.addLast(pixels)
+            }
+        }
+    }
+
+    /**
+     * 获取一个可变的ARGB_8888 Bitmap，内容未清空
+     */
+    @JvmStatic
+    fun acquireBitmap(width: Int, height: Int): Bitmap {
+        val key = bitmapKey(width, height)
+        synchronized(bitmaps) {
+            val queue = bitmaps[key]
+            while (!queue.isNullOrEmpty()) {
+                val bitmap = queue.removeLast()
+                if (!bitmap.isRecycled) {
+                    bitmapHits.incrementAndGet()
+                    return bitmap
+                }
+            }
+        }
+        bitmapMisses.incrementAndGet()
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+    }
+
+    /**
+     * 归还Bitmap，归还后调用方不能再使用它
+     */
+    @JvmStatic
+    fun releaseBitmap(bitmap: Bitmap) {
+        if (bitmap.isRecycled || !bitmap.isMutable || bitmap.config != Bitmap.Config.ARGB_8888) return
+        synchronized(bitmaps) {
+            val queue = bitmaps.getOrPut(bitmapKey(bitmap.width, bitmap.height)) { ArrayDeque() }
+            if (queue.size < maxPerSize && queue.none { it === bitmap }) {
+                queue.addLast(bitmap)
+                return
+            }
+        }
+        bitmap.recycle()
+    }
+
+    @JvmStatic
+    fun getStats(): Stats {
+        return Stats(
+            pixelHits.get(),
+            pixelMisses.get(),
+            bitmapHits.get(),
+            bitmapMisses.get(),
+            synchronized(pixelBuffers) { pixelBuffers.values.sumOf { it.size } },
+            synchronized(bitmaps) { bitmaps.values.sumOf { it.size } },
+        )
+    }
+
+    @JvmStatic
+    fun resetStats() {
+        pixelHits.set(0)
+        pixelMisses.set(0)
+        bitmapHits.set(0)
+        bitmapMisses.set(0)
+    }
+
+    /**
+     * 清空缓存，缓存中的Bitmap会被recycle
+     */
+    @JvmStatic
+    fun clear() {
+        synchronized(pixelBuffers) { pixelBuffers.clear() }
+        synchronized(bitmaps) {
+            bitmaps.values.forEach { queue -> queue.forEach { it.recycle() } }
+            bitmaps.clear()
+        }
+    }
+
+    private fun bitmapKey(width: Int, height: Int): Long {
+        return (width.toLong() shl 32) or height.toLong()
+    }
+}
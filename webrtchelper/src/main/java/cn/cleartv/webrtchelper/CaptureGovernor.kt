@@ -0,0 +1,228 @@
+package cn.cleartv.webrtchelper
+
+import android.os.SystemClock
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+/**
+ * 根据推流状态自动调整采集分辨率和帧率
+ *
+ * 定时采样[VideoStats]的平均编码时长、发送帧率和丢包率：编码跟不上或发送帧率远低于输入帧率时沿[ladder]降一档，
+ * 持续稳定一段时间后再升一档，通过[VideoSourceHelper.changeCaptureFormat]修改采集格式，避免采集和转换编码器最终会丢掉的帧。
+ *
+ * 防抖：降档需要连续[Config.downSamples]次超载，升档需要连续[Config.upSamples]次空闲且距离上次变化超过[Config.holdMs]；
+ * 升档后很快又降回来时，下次升档需要的空闲次数翻倍（最多[Config.maxUpSamples]）
+ *
+ * @param statsProvider 获取最新的视频推流状态，在主线程调用
+ * @param ladder 从高到低排列的采集档位
+ */
+class CaptureGovernor(
+    private val videoSourceHelper: VideoSourceHelper,
+    private val statsProvider: () -> VideoStats?,
+    val ladder: List<Step> = DEFAULT_LADDER,
+    val config: Config = Config(),
+) {
+
+    /**
+     * @param streamId [WebRTCHelper.pushStream]使用的streamId
+     */
+    constructor(
+        videoSourceHelper: VideoSourceHelper,
+        streamId: String,
+        ladder: List<Step> = DEFAULT_LADDER,
+        config: Config = Config(),
+    ) : this(videoSourceHelper, { WebRTCHelper.getVideoStats(streamId) }, ladder, config)
+
+    constructor(
+        videoSourceHelper: VideoSourceHelper,
+        peerConnectionHelper: PeerConnectionHelper,
+        ladder: List<Step> = DEFAULT_LADDER,
+        config: Config = Config(),
+    ) : this(videoSourceHelper, {
+        peerConnectionHelper.updateVideoStats()
+        peerConnectionHelper.videoStats
+    }, ladder, config)
+
+    data class Step(val width: Int, val height: Int, val fps: Int) {
+        override fun toString(): String = "${width}x$height@$fps"
+    }
+
+    data class Config(
+        // 采样间隔
+        val sampleIntervalMs: Long = 2000,
+        // 平均编码时长超过该值视为超载
+        val overuseEncodeMs: Int = 30,
+        // 平均编码时长低于该值才可能升档
+        val underuseEncodeMs: Int = 15,
+        // 发送帧率低于输入帧率的该比例视为超载
+        val lowSentFpsRatio: Double = 0.7,
+        // 发送帧率达到输入帧率的该比例才可能升档
+        val highSentFpsRatio: Double = 0.9,
+        // 丢包率（%）超过该值视为超载
+        val overusePacketLossRate: Double = 10.0,
+        // 丢包率（%）低于该值才可能升档
+        val underusePacketLossRate: Double = 2.0,
+        val downSamples: Int = 2,
+        val upSamples: Int = 5,
+        val maxUpSamples: Int = 40,
+        // 两次变化之间至少间隔的时长
+        val holdMs: Long = 10_000,
+    )
+
+    enum class Reason {
+        ENCODE_TIME,
+        FRAME_DROP,
+        PACKET_LOSS,
+        RECOVERED,
+    }
+
+    data class Event(
+        val from: Step,
+        val to: Step,
+        val reason: Reason,
+        val stats: VideoStats,
+    )
+
+    companion object {
+        @JvmField
+        val DEFAULT_LADDER = listOf(
+            Step(1920, 1080, 30),
+            Step(1280, 720, 30),
+            Step(1280, 720, 20),
+            Step(960, 540, 20),
+            Step(640, 360, 15),
+            Step(480, 270, 10),
+        )
+    }
+
+    init {
+        require(ladder.isNotEmpty()) { "ladder is empty" }
+    }
+
+    /**
+     * 每次切换档位时在主线程回调
+     */
+    var onStepChanged: (Event) -> Unit = {}
+
+    var stepIndex = 0
+        private set
+
+    val currentStep: Step
+        get() = ladder[stepIndex]
+
+    private val scope = CoroutineScope(Dispatchers.Main + SupervisorJob())
+    private var job: Job? = null
+
+    private var lastStatsTimestamp = 0.0
+    private var overuseCount = 0
+    private var underuseCount = 0
+    private var requiredUpSamples = config.upSamples
+    private var lastChangeAt = 0L
+    private var lastChangeWasUp = false
+
+    /**
+     * 开始采样，从与当前采集格式最接近（不超过）的档位开始
+     */
+    fun start() {
+        if (job?.isActive == true) return
+        stepIndex = initialStepIndex()
+        overuseCount = 0
+        underuseCount = 0
+        requiredUpSamples = config.upSamples
+        lastChangeAt = SystemClock.elapsedRealtime()
+        lastChangeWasUp = false
+        job = scope.launch {
+            while (isActive) {
+                delay(config.sampleIntervalMs)
+                statsProvider()?.let { onStats(it, SystemClock.elapsedRealtime()) }
+            }
+        }
+    }
+
+    fun stop() {
+        job?.cancel()
+        job = null
+    }
+
+    /**
+     * 停止并释放，之后不能再start
+     */
+    fun release() {
+        stop()
+        scope.cancel()
+    }
+
+    private fun initialStepIndex(): Int {
+        val pixels = videoSourceHelper.captureWidth * videoSourceHelper.captureHeight
+        val fps = videoSourceHelper.captureFrameRate
+        if (pixels <= 0) return 0
+        val index = ladder.indexOfFirst { it.width * it.height <= pixels && (fps <= 0 || it.fps <= fps) }
+        return if (index < 0) ladder.lastIndex else index
+    }
+
+    private fun onStats(stats: VideoStats, now: Long) {
+        // getStats是异步的，没有新数据时不重复计数
+        if (stats.videoStatsTimestamp == lastStatsTimestamp) return
+        lastStatsTimestamp = stats.videoStatsTimestamp
+
+        val overuse = overuseReason(stats)
+        if (overuse != null) {
+            underuseCount = 0
+            overuseCount++
+            if (overuseCount >= config.downSamples && stepIndex < ladder.lastIndex) {
+                // 刚升档就超载，说明上一档承受不了，拉长下次升档的等待
+                if (lastChangeWasUp && now - lastChangeAt < config.holdMs * 2) {
+                    requiredUpSamples = minOf(requiredUpSamples * 2, config.maxUpSamples)
+                }
+                changeStep(stepIndex + 1, overuse, stats, now)
+            }
+        } else if (isUnderused(stats)) {
+            overuseCount = 0
+            underuseCount++
+            if (underuseCount >= requiredUpSamples && stepIndex > 0 && now - lastChangeAt >= config.holdMs) {
+                changeStep(stepIndex - 1, Reason.RECOVERED, stats, now)
+            }
+        } else {
+            overuseCount = 0
+            underuseCount = 0
+        }
+        // 升档后长时间稳定，恢复默认的升档等待
+        if (lastChangeWasUp && now - lastChangeAt > config.holdMs * 4) {
+            requiredUpSamples = config.upSamples
+        }
+    }
+
+    private fun overuseReason(stats: VideoStats): Reason? {
+        return when {
+            stats.videoAvgEncodeMs > config.overuseEncodeMs -> Reason.ENCODE_TIME
+            stats.inputVideoFrameRate > 0 && stats.sentVideoFrameRate < stats.inputVideoFrameRate * config.lowSentFpsRatio -> Reason.FRAME_DROP
+            stats.recentVideoPacketsLostRate > config.overusePacketLossRate -> Reason.PACKET_LOSS
+            else -> null
+        }
+    }
+
+    private fun isUnderused(stats: VideoStats): Boolean {
+        return stats.videoAvgEncodeMs < config.underuseEncodeMs
+                && (stats.inputVideoFrameRate <= 0 || stats.sentVideoFrameRate >= stats.inputVideoFrameRate * config.highSentFpsRatio)
+                && stats.recentVideoPacketsLostRate < config.underusePacketLossRate
+    }
+
+    private fun changeStep(index: Int, reason: Reason, stats: VideoStats, now: Long) {
+        val from = ladder[stepIndex]
+        val to = ladder[index]
+        lastChangeWasUp = index < stepIndex
+        stepIndex = index
+        overuseCount = 0
+        underuseCount = 0
+        lastChangeAt = now
+        L.i("capture governor: $from -> $to ($reason)")
+        videoSourceHelper.changeCaptureFormat(to.width, to.height, to.fps)
+        onStepChanged(Event(from, to, reason, stats.copy()))
+    }
+}
@@ -0,0 +1,42 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.VideoFrame
+
+/**
+ * 裁剪并缩放，坐标为buffer方向（旋转之前）。使用buffer自带的cropAndScale，纹理帧只修改变换矩阵，不复制像素
+ *
+ * @param cropWidth 裁剪宽度，0表示裁剪到右边缘
+ * @param cropHeight 裁剪高度，0表示裁剪到下边缘
+ * @param scaleWidth 输出宽度，0表示不缩放
+ * @param scaleHeight 输出高度，0表示不缩放
+ */
+class CropScaleProcessor(
+    private val cropX: Int = 0,
+    private val cropY: Int = 0,
+    private val cropWidth: Int = 0,
+    private val cropHeight: Int = 0,
+    private val scaleWidth: Int = 0,
+    private val scaleHeight: Int = 0,
+) : VideoFrameProcessor {
+
+    override fun process(frame: VideoFrame): VideoFrame? {
+        val buffer = frame.buffer
+        // 原点取偶数，保证色度平面对齐
+        val x = cropX.coerceIn(0, buffer.width - 2) and 1.inv()
+        val y = cropY.coerceIn(0, buffer.height - 2) and 1.inv()
+        val width = if (cropWidth > 0) minOf(cropWidth, buffer.width - x) else buffer.width - x
+        val height = if (cropHeight > 0) minOf(cropHeight, buffer.height - y) else buffer.height - y
+        val outputWidth = if (scaleWidth > 0) scaleWidth else width
+        val outputHeight = if (scaleHeight > 0) scaleHeight else height
+        if (x == 0 && y == 0 && width == buffer.width && height == buffer.height
+            && outputWidth == width && outputHeight == height
+        ) {
+            return frame
+        }
+        return VideoFrame(
+            buffer.cropAndScale(x, y, width, height, outputWidth, outputHeight),
+            frame.rotation,
+            frame.timestampNs
+        )
+    }
+}
@@ -0,0 +1,318 @@
+package cn.cleartv.webrtchelper
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 采样统计视频帧在各环节的延迟，分为采集端和渲染端两段
+ *
+ * 以帧的timestampNs为key：采集帧在[VideoSourceHelper]中开始跟踪（起点为帧自带的采集时间戳），记录到交给VideoSource为止（[Stage.DELIVERED]），
+ * 之后结束跟踪；[VideoTrackView]收到的帧（本地预览和远端）在sink处重新开始跟踪，记录到绘制完成。
+ * 经过VideoSource的帧时间戳会被截断到微秒并重新对齐，无法和采集时的记录对应，所以两段分别统计，没有采集到渲染的总延迟。
+ * 每[sampleInterval]帧只跟踪一帧，未被采样的帧只有一次原子计数，没有跟踪中的帧时不加锁；
+ * 没有调用[end]的跟踪（如渲染时被跳过的帧）过期后被清除，不会让后续帧一直走加锁的路径。
+ * 统计按流（track id等）和环节分别汇总，见[getStats]
+ *
+ * 编码、网络、解码在native层完成，无法逐帧标记
+ */
+object FrameLatencyTracer {
+
+    enum class Stage {
+        /**
+         * 采集回调，距离起点为相机时间戳到回调的延迟
+         */
+        CAPTURED,
+
+        /**
+         * 经过[VideoFrameProcessorChain]之后
+         */
+        PROCESSED,
+
+        /**
+         * 交给所有VideoSource之后（本地sink在此期间同步收到帧）
+         */
+        DELIVERED,
+
+        /**
+         * [VideoTrackView]的VideoSink收到帧
+         */
+        SINK,
+
+        /**
+         * 交给EglRenderer之后
+         */
+        RENDER_QUEUED,
+
+        /**
+         * EglRenderer绘制完成，紧接着swapBuffers
+         */
+        DRAWN,
+    }
+
+    data class LatencyStats(
+        val count: Long,
+        val meanMs: Double,
+        val p50Ms: Double,
+        val p95Ms: Double,
+        val p99Ms: Double,
+        val maxMs: Double,
+    )
+
+    /**
+     * 是否开启，关闭时每个环节只有一次volatile读
+     */
+    @JvmStatic
+    @Volatile
+    var enabled: Boolean = false
+
+    /**
+     * 每多少帧跟踪一帧
+     */
+    @JvmStatic
+    @Volatile
+    var sampleInterval: Int = 30
+        set(value) {
+            field = value.coerceAtLeast(1)
+        }
+
+    // 跟踪中的帧：开放寻址表，key为帧时间戳
+    private const val CAPACITY = 128
+    private const val MASK = CAPACITY - 1
+    private const val MAX_PROBE = 8
+    private const val EMPTY = Long.MIN_VALUE
+
+    // 超过该时长仍未完成的跟踪视为过期
+    private const val EXPIRE_NS = 5_000_000_000L
+
+    private val traceKeys = LongArray(CAPACITY) { EMPTY }
+    private val traceStarts = LongArray(CAPACITY)
+    private val tableLock = Any()
+    private var lastPurgeNs = 0L
+
+    // 只在tableLock中修改，读取不加锁
+    @Volatile
+    private var activeTraces = 0
+    private val frameCounter = AtomicInteger()
+
+    private val histograms = HashMap<String, Array<LatencyHistogram?>>()
+
+    /**
+     * 采集到一帧时调用，按采样间隔决定是否开始跟踪
+     *
+     * @param captureTimestampNs 帧的timestampNs，与[System.nanoTime]同一时钟时作为起点，否则以当前时间为起点
+     */
+    @JvmStatic
+    fun begin(captureTimestampNs: Long): Boolean {
+        if (!enabled || !nextSampled()) return false
+        val now = System.nanoTime()
+        synchronized(tableLock) {
+            val start = if (captureTimestampNs in (now - EXPIRE_NS)..now) captureTimestampNs else now
+            insertLocked(captureTimestampNs, start, now)
+        }
+        return true
+    }
+
+    /**
+     * 记录一帧到达某个环节
+     *
+     * @param stream 统计分组，如track id
+     * @param beginIfUntraced 该帧没有在跟踪时，是否以此为起点按采样开始跟踪（远端帧的第一个环节）
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun mark(stream: String, stage: Stage, timestampNs: Long, beginIfUntraced: Boolean = false) {
+        if (!enabled) return
+        val now = System.nanoTime()
+        val elapsed: Long
+        if (activeTraces == 0) {
+            if (beginIfUntraced && nextSampled()) {
+                synchronized(tableLock) { insertLocked(timestampNs, now, now) }
+            }
+            return
+        }
+        synchronized(tableLock) {
+            purgeExpiredLocked(now)
+            val start = findLocked(timestampNs, now)
+            if (start == EMPTY) {
+                if (beginIfUntraced && nextSampled()) insertLocked(timestampNs, now, now)
+                return
+            }
+            elapsed = now - start
+        }
+        record(stream, stage, elapsed)
+    }
+
+    /**
+     * 帧不再经过后续环节时调用，释放跟踪记录；不调用时会在过期后被覆盖
+     */
+    @JvmStatic
+    fun end(timestampNs: Long) {
+        if (!enabled || activeTraces == 0) return
+        synchronized(tableLock) {
+            var index = slot(timestampNs)
+            for (i in 0 until MAX_PROBE) {
+                if (traceKeys[index] == timestampNs) {
+                    traceKeys[index] = EMPTY
+                    activeTraces--
+                    return
+                }
+                index = (index + 1) and MASK
+            }
+        }
+    }
+
+    /**
+     * @return 流 -> 环节 -> 延迟统计
+     */
+    @JvmStatic
+    fun getStats(): Map<String, Map<Stage, LatencyStats>> {
+        synchronized(histograms) {
+            return histograms.mapValues { (_, stages) ->
+                val result = LinkedHashMap<Stage, LatencyStats>()
+                stages.forEachIndexed { index, histogram ->
+                    if (histogram != null) result[Stage.values()[index]] = histogram.toStats()
+                }
+                result
+            }
+        }
+    }
+
+    @JvmStatic
+    fun reset() {
+        synchronized(histograms) { histograms.clear() }
+        synchronized(tableLock) {
+            traceKeys.fill(EMPTY)
+            activeTraces = 0
+            lastPurgeNs = 0L
+        }
+        frameCounter.set(0)
+    }
+
+    // 计数到采样间隔时返回true并清零，并发时只有一个线程能清零
+    private fun nextSampled(): Boolean {
+        val count = frameCounter.incrementAndGet()
+        return count >= sampleInterval && frameCounter.compareAndSet(count, 0)
+    }
+
+    private fun slot(key: Long): Int {
+        val h = key xor (key ushr 32)
+        return ((h xor (h ushr 16)).toInt()) and MASK
+    }
+
+    private fun insertLocked(key: Long, start: Long, now: Long) {
+        var index = slot(key)
+        var target = index
+        for (i in 0 until MAX_PROBE) {
+            val existing = traceKeys[index]
+            if (existing == EMPTY || existing == key || now - traceStarts[index] > EXPIRE_NS) {
+                target = index
+                break
+            }
+            index = (index + 1) and MASK
+        }
+        // 表满时覆盖第一个候选位置；覆盖已有记录（包括过期的）时跟踪数不变
+        if (traceKeys[target] == EMPTY) activeTraces++
+        traceKeys[target] = key
+        traceStarts[target] = start
+    }
+
+    // 最多每EXPIRE_NS扫描一次整张表，清除过期的跟踪
+    private fun purgeExpiredLocked(now: Long) {
+        if (now - lastPurgeNs < EXPIRE_NS) return
+        lastPurgeNs = now
+        for (i in 0 until CAPACITY) {
+            if (traceKeys[i] != EMPTY && now - traceStarts[i] > EXPIRE_NS) {
+                traceKeys[i] = EMPTY
+                activeTraces--
+            }
+        }
+    }
+
+    private fun findLocked(key: Long, now: Long): Long {
+        var index = slot(key)
+        for (i in 0 until MAX_PROBE) {
+            val existing = traceKeys[index]
+            if (existing == key) {
+                if (now - traceStarts[index] <= EXPIRE_NS) return traceStarts[index]
+                traceKeys[index] = EMPTY
+                activeTraces--
+                return EMPTY
+            }
+            index = (index + 1) and MASK
+        }
+        return EMPTY
+    }
+
+    private fun record(stream: String, stage: Stage, elapsedNs: Long) {
+        val histogram = synchronized(histograms) {
+            val stages = histograms.getOrPut(stream) { arrayOfNulls(Stage.values().size) }
+            stages[stage.ordinal] ?: LatencyHistogram().also { stages[stage.ordinal] = it }
+        }
+        histogram.add(elapsedNs)
+    }
+
+    /**
+     * 0.1ms精度到100ms，1ms精度到1s，超过1s计入最后一个桶
+     */
+    private class LatencyHistogram {
+        private companion object {
+            const val FINE_BUCKETS = 1000
+            const val COARSE_BUCKETS = 900
+            const val FINE_NS = 100_000L
+            const val COARSE_NS = 1_000_000L
+        }
+
+        private val buckets = LongArray(FINE_BUCKETS + COARSE_BUCKETS + 1)
+        private var count = 0L
+        private var sumNs = 0L
+        private var maxNs = 0L
+
+        @Synchronized
+        fun add(valueNs: Long) {
+            val ns = valueNs.coerceAtLeast(0)
+            val index = when {
+                ns < FINE_BUCKETS * FINE_NS -> (ns / FINE_NS).toInt()
+                ns < FINE_BUCKETS * FINE_NS + COARSE_BUCKETS * COARSE_NS ->
+                    FINE_BUCKETS + ((ns - FINE_BUCKETS * FINE_NS) / COARSE_NS).toInt()
+
+                else -> buckets.lastIndex
+            }
+            buckets[index]++
+            count++
+            sumNs += ns
+            if (ns > maxNs) maxNs = ns
+        }
+
+        @Synchronized
+        fun toStats(): LatencyStats {
+            return LatencyStats(
+                count,
+                if (count > 0) sumNs / count / 1e6 else 0.0,
+                percentile(0.50),
+                percentile(0.95),
+                percentile(0.99),
+                maxNs / 1e6
+            )
+        }
+
+        private fun percentile(p: Double): Double {
+            if (count == 0L) return 0.0
+            val rank = kotlin.math.ceil(count * p).toLong().coerceAtLeast(1)
+            var seen = 0L
+            for (i in buckets.indices) {
+                seen += buckets[i]
+                if (seen >= rank) return upperBoundMs(i)
+            }
+            return maxNs / 1e6
+        }
+
+        // 桶的上界，不超过实际最大值
+        private fun upperBoundMs(index: Int): Double {
+            val ns = when {
+                index < FINE_BUCKETS -> (index + 1) * FINE_NS
+                index < FINE_BUCKETS + COARSE_BUCKETS -> FINE_BUCKETS * FINE_NS + (index - FINE_BUCKETS + 1) * COARSE_NS
+                else -> maxNs
+            }
+            return minOf(ns, maxNs) / 1e6
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.CapturerObserver
+import org.webrtc.VideoFrame
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 在独立线程上把采集帧交给一个CapturerObserver，慢的observer不会阻塞采集线程和其他track
+ *
+ * 帧入队时retain，送达或丢弃后release。队列有上限，满时按[Policy]丢帧；入队超过[deadlineMs]仍未送达的帧直接丢弃。
+ * onCapturerStarted/onCapturerStopped与帧按顺序送达，不会被丢弃
+ *
+ * 纹理帧的SurfaceTextureHelper在上一帧释放前不会输出下一帧，排队持有纹理帧会让相机停顿，
+ * 所以[copyTextureFrames]为true（默认）时，纹理帧入队前先转换为I420。
+ * 由[VideoSourceHelper]分发时，纹理帧只在采集线程转换一次，所有lane共用同一个I420帧
+ *
+ * 通过[VideoSourceHelper.addFrameObserver]创建
+ */
+class FrameObserverLane internal constructor(
+    val observer: CapturerObserver,
+    val policy: Policy,
+    val capacity: Int,
+    val deadlineMs: Long,
+    internal val copyTextureFrames: Boolean,
+) : CapturerObserver {
+
+    enum class Policy {
+        /**
+         * 队列满时丢弃最早的帧
+         */
+        DROP_OLDEST,
+
+        /**
+         * 只保留最新的一帧，capacity无效
+         */
+        LATEST_ONLY,
+    }
+
+    data class Stats(
+        val queueDepth: Int,
+        val maxQueueDepth: Int,
+        val deliveredFrames: Long,
+        // 队列满被挤掉的帧数
+        val overflowDroppedFrames: Long,
+        // 超过deadline丢弃的帧数
+        val staleDroppedFrames: Long,
+        // 入队到送达的平均时长
+        val avgQueueDelayMs: Double,
+    )
+
+    private enum class Kind { FRAME, STARTED, START_FAILED, STOPPED }
+
+    // 队列元素：帧或者启停事件
+    private class Item(val kind: Kind, val frame: VideoFrame?, val enqueuedAtNs: Long)
+
+    private val queue = ArrayDeque<Item>()
+    private val lock = Object()
+    private val maxFrames = if (policy == Policy.LATEST_ONLY) 1 else capacity
+    private var queuedFrames = 0
+    private var maxQueueDepth = 0
+
+    @Volatile
+    private var running = true
+    private val thread = Thread({ deliverLoop() }, "FrameObserverLane")
+
+    private val deliveredFrames = AtomicLong()
+    private val overflowDroppedFrames = AtomicLong()
+    private val staleDroppedFrames = AtomicLong()
+    private val totalQueueDelayNs = AtomicLong()
+
+    init {
+        require(capacity >= 1) { "capacity must be at least 1" }
+        thread.start()
+    }
+
+    override fun onCapturerStarted(success: Boolean) {
+        enqueue(Item(if (success) Kind.STARTED else Kind.START_FAILED, null, System.nanoTime()))
+    }
+
+    override fun onCapturerStopped() {
+        enqueue(Item(Kind.STOPPED, null, System.nanoTime()))
+    }
+
+    override fun onFrameCaptured(frame: VideoFrame) {
+        if (!running) return
+        val queued = if (copyTextureFrames && frame.buffer !is VideoFrame.I420Buffer) {
+            val i420 = frame.buffer.toI420() ?: return
+            VideoFrame(i420, frame.rotation, frame.timestampNs)
+        } else {
+            frame.retain()
+            frame
+        }
+        enqueue(Item(Kind.FRAME, queued, System.nanoTime()))
+    }
+
+    private fun enqueue(item: Item) {
+        synchronized(lock) {
+            if (!running) {
+                item.frame?.release()
+                return
+            }
+            if (item.frame != null) {
+                // 从最早的帧开始挤掉，事件保留
+                while (queuedFrames >= maxFrames) {
+                    val oldest = queue.firstOrNull { it.frame != null } ?: break
+                    queue.remove(oldest)
+                    oldest.frame?.release()
+                    queuedFrames--
+                    overflowDroppedFrames.incrementAndGet()
+                }
+                queuedFrames++
+                if (queuedFrames > maxQueueDepth) maxQueueDepth = queuedFrames
+            }
+            queue.addLast(item)
+            lock.notifyAll()
+        }
+    }
+
+    private fun deliverLoop() {
+        while (true) {
+            val item = synchronized(lock) {
+                while (running && queue.isEmpty()) lock.wait()
+                if (!running && queue.isEmpty()) return
+                queue.removeFirst().also { if (it.frame != null) queuedFrames-- }
+            }
+            val frame = item.frame
+            when (item.kind) {
+                Kind.STARTED -> observer.onCapturerStarted(true)
+                Kind.START_FAILED -> observer.onCapturerStarted(false)
+                Kind.STOPPED -> observer.onCapturerStopped()
+                Kind.FRAME -> {}
+            }
+            if (frame == null) continue
+            val delayNs = System.nanoTime() - item.enqueuedAtNs
+            if (deadlineMs > 0 && delayNs > deadlineMs * 1_000_000L) {
+                staleDroppedFrames.incrementAndGet()
+                frame.release()
+                continue
+            }
+            try {
+                observer.onFrameCaptured(frame)
+            } catch (e: Exception) {
+                L.e("FrameObserverLane: observer failed", e)
+            } finally {
+                frame.release()
+            }
+            deliveredFrames.incrementAndGet()
+            totalQueueDelayNs.addAndGet(delayNs)
+        }
+    }
+
+    /**
+     * 停止线程，尚未送达的帧直接释放
+     */
+    internal fun close() {
+        synchronized(lock) {
+            running = false
+            queue.forEach { it.frame?.release() }
+            queue.clear()
+            queuedFrames = 0
+            lock.notifyAll()
+        }
+        if (thread !== Thread.currentThread()) {
+            thread.join()
+        }
+    }
+
+    fun getStats(): Stats {
+        val delivered = deliveredFrames.get()
+        synchronized(lock) {
+            return Stats(
+                queuedFrames,
+                maxQueueDepth,
+                delivered,
+                overflowDroppedFrames.get(),
+                staleDroppedFrames.get(),
+                if (delivered > 0) totalQueueDelayNs.get() / delivered / 1e6 else 0.0
+            )
+        }
+    }
+}
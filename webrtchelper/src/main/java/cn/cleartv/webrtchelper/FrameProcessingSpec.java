@@ -0,0 +1,75 @@
+package cn.cleartv.webrtchelper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Describes how {@link YuvFrame} should transform a frame while copying it: crop, scale and rotate,
+ * all done in one pass over the source planes.
+ * <p>
+ * The crop rectangle and the target size are given in the coordinates of the source buffer, before any rotation.
+ */
+public class FrameProcessingSpec {
+    /**
+     * Crop rectangle. A width or height of 0 means the whole frame.
+     * The rectangle is clamped to the frame and its origin rounded down to even values so chroma stays aligned.
+     */
+    public int cropX;
+    public int cropY;
+    public int cropWidth;
+    public int cropHeight;
+    /**
+     * Crop the centre square of the frame, overrides the crop rectangle.
+     */
+    public boolean cropToSquare;
+    /**
+     * Output size before rotation. 0 keeps the cropped size, one 0 keeps the aspect ratio of the other.
+     */
+    public int targetWidth;
+    public int targetHeight;
+    @NonNull
+    public PlaneScaler.Filter filter = PlaneScaler.Filter.BOX;
+    /**
+     * Extra clockwise rotation on top of the frame's own rotation, a multiple of 90.
+     */
+    public int rotation;
+    /**
+     * If true the total rotation is applied to the planes and the resulting YuvFrame has a rotationDegree of 0.
+     * Otherwise it is only recorded in rotationDegree, as for unprocessed frames.
+     */
+    public boolean bakeRotation;
+
+    public FrameProcessingSpec crop(final int x, final int y, final int width, final int height) {
+        cropX = x;
+        cropY = y;
+        cropWidth = width;
+        cropHeight = height;
+        cropToSquare = false;
+        return this;
+    }
+
+    public FrameProcessingSpec cropToSquare() {
+        cropToSquare = true;
+        return this;
+    }
+
+    public FrameProcessingSpec scaleTo(final int width, final int height, @NonNull final PlaneScaler.Filter filter) {
+        targetWidth = width;
+        targetHeight = height;
+        this.filter = filter;
+        return this;
+    }
+
+    public FrameProcessingSpec rotate(final int rotation, final boolean bake) {
+        this.rotation = rotation;
+        bakeRotation = bake;
+        return this;
+    }
+
+    /**
+     * @return true if the spec changes nothing, so a plain copy will do.
+     */
+    public boolean isIdentity() {
+        return !cropToSquare && (cropWidth <= 0 || cropHeight <= 0) && targetWidth <= 0 && targetHeight <= 0
+                && rotation % 360 == 0 && !bakeRotation;
+    }
+}
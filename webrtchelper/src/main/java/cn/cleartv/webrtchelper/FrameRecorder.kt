@@ -0,0 +1,254 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.VideoFrame
+import org.webrtc.VideoSink
+import org.webrtc.YuvHelper
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 把视频帧写入Y4M或裸I420文件，用于测试和问题复现
+ *
+ * 可以作为VideoSink添加到任意VideoTrack（包括远端track），也可以作为处理器加入[VideoSourceHelper.frameProcessors]记录采集帧。
+ * 调用线程只做缩放、旋转和一次复制（复制到预先分配的直接内存），写文件在独立线程完成；
+ * 写盘跟不上导致缓冲区用完时直接丢帧并计数，不会阻塞采集线程
+ *
+ * 输出尺寸在第一帧确定（按[maxWidth]、[maxHeight]等比缩小），之后尺寸变化的帧会缩放到同样大小。
+ * 带rotation的帧（如竖屏采集）会旋转为正向画面后写入，输出尺寸按旋转后的宽高计算；第一帧之后旋转方向变化的帧同样缩放到输出尺寸
+ *
+ * @param keepEveryNthFrame 每N帧记录一帧
+ * @param frameRate 写入Y4M文件头的帧率，记录的帧率应为输入帧率/keepEveryNthFrame
+ * @param queueCapacity 等待写入的最大帧数，同时也是预分配缓冲区的数量
+ */
+class FrameRecorder @JvmOverloads constructor(
+    val file: File,
+    val format: Format = Format.Y4M,
+    private val maxWidth: Int = 0,
+    private val maxHeight: Int = 0,
+    private val keepEveryNthFrame: Int = 1,
+    private val frameRate: Int = 30,
+    private val queueCapacity: Int = 8,
+) : VideoSink, VideoFrameProcessor, Closeable {
+
+    enum class Format {
+        Y4M,
+        RAW_I420,
+    }
+
+    data class Stats(
+        val receivedFrames: Long,
+        val writtenFrames: Long,
+        // 缓冲区用完丢弃的帧数
+        val droppedFrames: Long,
+        // 按keepEveryNthFrame跳过的帧数
+        val skippedFrames: Long,
+        val bytesWritten: Long,
+        val queuedFrames: Int,
+    )
+
+    companion object {
+        private val FRAME_HEADER = "FRAME\n".toByteArray(Charsets.US_ASCII)
+    }
+
+    override val name: String
+        get() = "FrameRecorder(${file.name})"
+
+    private val channel: FileChannel = RandomAccessFile(file, "rw").channel.apply { truncate(0) }
+    private val frameHeader: ByteBuffer = ByteBuffer.allocateDirect(FRAME_HEADER.size).put(FRAME_HEADER)
+
+    // 空闲缓冲区和待写入缓冲区，缓冲区在第一帧确定尺寸后分配
+    private val freeBuffers = ArrayBlockingQueue<ByteBuffer>(queueCapacity)
+    // 多一个位置给Y4M文件头
+    private val pendingBuffers = ArrayBlockingQueue<ByteBuffer>(queueCapacity + 1)
+
+    private var outputWidth = 0
+    private var outputHeight = 0
+    private var outputFrameBytes = 0
+    private var frameCounter = 0
+
+    // 旋转帧时使用，第一次遇到旋转帧时分配
+    private val rotator = PlaneRotator()
+    private var rotateScratch: ByteArray? = null
+
+    @Volatile
+    private var closed = false
+    private val writerThread = Thread({ writeLoop() }, "FrameRecorder")
+
+    private val receivedFrames = AtomicLong()
+    private val writtenFrames = AtomicLong()
+    private val droppedFrames = AtomicLong()
+    private val skippedFrames = AtomicLong()
+    private val bytesWritten = AtomicLong()
+
+    init {
+        require(keepEveryNthFrame >= 1 && queueCapacity >= 1)
+        writerThread.start()
+    }
+
+    override fun onFrame(frame: VideoFrame) {
+        record(frame)
+    }
+
+    override fun process(frame: VideoFrame): VideoFrame {
+        record(frame)
+        return frame
+    }
+
+    override fun release() {
+        close()
+    }
+
+    @Synchronized
+    private fun record(frame: VideoFrame) {
+        if (closed) return
+        receivedFrames.incrementAndGet()
+        if (frameCounter++ % keepEveryNthFrame != 0) {
+            skippedFrames.incrementAndGet()
+            return
+        }
+        val source = frame.buffer
+        val rotation = ((frame.rotation % 360) + 360) % 360
+        if (outputWidth == 0) initOutput(frame.rotatedWidth, frame.rotatedHeight)
+        val data = freeBuffers.poll()
+        if (data == null) {
+            droppedFrames.incrementAndGet()
+            return
+        }
+        // 缩放到旋转前的尺寸，旋转后正好是输出尺寸
+        val (scaledWidth, scaledHeight) =
+            if (rotation % 180 == 0) outputWidth to outputHeight else outputHeight to outputWidth
+        val scaled = if (source.width == scaledWidth && source.height == scaledHeight) {
+            source.also { it.retain() }
+        } else {
+            source.cropAndScale(0, 0, source.width, source.height, scaledWidth, scaledHeight)
+        }
+        val i420 = scaled.toI420()
+        scaled.release()
+        if (i420 == null) {
+            freeBuffers.offer(data)
+            droppedFrames.incrementAndGet()
+            return
+        }
+        // I420Copy按地址从头写入，不会修改position
+        data.position(0)
+        data.limit(outputFrameBytes)
+        if (rotation == 0) {
+            YuvHelper.I420Copy(
+                i420.dataY, i420.strideY,
+                i420.dataU, i420.strideU,
+                i420.dataV, i420.strideV,
+                data, outputWidth, outputHeight
+            )
+        } else {
+            writeRotated(i420, rotation, data)
+        }
+        i420.release()
+        pendingBuffers.offer(data)
+    }
+
+    // 三个平面分别旋转到堆内存，再一次复制到直接内存
+    private fun writeRotated(i420: VideoFrame.I420Buffer, rotation: Int, data: ByteBuffer) {
+        val scratch = rotateScratch ?: ByteArray(outputFrameBytes).also { rotateScratch = it }
+        val chromaWidth = (outputWidth + 1) / 2
+        val chromaHeight = (outputHeight + 1) / 2
+        val uOffset = outputWidth * outputHeight
+        val vOffset = uOffset + chromaWidth * chromaHeight
+        val srcChromaWidth = (i420.width + 1) / 2
+        val srcChromaHeight = (i420.height + 1) / 2
+        rotator.rotate(i420.dataY, i420.strideY, i420.width, i420.height, scratch, 0, outputWidth, 1, rotation)
+        rotator.rotate(i420.dataU, i420.strideU, srcChromaWidth, srcChromaHeight, scratch, uOffset, chromaWidth, 1, rotation)
+        rotator.rotate(i420.dataV, i420.strideV, srcChromaWidth, srcChromaHeight, scratch, vOffset, chromaWidth, 1, rotation)
+        data.put(scratch, 0, outputFrameBytes)
+        data.position(0)
+    }
+
+    private fun initOutput(width: Int, height: Int) {
+        var w = width
+        var h = height
+        if (maxWidth > 0 && maxHeight > 0) {
+            // 横竖屏使用同一个上限
+            val (limitW, limitH) = if ((w >= h) == (maxWidth >= maxHeight)) maxWidth to maxHeight else maxHeight to maxWidth
+            val scale = minOf(1.0, limitW.toDouble() / w, limitH.toDouble() / h)
+            if (scale < 1.0) {
+                w = maxOf(2, (w * scale).toInt() and 1.inv())
+                h = maxOf(2, (h * scale).toInt() and 1.inv())
+            }
+        }
+        outputWidth = w
+        outputHeight = h
+        outputFrameBytes = w * h + 2 * ((w + 1) / 2) * ((h + 1) / 2)
+        repeat(queueCapacity) { freeBuffers.offer(ByteBuffer.allocateDirect(outputFrameBytes)) }
+        if (format == Format.Y4M) {
+            val header = "YUV4MPEG2 W$w H$h F$frameRate:1 Ip A1:1 C420jpeg\n".toByteArray(Charsets.US_ASCII)
+            pendingBuffers.offer(ByteBuffer.wrap(header))
+        }
+        L.i("FrameRecorder: ${file.name} ${width}x$height -> ${w}x$h, $format")
+    }
+
+    private fun writeLoop() {
+        try {
+            while (true) {
+                val data = pendingBuffers.poll(100, TimeUnit.MILLISECONDS)
+                if (data == null) {
+                    if (closed) break
+                    continue
+                }
+                // 帧数据使用直接内存，文件头是堆内存
+                val isFrame = data.isDirect
+                if (isFrame && format == Format.Y4M) {
+                    frameHeader.clear()
+                    bytesWritten.addAndGet(writeFully(frameHeader).toLong())
+                }
+                bytesWritten.addAndGet(writeFully(data).toLong())
+                if (isFrame) {
+                    writtenFrames.incrementAndGet()
+                    freeBuffers.offer(data)
+                }
+            }
+        } catch (e: Exception) {
+            L.e("FrameRecorder: write ${file.name} failed", e)
+            closed = true
+        } finally {
+            channel.close()
+        }
+    }
+
+    private fun writeFully(buffer: ByteBuffer): Int {
+        var written = 0
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer)
+        }
+        return written
+    }
+
+    /**
+     * 停止记录，等待已缓存的帧写完后关闭文件
+     */
+    override fun close() {
+        synchronized(this) {
+            if (closed) return
+            closed = true
+        }
+        if (writerThread !== Thread.currentThread()) {
+            writerThread.join()
+        }
+        L.i("FrameRecorder: ${file.name} closed, ${getStats()}")
+    }
+
+    fun getStats(): Stats {
+        return Stats(
+            receivedFrames.get(),
+            writtenFrames.get(),
+            droppedFrames.get(),
+            skippedFrames.get(),
+            bytesWritten.get(),
+            pendingBuffers.size
+        )
+    }
+}
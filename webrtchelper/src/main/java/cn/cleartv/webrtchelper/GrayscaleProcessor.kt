@@ -0,0 +1,19 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.JavaI420Buffer
+import org.webrtc.VideoFrame
+
+/**
+ * 黑白滤镜：保留亮度，色度置为128
+ */
+class GrayscaleProcessor : I420FrameProcessor() {
+
+    override fun processI420(src: VideoFrame.I420Buffer, dst: JavaI420Buffer) {
+        val chromaWidth = (src.width + 1) / 2
+        val chromaHeight = (src.height + 1) / 2
+        val row = scratchRow(src.width)
+        PlaneEffects.copy(src.dataY, src.strideY, dst.dataY, dst.strideY, src.width, src.height, row)
+        PlaneEffects.fill(dst.dataU, dst.strideU, chromaWidth, chromaHeight, 128.toByte(), row)
+        PlaneEffects.fill(dst.dataV, dst.strideV, chromaWidth, chromaHeight, 128.toByte(), row)
+    }
+}
@@ -0,0 +1,225 @@
+package cn.cleartv.webrtchelper
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import org.webrtc.JavaI420Buffer
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 复用I420Buffer的直接内存，按(width, height, strideY, strideUV)分组
+ *
+ * [acquire]返回的buffer在引用计数归零（最后一次release）时，其直接内存会自动回到池中。
+ * 池中空闲内存总量超过[maxPooledBytes]时，优先淘汰最久未使用的尺寸。
+ * 开启[leakDetection]后，有buffer借出时在主线程定时执行[checkLeaks]，借出超过[leakThresholdMs]仍未释放的buffer打印一次分配位置。
+ */
+object I420BufferPool {
+
+    data class Stats(
+        val hits: Long,
+        val misses: Long,
+        val evictions: Long,
+        val pooledBuffers: Int,
+        val pooledBytes: Long,
+        val outstandingBuffers: Int,
+        val outstandingBytes: Long,
+    )
+
+    /**
+     * 池中空闲内存的上限，单位字节
+     */
+    @JvmStatic
+    var maxPooledBytes: Long = 32L * 1024 * 1024
+        set(value) {
+            field = value
+            synchronized(pool) { evictLocked() }
+        }
+
+    /**
+     * 是否记录每个buffer的分配调用栈，会有额外开销，调试时开启
+     */
+    @JvmStatic
+    var leakDetection: Boolean = false
+        set(value) {
+            field = value
+            if (value) scheduleLeakCheck()
+        }
+
+    /**
+     * 借出超过该时长仍未释放视为泄漏
+     */
+    @JvmStatic
+    var leakThresholdMs: Long = 10_000
+
+    private class Key(val width: Int, val height: Int, val strideY: Int, val strideUV: Int) {
+        val chromaHeight = (height + 1) / 2
+        val sizeY = strideY * height
+        val sizeUV = strideUV * chromaHeight
+        val bytes = sizeY + sizeUV * 2
+
+        override fun equals(other: Any?): Boolean {
+            return other is Key && other.width == width && other.height == height
+                    && other.strideY == strideY && other.strideUV == strideUV
+        }
+
+        override fun hashCode(): Int {
+            return ((width * 31 + height) * 31 + strideY) * 31 + strideUV
+        }
+
+        override fun toString(): String {
+            return "${width}x$height(stride $strideY/$strideUV)"
+        }
+    }
+
+    private class Allocation(val key: Key, val acquiredAt: Long, val stack: Throwable?) {
+        // 已经打印过，不再重复打印
+        @Volatile
+        var reported = false
+    }
+
+    // accessOrder = true，迭代顺序即最久未使用到最近使用
+    private val pool = LinkedHashMap<Key, ArrayDeque<ByteBuffer>>(16, 0.75f, true)
+    private var pooledBytes = 0L
+    private val outstanding = ConcurrentHashMap<Int, Allocation>()
+    private val nextId = AtomicInteger()
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    private val mainHandler by lazy { Handler(Looper.getMainLooper()) }
+    private val leakCheckScheduled = AtomicBoolean()
+    private val leakCheckRunnable = Runnable {
+        leakCheckScheduled.set(false)
+        if (!leakDetection) return@Runnable
+        checkLeaks()
+        if (outstanding.isNotEmpty()) scheduleLeakCheck()
+    }
+
+    @JvmStatic
+    fun acquire(width: Int, height: Int): JavaI420Buffer {
+        return acquire(width, height, width, (width + 1) / 2)
+    }
+
+    /**
+     * @param strideY Y平面行跨度，不能小于width
+     * @param strideUV U/V平面行跨度，不能小于(width + 1) / 2
+     */
+    @JvmStatic
+    fun acquire(width: Int, height: Int, strideY: Int, strideUV: Int): JavaI420Buffer {
+        require(strideY >= width && strideUV >= (width + 1) / 2) { "stride too small: $strideY/$strideUV for width $width" }
+        val key = Key(width, height, strideY, strideUV)
+        val memory = synchronized(pool) {
+            pool[key]?.removeLastOrNull()?.also { pooledBytes -= key.bytes }
+        }?.also { hits.incrementAndGet() }
+            ?: ByteBuffer.allocateDirect(key.bytes).also { misses.incrementAndGet() }
+
+        val id = nextId.incrementAndGet()
+        outstanding[id] = Allocation(
+            key,
+            SystemClock.elapsedRealtime(),
+            if (leakDetection) Throwable("I420Buffer $key acquired here") else null
+        )
+        if (leakDetection) scheduleLeakCheck()
+        return JavaI420Buffer.wrap(
+            width, height,
+            slice(memory, 0, key.sizeY), strideY,
+            slice(memory, key.sizeY, key.sizeUV), strideUV,
+            slice(memory, key.sizeY + key.sizeUV, key.sizeUV), strideUV
+        ) {
+            outstanding.remove(id)
+            recycle(key, memory)
+        }
+    }
+
+    private fun recycle(key: Key, memory: ByteBuffer) {
+        synchronized(pool) {
+            if (key.bytes > maxPooledBytes) return
+            pool.getOrPut(key) { ArrayDeque() }.addLast(memory)
+            pooledBytes += key.bytes
+            evictLocked()
+        }
+    }
+
+    private fun evictLocked() {
+        val iterator = pool.entries.iterator()
+        while (pooledBytes > maxPooledBytes && iterator.hasNext()) {
+            val entry = iterator.next()
+            while (pooledBytes > maxPooledBytes && entry.value.isNotEmpty()) {
+                entry.value.removeFirst()
+                pooledBytes -= entry.key.bytes
+                evictions.incrementAndGet()
+            }
+            if (entry.value.isEmpty()) iterator.remove()
+        }
+    }
+
+    /**
+     * 检查借出超过[leakThresholdMs]仍未释放的buffer，每个buffer只打印一次
+     * @return 疑似泄漏的个数，包括之前已经打印过的
+     */
+    @JvmStatic
+    fun checkLeaks(): Int {
+        val now = SystemClock.elapsedRealtime()
+        var count = 0
+        outstanding.values.forEach {
+            val age = now - it.acquiredAt
+            if (age > leakThresholdMs) {
+                count++
+                if (!it.reported) {
+                    it.reported = true
+                    L.w("I420Buffer ${it.key} not released after ${age}ms", it.stack)
+                }
+            }
+        }
+        return count
+    }
+
+    /**
+     * 每半个[leakThresholdMs]检查一次，没有借出的buffer时停止，下次借出时重新开始
+     */
+    private fun scheduleLeakCheck() {
+        if (leakCheckScheduled.compareAndSet(false, true)) {
+            mainHandler.postDelayed(leakCheckRunnable, (leakThresholdMs / 2).coerceAtLeast(500))
+        }
+    }
+
+    @JvmStatic
+    fun getStats(): Stats {
+        var outstandingBytes = 0L
+        outstanding.values.forEach { outstandingBytes += it.key.bytes }
+        return synchronized(pool) {
+            Stats(
+                hits.get(),
+                misses.get(),
+                evictions.get(),
+                pool.values.sumOf { it.size },
+                pooledBytes,
+                outstanding.size,
+                outstandingBytes
+            )
+        }
+    }
+
+    /**
+     * 清空空闲内存，已借出的buffer不受影响
+     */
+    @JvmStatic
+    fun clear() {
+        synchronized(pool) {
+            pool.clear()
+            pooledBytes = 0
+        }
+    }
+
+    private fun slice(memory: ByteBuffer, offset: Int, size: Int): ByteBuffer {
+        val view = memory.duplicate()
+        view.position(offset)
+        view.limit(offset + size)
+        return view.slice()
+    }
+}
@@ -0,0 +1,49 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.JavaI420Buffer
+import org.webrtc.VideoFrame
+
+/**
+ * 需要修改像素的CPU处理器的基类：把输入转换为I420（纹理帧会从GPU读回），输出写入[I420BufferPool]借出的buffer
+ *
+ * 子类只需要实现[processI420]，输出buffer在帧被释放后自动回到池中
+ */
+abstract class I420FrameProcessor : VideoFrameProcessor {
+
+    private var row = ByteArray(0)
+
+    override fun process(frame: VideoFrame): VideoFrame? {
+        val src = frame.buffer.toI420() ?: return frame
+        val dst = try {
+            I420BufferPool.acquire(outputWidth(src), outputHeight(src)).also {
+                try {
+                    processI420(src, it)
+                } catch (e: Throwable) {
+                    // 处理失败时归还输出buffer
+                    it.release()
+                    throw e
+                }
+            }
+        } finally {
+            src.release()
+        }
+        return VideoFrame(dst, frame.rotation, frame.timestampNs)
+    }
+
+    protected open fun outputWidth(src: VideoFrame.I420Buffer): Int = src.width
+
+    protected open fun outputHeight(src: VideoFrame.I420Buffer): Int = src.height
+
+    /**
+     * 把src处理后写入dst，dst的尺寸由[outputWidth]、[outputHeight]决定
+     */
+    protected abstract fun processI420(src: VideoFrame.I420Buffer, dst: JavaI420Buffer)
+
+    /**
+     * 复用的行缓冲，只能在[processI420]中使用
+     */
+    protected fun scratchRow(size: Int): ByteArray {
+        if (row.size < size) row = ByteArray(size)
+        return row
+    }
+}
@@ -0,0 +1,246 @@
+package cn.cleartv.webrtchelper
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import org.webrtc.VideoFrame
+import org.webrtc.VideoSink
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.sqrt
+
+/**
+ * 监控画面亮度：过暗、过曝和画面冻结（传感器卡住、解码停在同一帧、完全没有新帧）
+ *
+ * 直接按[sampleStep]间隔读取Y平面（见[LumaHistogram]），不转换Bitmap；默认间隔8时开销约为转换ARGB的1%。
+ * 可以作为VideoSink添加到本地或远端track，也可以作为处理器加入[VideoSourceHelper.frameProcessors]。
+ * 纹理帧先由GPU缩小到长边[ANALYSIS_SIZE]再读回
+ *
+ * @param sampleStep 采样间隔，行列相同
+ * @param analyzeEveryNthFrame 每N帧分析一帧
+ */
+class LumaAnalyzer @JvmOverloads constructor(
+    private val sampleStep: Int = 8,
+    private val analyzeEveryNthFrame: Int = 1,
+) : VideoSink, VideoFrameProcessor {
+
+    enum class Exposure {
+        NORMAL,
+        DARK,
+        OVEREXPOSED,
+    }
+
+    data class LumaReport(
+        val mean: Double,
+        val stdDev: Double,
+        // 亮度不超过darkLevel的采样比例
+        val darkFraction: Double,
+        // 亮度不低于brightLevel的采样比例
+        val brightFraction: Double,
+        val median: Int,
+        val exposure: Exposure,
+        val frozen: Boolean,
+        // 画面连续不变的时长
+        val unchangedMs: Long,
+    )
+
+    data class Stats(
+        val analyzedFrames: Long,
+        val frozenFrames: Long,
+        // 指数平滑后的平均亮度和标准差
+        val smoothedMean: Double,
+        val smoothedStdDev: Double,
+        val lastReport: LumaReport?,
+    )
+
+    companion object {
+        const val ANALYSIS_SIZE = 320
+
+        // 指数平滑系数
+        private const val SMOOTHING = 0.1
+    }
+
+    /**
+     * 亮度（0-255）不超过该值的采样视为欠曝
+     */
+    var darkLevel: Int = 16
+
+    /**
+     * 亮度不低于该值的采样视为过曝
+     */
+    var brightLevel: Int = 235
+
+    /**
+     * 欠曝/过曝采样比例超过该值时判定为过暗/过曝
+     */
+    var clippedFraction: Double = 0.5
+
+    /**
+     * 画面连续不变或没有新帧超过该时长判定为冻结
+     */
+    var frozenMs: Long = 2000
+
+    /**
+     * 曝光或冻结状态变化时回调，在帧所在的线程调用；没有新帧导致的冻结在主线程回调
+     */
+    var onStateChanged: ((LumaReport) -> Unit)? = null
+
+    @Volatile
+    var lastReport: LumaReport? = null
+        private set
+
+    private val histogram = LumaHistogram()
+    private val accumulated = LongArray(LumaHistogram.BINS)
+    private val bins = LongArray(LumaHistogram.BINS)
+    private var frameCounter = 0
+    private var lastChecksum = 0L
+    private var unchangedSince = 0L
+
+    // 收不到帧时不会调用analyze，由主线程定时检查最后一帧的到达时间
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val frameTimeoutCheck = Runnable { checkFrameTimeout() }
+    private var lastFrameAt = 0L
+    private var frameTimeoutScheduled = false
+
+    @Volatile
+    private var smoothedMean = -1.0
+
+    @Volatile
+    private var smoothedVariance = 0.0
+
+    private val analyzedFrames = AtomicLong()
+    private val frozenFrames = AtomicLong()
+
+    init {
+        require(sampleStep >= 1 && analyzeEveryNthFrame >= 1)
+    }
+
+    override fun onFrame(frame: VideoFrame) {
+        analyze(frame)
+    }
+
+    override fun process(frame: VideoFrame): VideoFrame {
+        analyze(frame)
+        return frame
+    }
+
+    override fun release() {
+        synchronized(this) {
+            mainHandler.removeCallbacks(frameTimeoutCheck)
+            frameTimeoutScheduled = false
+        }
+    }
+
+    @Synchronized
+    private fun analyze(frame: VideoFrame) {
+        lastFrameAt = SystemClock.elapsedRealtime()
+        if (!frameTimeoutScheduled) {
+            frameTimeoutScheduled = true
+            mainHandler.postDelayed(frameTimeoutCheck, frozenMs)
+        }
+        if (frameCounter++ % analyzeEveryNthFrame != 0) return
+        val buffer = frame.buffer
+        val step: Int
+        val i420 = if (buffer is VideoFrame.I420Buffer) {
+            step = sampleStep
+            buffer.also { it.retain() }
+        } else {
+            val longSide = maxOf(buffer.width, buffer.height)
+            val scale = minOf(1.0, ANALYSIS_SIZE.toDouble() / longSide)
+            step = maxOf(1, (sampleStep * scale).toInt())
+            val scaled = buffer.cropAndScale(
+                0, 0, buffer.width, buffer.height,
+                maxOf(2, (buffer.width * scale).toInt()), maxOf(2, (buffer.height * scale).toInt())
+            )
+            scaled.toI420().also { scaled.release() }
+        } ?: return
+        try {
+            histogram.compute(i420.dataY, i420.strideY, i420.width, i420.height, step)
+        } finally {
+            i420.release()
+        }
+        analyzedFrames.incrementAndGet()
+
+        val now = SystemClock.elapsedRealtime()
+        val checksum = histogram.checksum
+        if (unchangedSince == 0L || checksum != lastChecksum) {
+            unchangedSince = now
+            lastChecksum = checksum
+        }
+        val unchangedMs = now - unchangedSince
+        val frozen = unchangedMs >= frozenMs
+        if (frozen) frozenFrames.incrementAndGet()
+
+        val mean = histogram.mean
+        val variance = histogram.variance
+        smoothedMean = if (smoothedMean < 0) mean else smoothedMean + (mean - smoothedMean) * SMOOTHING
+        smoothedVariance += (variance - smoothedVariance) * SMOOTHING
+        histogram.copyBins(bins)
+        for (i in accumulated.indices) accumulated[i] += bins[i]
+
+        val darkFraction = histogram.fractionAtOrBelow(darkLevel)
+        val brightFraction = histogram.fractionAtOrAbove(brightLevel)
+        val exposure = when {
+            darkFraction > clippedFraction -> Exposure.DARK
+            brightFraction > clippedFraction -> Exposure.OVEREXPOSED
+            else -> Exposure.NORMAL
+        }
+        val report = LumaReport(
+            mean, sqrt(variance), darkFraction, brightFraction, histogram.percentile(0.5),
+            exposure, frozen, unchangedMs
+        )
+        val previous = lastReport
+        lastReport = report
+        if (previous == null || previous.exposure != exposure || previous.frozen != frozen) {
+            onStateChanged?.invoke(report)
+        }
+    }
+
+    // 超过frozenMs没有新帧时报告冻结，之后停止检查，直到下一帧到达
+    @Synchronized
+    private fun checkFrameTimeout() {
+        val now = SystemClock.elapsedRealtime()
+        val waitMs = lastFrameAt + frozenMs - now
+        if (waitMs > 0) {
+            mainHandler.postDelayed(frameTimeoutCheck, waitMs)
+            return
+        }
+        frameTimeoutScheduled = false
+        val previous = lastReport ?: return
+        if (previous.frozen) return
+        val report = previous.copy(frozen = true, unchangedMs = now - unchangedSince)
+        lastReport = report
+        onStateChanged?.invoke(report)
+    }
+
+    /**
+     * 从上次[reset]以来所有分析帧的亮度直方图，256个桶
+     */
+    @Synchronized
+    fun getHistogram(): LongArray {
+        return accumulated.copyOf()
+    }
+
+    @Synchronized
+    fun reset() {
+        accumulated.fill(0)
+        frameCounter = 0
+        unchangedSince = 0L
+        mainHandler.removeCallbacks(frameTimeoutCheck)
+        frameTimeoutScheduled = false
+        smoothedMean = -1.0
+        smoothedVariance = 0.0
+        lastReport = null
+        analyzedFrames.set(0)
+        frozenFrames.set(0)
+    }
+
+    fun getStats(): Stats {
+        return Stats(
+            analyzedFrames.get(),
+            frozenFrames.get(),
+            smoothedMean.coerceAtLeast(0.0),
+            sqrt(smoothedVariance),
+            lastReport
+        )
+    }
+}
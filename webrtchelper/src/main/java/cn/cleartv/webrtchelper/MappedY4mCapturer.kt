@@ -0,0 +1,331 @@
+package cn.cleartv.webrtchelper
+
+import android.content.Context
+import org.webrtc.CapturerObserver
+import org.webrtc.JavaI420Buffer
+import org.webrtc.SurfaceTextureHelper
+import org.webrtc.VideoCapturer
+import org.webrtc.VideoFrame
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * 从Y4M或裸I420文件读取视频帧的采集器，用于没有摄像头的压测/CI环境
+ *
+ * 文件通过mmap映射，每帧的Y/U/V平面直接包装为[JavaI420Buffer]，不复制像素。
+ * 通过[VideoSourceHelper.initCustomCapturer]接入，与摄像头采集器用法相同
+ *
+ * @param pacing 按帧率播放或尽可能快地输出
+ * @param loop 播放到结尾后是否从头循环
+ */
+class MappedY4mCapturer private constructor(
+    private val file: File,
+    private val pacing: Pacing,
+    private val loop: Boolean,
+    private val rawFormat: RawFormat?,
+) : VideoCapturer {
+
+    enum class Pacing {
+        /**
+         * 按帧率输出，使用绝对时间排期，不会累积误差
+         */
+        WALL_CLOCK,
+
+        /**
+         * 不等待，尽可能快地输出，用于测试处理能力
+         */
+        AS_FAST_AS_POSSIBLE,
+    }
+
+    data class Stats(
+        val deliveredFrames: Long,
+        val loops: Long,
+        val lateFrames: Long,
+    )
+
+    private class RawFormat(val width: Int, val height: Int, val fps: Int)
+
+    // 帧在第几个映射区域中的偏移
+    private class FrameLocation(val region: Int, val offset: Int)
+
+    companion object {
+        // 单个映射区域的上限，超过后分段映射，每段只包含完整的帧
+        private const val MAX_REGION_BYTES = 1L shl 30
+
+        /**
+         * @param file Y4M文件，只支持4:2:0
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun fromY4m(file: File, pacing: Pacing = Pacing.WALL_CLOCK, loop: Boolean = true): MappedY4mCapturer {
+            return MappedY4mCapturer(file, pacing, loop, null)
+        }
+
+        /**
+         * @param file 连续存放的I420帧，没有文件头
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun fromRawI420(
+            file: File,
+            width: Int,
+            height: Int,
+            fps: Int,
+            pacing: Pacing = Pacing.WALL_CLOCK,
+            loop: Boolean = true,
+        ): MappedY4mCapturer {
+            return MappedY4mCapturer(file, pacing, loop, RawFormat(width, height, fps))
+        }
+    }
+
+    var width = 0
+        private set
+    var height = 0
+        private set
+
+    /**
+     * 文件中的帧率，startCapture的framerate大于0时以其为准
+     */
+    var fileFrameRate = 30
+        private set
+
+    val frameCount: Int
+        get() = frames.size
+
+    private val chromaWidth get() = (width + 1) / 2
+    private val chromaHeight get() = (height + 1) / 2
+
+    private var channel: FileChannel? = null
+    private val regions = ArrayList<MappedByteBuffer>()
+    private val frames = ArrayList<FrameLocation>()
+
+    private var capturerObserver: CapturerObserver? = null
+
+    @Volatile
+    private var frameIntervalNs = 0L
+
+    @Volatile
+    private var running = false
+    private var captureThread: Thread? = null
+
+    private val deliveredFrames = AtomicLong()
+    private val loops = AtomicLong()
+    private val lateFrames = AtomicLong()
+
+    override fun initialize(
+        surfaceTextureHelper: SurfaceTextureHelper?,
+        context: Context?,
+        capturerObserver: CapturerObserver,
+    ) {
+        this.capturerObserver = capturerObserver
+        open()
+    }
+
+    private fun open() {
+        val channel = RandomAccessFile(file, "r").channel
+        this.channel = channel
+        val fileSize = channel.size()
+        val dataStart: Long
+        if (rawFormat != null) {
+            width = rawFormat.width
+            height = rawFormat.height
+            fileFrameRate = rawFormat.fps
+            dataStart = 0
+        } else {
+            dataStart = parseY4mHeader(channel)
+        }
+        val frameBytes = width.toLong() * height + 2L * chromaWidth * chromaHeight
+
+        // 先找到每一帧数据的位置，再按不超过MAX_REGION_BYTES的整帧区间分段映射
+        val positions = ArrayList<Long>()
+        if (rawFormat != null) {
+            var position = dataStart
+            while (position + frameBytes <= fileSize) {
+                positions.add(position)
+                position += frameBytes
+            }
+        } else {
+            var position = dataStart
+            val header = ByteBuffer.allocate(256)
+            while (position < fileSize) {
+                header.clear()
+                channel.read(header, position)
+                header.flip()
+                val lineEnd = indexOf(header, '\n'.code.toByte())
+                if (lineEnd < 0 || !startsWith(header, "FRAME")) break
+                val data = position + lineEnd + 1
+                if (data + frameBytes > fileSize) break
+                positions.add(data)
+                position = data + frameBytes
+            }
+        }
+        if (positions.isEmpty()) throw IOException("no frame in $file")
+
+        var regionStart = -1L
+        for (position in positions) {
+            if (regionStart < 0 || position + frameBytes - regionStart > MAX_REGION_BYTES) {
+                regionStart = position
+                val size = minOf(MAX_REGION_BYTES, fileSize - regionStart)
+                regions.add(channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size))
+            }
+            frames.add(FrameLocation(regions.lastIndex, (position - regionStart).toInt()))
+        }
+        L.i("MappedY4mCapturer: $file ${width}x$height@$fileFrameRate, ${frames.size} frames, ${regions.size} regions")
+    }
+
+    /**
+     * @return 第一帧FRAME行的位置
+     */
+    private fun parseY4mHeader(channel: FileChannel): Long {
+        val header = ByteBuffer.allocate(512)
+        channel.read(header, 0)
+        header.flip()
+        val lineEnd = indexOf(header, '\n'.code.toByte())
+        if (lineEnd < 0 || !startsWith(header, "YUV4MPEG2")) throw IOException("not a y4m file: $file")
+        val line = String(header.array(), 0, lineEnd, Charsets.US_ASCII)
+        for (token in line.split(' ').drop(1)) {
+            if (token.isEmpty()) continue
+            val value = token.substring(1)
+            when (token[0]) {
+                'W' -> width = value.toInt()
+                'H' -> height = value.toInt()
+                'F' -> {
+                    val parts = value.split(':')
+                    val den = parts.getOrNull(1)?.toIntOrNull() ?: 1
+                    if (den > 0) fileFrameRate = maxOf(1, (parts[0].toInt() + den / 2) / den)
+                }
+
+                'C' -> if (!value.startsWith("420")) throw IOException("unsupported y4m colorspace: $value")
+            }
+        }
+        if (width <= 0 || height <= 0) throw IOException("invalid y4m size: $line")
+        return lineEnd + 1L
+    }
+
+    private fun indexOf(buffer: ByteBuffer, value: Byte): Int {
+        for (i in 0 until buffer.limit()) {
+            if (buffer.get(i) == value) return i
+        }
+        return -1
+    }
+
+    private fun startsWith(buffer: ByteBuffer, prefix: String): Boolean {
+        if (buffer.limit() < prefix.length) return false
+        for (i in prefix.indices) {
+            if (buffer.get(i) != prefix[i].code.toByte()) return false
+        }
+        return true
+    }
+
+    /**
+     * 包装第index帧的映射内存，不复制
+     */
+    private fun wrapFrame(index: Int): JavaI420Buffer {
+        val location = frames[index]
+        val region = regions[location.region]
+        val sizeY = width * height
+        val sizeUV = chromaWidth * chromaHeight
+        return JavaI420Buffer.wrap(
+            width, height,
+            slice(region, location.offset, sizeY), width,
+            slice(region, location.offset + sizeY, sizeUV), chromaWidth,
+            slice(region, location.offset + sizeY + sizeUV, sizeUV), chromaWidth,
+            null
+        )
+    }
+
+    private fun slice(region: ByteBuffer, offset: Int, size: Int): ByteBuffer {
+        val view = region.duplicate()
+        view.position(offset)
+        view.limit(offset + size)
+        return view.slice()
+    }
+
+    override fun startCapture(width: Int, height: Int, framerate: Int) {
+        if (running) return
+        setFrameRate(framerate)
+        running = true
+        capturerObserver?.onCapturerStarted(true)
+        captureThread = Thread({ captureLoop() }, "MappedY4mCapturer").apply { start() }
+    }
+
+    private fun setFrameRate(framerate: Int) {
+        val fps = if (framerate > 0) framerate else fileFrameRate
+        frameIntervalNs = 1_000_000_000L / fps
+    }
+
+    private fun captureLoop() {
+        var index = 0
+        var interval = frameIntervalNs
+        var nextFrameAt = System.nanoTime()
+        while (running) {
+            if (pacing == Pacing.WALL_CLOCK) {
+                // 帧率变化时从当前时间重新排期
+                if (interval != frameIntervalNs) {
+                    interval = frameIntervalNs
+                    nextFrameAt = System.nanoTime()
+                }
+                var wait = nextFrameAt - System.nanoTime()
+                while (wait > 0 && running) {
+                    LockSupport.parkNanos(wait)
+                    wait = nextFrameAt - System.nanoTime()
+                }
+                if (!running) break
+                // 落后超过一帧时不追赶，避免突发输出
+                if (-wait > interval) {
+                    lateFrames.incrementAndGet()
+                    nextFrameAt = System.nanoTime()
+                }
+                nextFrameAt += interval
+            }
+            val frame = VideoFrame(wrapFrame(index), 0, System.nanoTime())
+            capturerObserver?.onFrameCaptured(frame)
+            frame.release()
+            deliveredFrames.incrementAndGet()
+
+            index++
+            if (index >= frames.size) {
+                if (!loop) break
+                index = 0
+                loops.incrementAndGet()
+            }
+        }
+        running = false
+    }
+
+    override fun stopCapture() {
+        val thread = captureThread ?: return
+        running = false
+        LockSupport.unpark(thread)
+        if (thread !== Thread.currentThread()) {
+            thread.join()
+        }
+        captureThread = null
+        capturerObserver?.onCapturerStopped()
+    }
+
+    override fun changeCaptureFormat(width: Int, height: Int, framerate: Int) {
+        setFrameRate(framerate)
+    }
+
+    override fun dispose() {
+        stopCapture()
+        // 已经发出的帧仍然引用映射内存，映射本身在这些buffer被回收后才会释放
+        regions.clear()
+        frames.clear()
+        channel?.close()
+        channel = null
+    }
+
+    override fun isScreencast(): Boolean = false
+
+    fun getStats(): Stats {
+        return Stats(deliveredFrames.get(), loops.get(), lateFrames.get())
+    }
+}
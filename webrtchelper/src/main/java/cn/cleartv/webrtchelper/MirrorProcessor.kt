@@ -0,0 +1,32 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.JavaI420Buffer
+import org.webrtc.VideoFrame
+
+/**
+ * 镜像翻转，方向为buffer方向（旋转之前）
+ *
+ * @param horizontal 左右翻转
+ * @param vertical 上下翻转
+ */
+class MirrorProcessor(
+    @Volatile var horizontal: Boolean = true,
+    @Volatile var vertical: Boolean = false,
+) : I420FrameProcessor() {
+
+    override fun process(frame: VideoFrame): VideoFrame? {
+        if (!horizontal && !vertical) return frame
+        return super.process(frame)
+    }
+
+    override fun processI420(src: VideoFrame.I420Buffer, dst: JavaI420Buffer) {
+        val horizontal = horizontal
+        val vertical = vertical
+        val chromaWidth = (src.width + 1) / 2
+        val chromaHeight = (src.height + 1) / 2
+        val row = scratchRow(src.width)
+        PlaneEffects.mirror(src.dataY, src.strideY, dst.dataY, dst.strideY, src.width, src.height, horizontal, vertical, row)
+        PlaneEffects.mirror(src.dataU, src.strideU, dst.dataU, dst.strideU, chromaWidth, chromaHeight, horizontal, vertical, row)
+        PlaneEffects.mirror(src.dataV, src.strideV, dst.dataV, dst.strideV, chromaWidth, chromaHeight, horizontal, vertical, row)
+    }
+}
@@ -0,0 +1,104 @@
+package cn.cleartv.webrtchelper
+
+import android.graphics.Bitmap
+import org.webrtc.JavaI420Buffer
+import org.webrtc.VideoFrame
+import java.nio.ByteBuffer
+
+/**
+ * 在画面上叠加一张带透明度的图片（水印、角标等），坐标为buffer方向（旋转之前）
+ *
+ * 图片在[setBitmap]时一次性转换为YUV和透明度平面，每帧只做混合；超出画面的部分会被裁掉
+ */
+class OverlayProcessor(bitmap: Bitmap? = null, x: Int = 0, y: Int = 0) : I420FrameProcessor() {
+
+    private class Overlay(
+        val x: Int,
+        val y: Int,
+        val width: Int,
+        val height: Int,
+        val dataY: ByteArray,
+        val dataU: ByteArray,
+        val dataV: ByteArray,
+        val alphaY: ByteArray,
+        val alphaUV: ByteArray,
+    )
+
+    @Volatile
+    private var overlay: Overlay? = null
+
+    init {
+        if (bitmap != null) setBitmap(bitmap, x, y)
+    }
+
+    /**
+     * @param x 左上角x坐标，取偶数
+     * @param y 左上角y坐标，取偶数
+     */
+    fun setBitmap(bitmap: Bitmap, x: Int, y: Int) {
+        val width = bitmap.width
+        val height = bitmap.height
+        val chromaWidth = (width + 1) / 2
+        val chromaHeight = (height + 1) / 2
+        val pixels = IntArray(width * height)
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height)
+        val dataY = ByteArray(width * height)
+        val dataU = ByteArray(chromaWidth * chromaHeight)
+        val dataV = ByteArray(chromaWidth * chromaHeight)
+        ArgbToI420Converter.convert(
+            pixels, width, height,
+            ByteBuffer.wrap(dataY), width,
+            ByteBuffer.wrap(dataU), chromaWidth,
+            ByteBuffer.wrap(dataV), chromaWidth
+        )
+        val alphaY = ByteArray(width * height) { (pixels[it] ushr 24).toByte() }
+        // 色度平面的透明度取2x2块的平均值
+        val alphaUV = ByteArray(chromaWidth * chromaHeight)
+        for (row in 0 until chromaHeight) {
+            val y0 = row * 2
+            val y1 = minOf(y0 + 1, height - 1)
+            for (col in 0 until chromaWidth) {
+                val x0 = col * 2
+                val x1 = minOf(x0 + 1, width - 1)
+                val sum = (pixels[y0 * width + x0] ushr 24) + (pixels[y0 * width + x1] ushr 24) +
+                        (pixels[y1 * width + x0] ushr 24) + (pixels[y1 * width + x1] ushr 24)
+                alphaUV[row * chromaWidth + col] = ((sum + 2) shr 2).toByte()
+            }
+        }
+        overlay = Overlay(x and 1.inv(), y and 1.inv(), width, height, dataY, dataU, dataV, alphaY, alphaUV)
+    }
+
+    fun clearBitmap() {
+        overlay = null
+    }
+
+    override fun process(frame: VideoFrame): VideoFrame? {
+        if (overlay == null) return frame
+        return super.process(frame)
+    }
+
+    override fun processI420(src: VideoFrame.I420Buffer, dst: JavaI420Buffer) {
+        val chromaWidth = (src.width + 1) / 2
+        val chromaHeight = (src.height + 1) / 2
+        val row = scratchRow(src.width)
+        PlaneEffects.copy(src.dataY, src.strideY, dst.dataY, dst.strideY, src.width, src.height, row)
+        PlaneEffects.copy(src.dataU, src.strideU, dst.dataU, dst.strideU, chromaWidth, chromaHeight, row)
+        PlaneEffects.copy(src.dataV, src.strideV, dst.dataV, dst.strideV, chromaWidth, chromaHeight, row)
+        val overlay = overlay ?: return
+        val overlayChromaWidth = (overlay.width + 1) / 2
+        val overlayChromaHeight = (overlay.height + 1) / 2
+        val overlayRow = scratchRow(maxOf(src.width, overlay.width))
+        PlaneEffects.blend(
+            dst.dataY, dst.strideY, src.width, src.height, overlay.x, overlay.y,
+            overlay.dataY, overlay.alphaY, overlay.width, overlay.height, overlayRow
+        )
+        PlaneEffects.blend(
+            dst.dataU, dst.strideU, chromaWidth, chromaHeight, overlay.x / 2, overlay.y / 2,
+            overlay.dataU, overlay.alphaUV, overlayChromaWidth, overlayChromaHeight, overlayRow
+        )
+        PlaneEffects.blend(
+            dst.dataV, dst.strideV, chromaWidth, chromaHeight, overlay.x / 2, overlay.y / 2,
+            overlay.dataV, overlay.alphaUV, overlayChromaWidth, overlayChromaHeight, overlayRow
+        )
+    }
+}
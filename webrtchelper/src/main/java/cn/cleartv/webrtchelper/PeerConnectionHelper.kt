@@ -1,5 +1,6 @@
 package cn.cleartv.webrtchelper
 
+import android.os.SystemClock
 import cn.cleartv.webrtchelper.WebRTCUtils.isExists
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.CoroutineStart
@@ -7,6 +8,10 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
 import org.webrtc.AudioTrack
 import org.webrtc.DataChannel
 import org.webrtc.IceCandidate
@@ -15,8 +20,10 @@ import org.webrtc.MediaStream
 import org.webrtc.MediaStreamTrack
 import org.webrtc.PeerConnection
 import org.webrtc.RtpReceiver
+import org.webrtc.RtpTransceiver
 import org.webrtc.SdpObserver
 import org.webrtc.SessionDescription
+import org.webrtc.StatsReport
 import org.webrtc.VideoTrack
 import java.text.DecimalFormat
 import kotlin.coroutines.EmptyCoroutineContext
@@ -36,12 +43,33 @@ class PeerConnectionHelper(
         const val TYPE_SENDONLY = "sendonly"
         const val TYPE_RECEVIEONLY = "receiveonly"
         const val TYPE_SENDRECEVIE = "sendreceive"
+
+        // 暂停远端视频前等待getStats回调的最长时间，超时则用上一次的统计
+        private const val SUSPEND_STATS_TIMEOUT_MS = 1000L
     }
 
+    /**
+     * @param sdpSemantics 默认沿用Plan B；[renegotiator]停止远端解码需要UNIFIED_PLAN
+     */
     data class RTCConfiguration(
-        var iceServers: List<PeerConnection.IceServer> = arrayListOf()
+        var iceServers: List<PeerConnection.IceServer> = arrayListOf(),
+        var sdpSemantics: PeerConnection.SdpSemantics = PeerConnection.SdpSemantics.PLAN_B,
     )
 
+    /**
+     * 远端视频的暂停方式
+     */
+    enum class SuspendMode {
+        // 未暂停
+        NONE,
+
+        // 只禁用track：sink收到黑帧，不再渲染远端画面，但仍在接收和解码
+        TRACK,
+
+        // 视频transceiver改为不接收并重新协商：远端停止发送，本地不再解码
+        TRANSCEIVER,
+    }
+
     private val peerConnection: PeerConnection
     var localVideoTrack: VideoTrack? = null
     var localAudioTrack: AudioTrack? = null
@@ -84,14 +112,43 @@ class PeerConnectionHelper(
     var audioStats: AudioStats = AudioStats()
         private set
 
+    @Volatile
+    var remoteVideoStats: RemoteVideoStats = RemoteVideoStats()
+        private set
+
+    /**
+     * 重新协商回调 (sdpOffer) -> sdpAnswer
+     *
+     * 设置后[setRemoteVideoSuspended]通过修改视频transceiver的方向真正停止接收和解码，
+     * 需要[RTCConfiguration.sdpSemantics]为UNIFIED_PLAN且对端支持重新协商；不设置、Plan B或协商失败时只禁用track
+     */
+    var renegotiator: (suspend (String) -> String)? = null
+
+    @Volatile
+    var remoteVideoSuspendMode: SuspendMode = SuspendMode.NONE
+        private set
+
+    private val suspendMutex = Mutex()
+    private val suspendStatsLock = Any()
+    private var suspendedAtMs = 0L
+
+    // 暂停前每秒的解码耗时(ms)
+    private var suspendedDecodeLoad = 0.0
+    private var totalSuspendedMs = 0L
+    private var totalDecodeMsSaved = 0.0
+
     private var lastTotalEnergy = 0.0
     private var lastTotalDuration = 0.0
 
+    // 创建后不能修改，Plan B下不能访问transceiver
+    private val sdpSemantics = configuration.sdpSemantics
 
     init {
         L.i("init: $id")
         peerConnection = WebRTCHelper.factory.createPeerConnection(
-            PeerConnection.RTCConfiguration(configuration.iceServers),
+            PeerConnection.RTCConfiguration(configuration.iceServers).also {
+                it.sdpSemantics = configuration.sdpSemantics
+            },
             constraints,
             this
         ) ?: throw Exception("Create Native PeerConnectionObserver Failed!")
@@ -138,6 +195,7 @@ class PeerConnectionHelper(
         onConnectFailed = {}
         onIce = {}
         onIceComplete = {}
+        renegotiator = null
         try {
             peerConnection.dispose() // todo 这里可能会阻塞，所以新建了个线程
         } catch (e: Exception) {
@@ -326,11 +384,7 @@ class PeerConnectionHelper(
             if (!videoTrack.isExists()) {
                 return@let
             }
-            peerConnection.getStats({
-//                it.forEach { report ->
-//                    L.d("remoteVideoTrack: $report")
-//                }
-            }, videoTrack)
+            peerConnection.getStats({ onRemoteVideoStats(it) }, videoTrack)
         }
         localVideoTrack?.let { videoTrack ->
             if (!videoTrack.isExists()) {
@@ -395,6 +449,133 @@ class PeerConnectionHelper(
     }
 
 
+    private fun onRemoteVideoStats(statsReports: Array<StatsReport>) {
+        remoteVideoStats = RemoteVideoStats().apply {
+            statsReports.forEach { report ->
+                videoStatsTimestamp = report.timestamp
+                for (value in report.values) {
+                    when (value.name) {
+                        "googFrameWidthReceived" -> receivedVideoWidth = value.value.toInt()
+                        "googFrameHeightReceived" -> receivedVideoHeight = value.value.toInt()
+                        "googFrameRateReceived" -> receivedVideoFrameRate = value.value.toInt()
+                        "googFrameRateDecoded" -> decodedVideoFrameRate = value.value.toInt()
+                        "googDecodeMs" -> videoDecodeMs = value.value.toInt()
+                        "framesDecoded" -> framesDecoded = value.value.toLong()
+                    }
+                }
+            }
+            synchronized(suspendStatsLock) {
+                suspendMode = remoteVideoSuspendMode
+                val current = if (suspendMode == SuspendMode.NONE) 0L else SystemClock.elapsedRealtime() - suspendedAtMs
+                suspendedMs = totalSuspendedMs + current
+                decodeMsSaved = (totalDecodeMsSaved +
+                        if (suspendMode == SuspendMode.TRANSCEIVER) current / 1000.0 * suspendedDecodeLoad else 0.0).toLong()
+            }
+        }
+    }
+
+    /**
+     * 暂停/恢复远端视频
+     *
+     * 设置了[renegotiator]时把视频transceiver改为不接收并重新协商，远端停止发送、本地停止解码；
+     * 恢复时重新协商，Java层无法主动请求关键帧，依赖native接收端在新的接收流无法解码时发出的关键帧请求（PLI）。
+     * 否则只禁用track，画面停止但解码仍在进行。
+     * 暂停前的解码耗时用于估算[RemoteVideoStats.decodeMsSaved]
+     */
+    suspend fun setRemoteVideoSuspended(suspended: Boolean) = suspendMutex.withLock {
+        val track = remoteVideoTrack?.takeIf { it.isExists() } ?: return@withLock
+        if (isDisposed || suspended == (remoteVideoSuspendMode != SuspendMode.NONE)) return@withLock
+        if (suspended) {
+            // 暂停前取一次最新的解码耗时，持有suspendMutex，不能无限等待回调
+            val stats = withTimeoutOrNull(SUSPEND_STATS_TIMEOUT_MS) {
+                suspendCancellableCoroutine<Array<StatsReport>> { cont ->
+                    peerConnection.getStats({ cont.resume(it) }, track)
+                }
+            }
+            if (stats != null) onRemoteVideoStats(stats) else L.w("$id getStats timeout before suspend")
+            val mode = if (setVideoReceiving(false)) SuspendMode.TRANSCEIVER else SuspendMode.TRACK
+            track.setEnabled(false)
+            synchronized(suspendStatsLock) {
+                suspendedAtMs = SystemClock.elapsedRealtime()
+                suspendedDecodeLoad = remoteVideoStats.videoDecodeMs.toDouble() * remoteVideoStats.decodedVideoFrameRate
+                remoteVideoSuspendMode = mode
+            }
+            L.i("$id remote video suspended: $mode")
+        } else {
+            // 重新协商失败时保持暂停，下次恢复时重试
+            if (remoteVideoSuspendMode == SuspendMode.TRANSCEIVER && !setVideoReceiving(true)) return@withLock
+            track.setEnabled(true)
+            synchronized(suspendStatsLock) {
+                val elapsed = SystemClock.elapsedRealtime() - suspendedAtMs
+                totalSuspendedMs += elapsed
+                if (remoteVideoSuspendMode == SuspendMode.TRANSCEIVER) {
+                    totalDecodeMsSaved += elapsed / 1000.0 * suspendedDecodeLoad
+                }
+                remoteVideoSuspendMode = SuspendMode.NONE
+            }
+            L.i("$id remote video resumed")
+        }
+    }
+
+    /**
+     * 在主线程异步执行[setRemoteVideoSuspended]，按调用顺序生效
+     */
+    fun requestRemoteVideoSuspended(suspended: Boolean) {
+        launch { setRemoteVideoSuspended(suspended) }
+    }
+
+    /**
+     * 修改远端视频transceiver的接收方向并重新协商，不支持或失败时返回false
+     */
+    private suspend fun setVideoReceiving(receive: Boolean): Boolean {
+        val renegotiate = renegotiator ?: return false
+        val trackId = remoteVideoTrack?.id() ?: return false
+        // Plan B下native的GetTransceivers会直接中止进程，不会抛出异常，必须先检查
+        if (sdpSemantics != PeerConnection.SdpSemantics.UNIFIED_PLAN) return false
+        val transceiver = peerConnection.transceivers.firstOrNull {
+            it.mediaType == MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO && it.receiver.track()?.id() == trackId
+        } ?: return false
+        val previous = transceiver.direction
+        val direction = when (previous) {
+            RtpTransceiver.RtpTransceiverDirection.SEND_RECV,
+            RtpTransceiver.RtpTransceiverDirection.SEND_ONLY ->
+                if (receive) RtpTransceiver.RtpTransceiverDirection.SEND_RECV else RtpTransceiver.RtpTransceiverDirection.SEND_ONLY
+
+            else -> if (receive) RtpTransceiver.RtpTransceiverDirection.RECV_ONLY else RtpTransceiver.RtpTransceiverDirection.INACTIVE
+        }
+        if (direction == previous) return true
+        if (!transceiver.setDirection(direction)) return false
+        val previousRemote = peerConnection.remoteDescription
+        return try {
+            val offer = createOffer()
+            setRemoteDescriptionAnswer(renegotiate(offer.description))
+            true
+        } catch (e: Exception) {
+            L.w("$id renegotiate failed", e)
+            transceiver.setDirection(previous)
+            restoreRemoteAnswer(previousRemote)
+            false
+        }
+    }
+
+    /**
+     * 重新协商失败时恢复到stable：当前的webrtc版本没有rollback类型的SessionDescription，
+     * 把协商前的远端answer重新设置一次，本地offer随之生效，signaling回到stable，之后的协商不受影响
+     */
+    private suspend fun restoreRemoteAnswer(previousRemote: SessionDescription?) {
+        if (peerConnection.signalingState() != PeerConnection.SignalingState.HAVE_LOCAL_OFFER) return
+        if (previousRemote == null) {
+            L.e("$id no remote description to restore, signaling stays in have-local-offer")
+            return
+        }
+        try {
+            setRemoteDescription(SessionDescription(SessionDescription.Type.ANSWER, previousRemote.description))
+            L.i("$id previous remote answer restored")
+        } catch (e: Exception) {
+            L.e("$id restore remote answer failed, signaling stays in have-local-offer", e)
+        }
+    }
+
     suspend fun createOffer(
         type: String = TYPE_SENDRECEVIE,
         constraints: MediaConstraints = MediaConstraints()
@@ -0,0 +1,420 @@
+package cn.cleartv.webrtchelper
+
+import android.content.Context
+import org.webrtc.CapturerObserver
+import org.webrtc.JavaI420Buffer
+import org.webrtc.SurfaceTextureHelper
+import org.webrtc.VideoCapturer
+import org.webrtc.VideoFrame
+import org.webrtc.VideoSink
+import org.webrtc.YuvConverter
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * 把多个采集器（如屏幕+摄像头）的画面合成为一路I420画面，作为一个采集器接入[VideoSourceHelper.initCustomCapturer]，
+ * 只需要一个track、一次编码
+ *
+ * 每个图层在自己的采集线程上把画面裁剪缩放到图层大小并旋转为正向，保存为紧凑的YUV平面；合成线程按[frameRate]输出：
+ * - 没有图层变化时直接重发上一帧的buffer，不做任何复制
+ * - 有变化时从[I420BufferPool]借一个buffer，复制上一帧后只重绘变化图层覆盖的区域（背景+与之相交的各图层，按添加顺序叠加）
+ *
+ * 图层坐标为输出画面的像素坐标，会对齐到偶数
+ *
+ * @param isScreencast 影响编码器在带宽不足时优先降帧率还是降分辨率
+ */
+class PipCompositor @JvmOverloads constructor(
+    val outputWidth: Int,
+    val outputHeight: Int,
+    frameRate: Int = 15,
+    private val isScreencast: Boolean = true,
+) : VideoCapturer {
+
+    data class Rect(val x: Int, val y: Int, val width: Int, val height: Int) {
+        val right get() = x + width
+        val bottom get() = y + height
+
+        fun intersect(other: Rect): Rect? {
+            val left = maxOf(x, other.x)
+            val top = maxOf(y, other.y)
+            val right = minOf(right, other.right)
+            val bottom = minOf(bottom, other.bottom)
+            return if (left < right && top < bottom) Rect(left, top, right - left, bottom - top) else null
+        }
+
+        internal fun aligned(maxWidth: Int, maxHeight: Int): Rect {
+            val left = (x and 1.inv()).coerceIn(0, maxWidth)
+            val top = (y and 1.inv()).coerceIn(0, maxHeight)
+            val w = (width and 1.inv()).coerceIn(0, maxWidth - left)
+            val h = (height and 1.inv()).coerceIn(0, maxHeight - top)
+            return Rect(left, top, w, h)
+        }
+    }
+
+    data class Stats(
+        // 重新合成的帧数
+        val composedFrames: Long,
+        // 没有变化、直接重发上一帧的帧数
+        val reusedFrames: Long,
+        // 各图层收到的帧数
+        val layerFrames: Long,
+        // 重绘的像素数占输出总像素数的比例
+        val redrawRatio: Double,
+    )
+
+    /**
+     * 一个图层，可以由[addLayer]传入的采集器驱动，也可以作为VideoSink添加到任意track
+     */
+    inner class Layer internal constructor(
+        rect: Rect,
+        internal val capturer: VideoCapturer?,
+        private val captureWidth: Int,
+        private val captureHeight: Int,
+        private val captureFps: Int,
+    ) : VideoSink, CapturerObserver {
+
+        @Volatile
+        var rect: Rect = rect
+            internal set
+
+        internal var surfaceTextureHelper: SurfaceTextureHelper? = null
+
+        // 采集线程写back，交换后合成线程读front，都在synchronized(this)内交换/读取
+        private var front: LayerImage? = null
+        private var back: LayerImage? = null
+        private var dirty = false
+        private val rotator = PlaneRotator()
+
+        override fun onFrame(frame: VideoFrame) {
+            ingest(frame)
+        }
+
+        override fun onFrameCaptured(frame: VideoFrame) {
+            ingest(frame)
+        }
+
+        override fun onCapturerStarted(success: Boolean) {
+            if (!success) L.w("PipCompositor: layer capturer start failed")
+        }
+
+        override fun onCapturerStopped() {}
+
+        private fun ingest(frame: VideoFrame) {
+            val rect = rect
+            if (rect.width == 0 || rect.height == 0) return
+            layerFrames.incrementAndGet()
+            val rotated = frame.rotation % 180 != 0
+            // 缩放到旋转前的方向，居中裁剪到图层比例
+            val targetW = if (rotated) rect.height else rect.width
+            val targetH = if (rotated) rect.width else rect.height
+            val buffer = frame.buffer
+            var cropW = buffer.width
+            var cropH = buffer.height
+            if (cropW.toLong() * targetH > targetW.toLong() * cropH) {
+                cropW = (cropH.toLong() * targetW / targetH).toInt()
+            } else {
+                cropH = (cropW.toLong() * targetH / targetW).toInt()
+            }
+            val scaled = buffer.cropAndScale(
+                (buffer.width - cropW) / 2 and 1.inv(), (buffer.height - cropH) / 2 and 1.inv(),
+                cropW, cropH, targetW, targetH
+            )
+            val i420 = scaled.toI420()
+            scaled.release()
+            if (i420 == null) return
+            try {
+                val image = back?.takeIf { it.width == rect.width && it.height == rect.height }
+                    ?: LayerImage(rect.width, rect.height)
+                val chromaW = (targetW + 1) / 2
+                val chromaH = (targetH + 1) / 2
+                rotator.rotate(i420.dataY, i420.strideY, targetW, targetH, image.y, 0, image.width, 1, frame.rotation)
+                rotator.rotate(i420.dataU, i420.strideU, chromaW, chromaH, image.u, 0, image.chromaWidth, 1, frame.rotation)
+                rotator.rotate(i420.dataV, i420.strideV, chromaW, chromaH, image.v, 0, image.chromaWidth, 1, frame.rotation)
+                synchronized(this) {
+                    back = front
+                    front = image
+                    dirty = true
+                }
+            } finally {
+                i420.release()
+            }
+        }
+
+        internal fun startCapture() {
+            capturer?.startCapture(
+                if (captureWidth > 0) captureWidth else rect.width,
+                if (captureHeight > 0) captureHeight else rect.height,
+                if (captureFps > 0) captureFps else frameRate
+            )
+        }
+
+        internal fun stopCapture() {
+            try {
+                capturer?.stopCapture()
+            } catch (e: InterruptedException) {
+                L.w("PipCompositor: stop layer capturer interrupted", e)
+            }
+        }
+
+        internal fun consumeDirty(): Boolean {
+            synchronized(this) {
+                val result = dirty
+                dirty = false
+                return result
+            }
+        }
+
+        /**
+         * 把图层与region相交的部分画到dst上
+         */
+        internal fun draw(dst: JavaI420Buffer, region: Rect) {
+            synchronized(this) {
+                val image = front ?: return
+                val rect = rect
+                // 图层大小变化后，等新尺寸的帧到达再画
+                if (image.width != rect.width || image.height != rect.height) return
+                val area = rect.intersect(region) ?: return
+                val srcX = area.x - rect.x
+                val srcY = area.y - rect.y
+                PlaneEffects.copyRect(
+                    image.y, image.width, srcX, srcY,
+                    dst.dataY, dst.strideY, area.x, area.y, area.width, area.height
+                )
+                PlaneEffects.copyRect(
+                    image.u, image.chromaWidth, srcX / 2, srcY / 2,
+                    dst.dataU, dst.strideU, area.x / 2, area.y / 2, area.width / 2, area.height / 2
+                )
+                PlaneEffects.copyRect(
+                    image.v, image.chromaWidth, srcX / 2, srcY / 2,
+                    dst.dataV, dst.strideV, area.x / 2, area.y / 2, area.width / 2, area.height / 2
+                )
+            }
+        }
+    }
+
+    // 图层缩放旋转后的正向画面，紧凑存放
+    private class LayerImage(val width: Int, val height: Int) {
+        val chromaWidth = (width + 1) / 2
+        val y = ByteArray(width * height)
+        val u = ByteArray(chromaWidth * ((height + 1) / 2))
+        val v = ByteArray(u.size)
+    }
+
+    companion object {
+        // 背景为黑色
+        private const val BACKGROUND_Y: Byte = 16
+        private const val BACKGROUND_UV: Byte = -128
+    }
+
+    /**
+     * 输出帧率，startCapture的framerate大于0时以其为准
+     */
+    @Volatile
+    var frameRate: Int = frameRate
+        private set
+
+    private val layers = CopyOnWriteArrayList<Layer>()
+
+    // 图层移动、移除后需要重绘的区域
+    private val pendingRegions = ArrayList<Rect>()
+
+    private var capturerObserver: CapturerObserver? = null
+    private var lastOutput: JavaI420Buffer? = null
+    private val row = ByteArray(outputWidth)
+
+    @Volatile
+    private var running = false
+    private var composeThread: Thread? = null
+
+    private val composedFrames = AtomicLong()
+    private val reusedFrames = AtomicLong()
+    private val layerFrames = AtomicLong()
+    private val redrawPixels = AtomicLong()
+
+    init {
+        require(outputWidth > 0 && outputHeight > 0 && outputWidth % 2 == 0 && outputHeight % 2 == 0) {
+            "output size must be positive and even"
+        }
+    }
+
+    /**
+     * 添加一个图层，后添加的在上层
+     *
+     * @param capturer 驱动该图层的采集器，由合成器负责初始化、启停和释放；为null时需要自行把帧送入返回的Layer
+     * @param captureWidth 采集器的采集宽度，为0时使用图层大小
+     * @param captureHeight 采集器的采集高度，为0时使用图层大小
+     * @param captureFps 采集器的帧率，为0时使用输出帧率
+     */
+    @JvmOverloads
+    fun addLayer(
+        rect: Rect,
+        capturer: VideoCapturer? = null,
+        captureWidth: Int = 0,
+        captureHeight: Int = 0,
+        captureFps: Int = 0,
+    ): Layer {
+        val layer = Layer(rect.aligned(outputWidth, outputHeight), capturer, captureWidth, captureHeight, captureFps)
+        if (capturer != null) {
+            val helper = SurfaceTextureHelper.create(
+                "PipLayer${layers.size}",
+                WebRTCHelper.rootEglBaseContext,
+                false,
+                YuvConverter()
+            )
+            layer.surfaceTextureHelper = helper
+            capturer.initialize(helper, WebRTCHelper.appContext, layer)
+            if (running) layer.startCapture()
+        }
+        layers.add(layer)
+        return layer
+    }
+
+    fun setLayerRect(layer: Layer, rect: Rect) {
+        val aligned = rect.aligned(outputWidth, outputHeight)
+        synchronized(pendingRegions) {
+            pendingRegions.add(layer.rect)
+            layer.rect = aligned
+            pendingRegions.add(aligned)
+        }
+    }
+
+    /**
+     * 移除图层，并停止、释放它的采集器
+     */
+    fun removeLayer(layer: Layer) {
+        if (!layers.remove(layer)) return
+        synchronized(pendingRegions) { pendingRegions.add(layer.rect) }
+        layer.stopCapture()
+        layer.capturer?.dispose()
+        layer.surfaceTextureHelper?.dispose()
+        layer.surfaceTextureHelper = null
+    }
+
+    override fun initialize(
+        surfaceTextureHelper: SurfaceTextureHelper?,
+        context: Context?,
+        capturerObserver: CapturerObserver,
+    ) {
+        this.capturerObserver = capturerObserver
+    }
+
+    override fun startCapture(width: Int, height: Int, framerate: Int) {
+        if (running) return
+        if (framerate > 0) frameRate = framerate
+        running = true
+        layers.forEach { it.startCapture() }
+        capturerObserver?.onCapturerStarted(true)
+        composeThread = Thread({ composeLoop() }, "PipCompositor").apply { start() }
+    }
+
+    override fun stopCapture() {
+        val thread = composeThread ?: return
+        running = false
+        LockSupport.unpark(thread)
+        thread.join()
+        composeThread = null
+        layers.forEach { it.stopCapture() }
+        capturerObserver?.onCapturerStopped()
+    }
+
+    override fun changeCaptureFormat(width: Int, height: Int, framerate: Int) {
+        if (framerate > 0) frameRate = framerate
+    }
+
+    override fun dispose() {
+        stopCapture()
+        layers.toList().forEach { removeLayer(it) }
+        lastOutput?.release()
+        lastOutput = null
+    }
+
+    override fun isScreencast(): Boolean = isScreencast
+
+    private fun composeLoop() {
+        var nextFrameAt = System.nanoTime()
+        while (running) {
+            var wait = nextFrameAt - System.nanoTime()
+            while (wait > 0 && running) {
+                LockSupport.parkNanos(wait)
+                wait = nextFrameAt - System.nanoTime()
+            }
+            if (!running) break
+            val interval = 1_000_000_000L / frameRate.coerceAtLeast(1)
+            nextFrameAt = if (-wait > interval) System.nanoTime() + interval else nextFrameAt + interval
+            compose()
+        }
+    }
+
+    private fun compose() {
+        val regions = ArrayList<Rect>()
+        synchronized(pendingRegions) {
+            regions.addAll(pendingRegions)
+            pendingRegions.clear()
+        }
+        for (layer in layers) {
+            if (layer.consumeDirty()) regions.add(layer.rect)
+        }
+
+        val last = lastOutput
+        val output: JavaI420Buffer
+        if (last != null && regions.isEmpty()) {
+            reusedFrames.incrementAndGet()
+            output = last
+        } else {
+            output = I420BufferPool.acquire(outputWidth, outputHeight)
+            if (last == null) {
+                regions.clear()
+                regions.add(Rect(0, 0, outputWidth, outputHeight))
+            } else {
+                copyFrame(last, output)
+                last.release()
+            }
+            for (region in regions) {
+                drawRegion(output, region)
+                redrawPixels.addAndGet(region.width.toLong() * region.height)
+            }
+            lastOutput = output
+            composedFrames.incrementAndGet()
+        }
+        // lastOutput保留一份引用，输出的帧使用另一份
+        output.retain()
+        val frame = VideoFrame(output, 0, System.nanoTime())
+        capturerObserver?.onFrameCaptured(frame)
+        frame.release()
+    }
+
+    private fun copyFrame(src: JavaI420Buffer, dst: JavaI420Buffer) {
+        val chromaWidth = outputWidth / 2
+        val chromaHeight = outputHeight / 2
+        PlaneEffects.copy(src.dataY, src.strideY, dst.dataY, dst.strideY, outputWidth, outputHeight, row)
+        PlaneEffects.copy(src.dataU, src.strideU, dst.dataU, dst.strideU, chromaWidth, chromaHeight, row)
+        PlaneEffects.copy(src.dataV, src.strideV, dst.dataV, dst.strideV, chromaWidth, chromaHeight, row)
+    }
+
+    private fun drawRegion(dst: JavaI420Buffer, region: Rect) {
+        if (region.width == 0 || region.height == 0) return
+        PlaneEffects.fillRect(dst.dataY, dst.strideY, region.x, region.y, region.width, region.height, BACKGROUND_Y, row)
+        PlaneEffects.fillRect(
+            dst.dataU, dst.strideU, region.x / 2, region.y / 2, region.width / 2, region.height / 2, BACKGROUND_UV, row
+        )
+        PlaneEffects.fillRect(
+            dst.dataV, dst.strideV, region.x / 2, region.y / 2, region.width / 2, region.height / 2, BACKGROUND_UV, row
+        )
+        for (layer in layers) {
+            layer.draw(dst, region)
+        }
+    }
+
+    fun getStats(): Stats {
+        val composed = composedFrames.get()
+        val reused = reusedFrames.get()
+        val total = (composed + reused) * outputWidth.toLong() * outputHeight
+        return Stats(
+            composed,
+            reused,
+            layerFrames.get(),
+            if (total > 0) redrawPixels.get().toDouble() / total else 0.0
+        )
+    }
+}
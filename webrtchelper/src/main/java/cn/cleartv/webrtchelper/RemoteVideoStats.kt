@@ -0,0 +1,32 @@
+package cn.cleartv.webrtchelper
+
+import java.text.DecimalFormat
+
+data class RemoteVideoStats(
+    var videoStatsTimestamp: Double = 0.0,
+    var receivedVideoWidth: Int = 0,
+    var receivedVideoHeight: Int = 0,
+    var receivedVideoFrameRate: Int = 0,
+    var decodedVideoFrameRate: Int = 0,
+    var videoDecodeMs: Int = 0,
+    var framesDecoded: Long = 0L,
+    var suspendMode: PeerConnectionHelper.SuspendMode = PeerConnectionHelper.SuspendMode.NONE,
+    // 累计暂停时长
+    var suspendedMs: Long = 0L,
+    // 暂停期间节省的解码耗时（按暂停前的解码耗时x解码帧率估算）
+    var decodeMsSaved: Long = 0L,
+) {
+
+    fun toFormatString(): String {
+        val sb = StringBuilder()
+        sb.append("------ 远端视频 ------\n")
+        sb.append("接收分辨率：$receivedVideoWidth*$receivedVideoHeight\n")
+        sb.append("接收帧率：$receivedVideoFrameRate\n")
+        sb.append("解码帧率：$decodedVideoFrameRate\n")
+        sb.append("视频解码时长：${videoDecodeMs}ms\n")
+        sb.append("暂停方式：$suspendMode\n")
+        sb.append("累计暂停时长：${DecimalFormat("#0.0").format(suspendedMs / 1000.0)}s\n")
+        sb.append("节省解码时长：${DecimalFormat("#0.0").format(decodeMsSaved / 1000.0)}s\n")
+        return sb.toString()
+    }
+}
@@ -0,0 +1,201 @@
+package cn.cleartv.webrtchelper
+
+import android.graphics.Rect
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.view.View
+import org.webrtc.VideoTrack
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 按可见面积给所有显示中的[VideoTrackView]分配渲染帧率
+ *
+ * 开启[enabled]后，总帧率[totalFpsBudget]按 可见面积 x [VideoTrackView.renderWeight] 的比例分给各个view，
+ * 每个view不超过[maxFps]、不低于[minFps]（超过上限的部分再分给其他view）。
+ * 不可见（隐藏、移出屏幕、面积为0）的view暂停渲染。view在添加/移除、大小、可见性、滚动变化时自动重新分配。
+ * 限帧在view的VideoSink中完成，被丢弃的帧不会交给EglRenderer
+ *
+ * 开启[suspendHiddenRemoteVideo]后，远端track的所有view都不可见超过[suspendDelayMs]时暂停该track的接收和解码
+ * （见[PeerConnectionHelper.setRemoteVideoSuspended]），任意view重新可见时立即恢复
+ */
+object RenderScheduler {
+
+    /**
+     * 不限制帧率
+     */
+    const val UNLIMITED = Float.MAX_VALUE
+
+    @JvmStatic
+    var enabled: Boolean = false
+        set(value) {
+            field = value
+            requestUpdate()
+        }
+
+    /**
+     * 所有view合计的渲染帧率
+     */
+    @JvmStatic
+    var totalFpsBudget: Float = 120f
+        set(value) {
+            field = value
+            requestUpdate()
+        }
+
+    @JvmStatic
+    var maxFps: Float = 30f
+        set(value) {
+            field = value
+            requestUpdate()
+        }
+
+    /**
+     * 可见的view至少分到的帧率
+     */
+    @JvmStatic
+    var minFps: Float = 5f
+        set(value) {
+            field = value
+            requestUpdate()
+        }
+
+    /**
+     * 不可见的远端视频暂停解码，与[enabled]无关
+     */
+    @JvmStatic
+    var suspendHiddenRemoteVideo: Boolean = false
+        set(value) {
+            field = value
+            requestUpdate()
+        }
+
+    /**
+     * 不可见超过该时长才暂停，避免滚动时反复暂停恢复
+     */
+    @JvmStatic
+    var suspendDelayMs: Long = 1000
+
+    private val views = CopyOnWriteArrayList<VideoTrackView>()
+
+    // 出现过的track（连接释放前一直保留，最后一个view移除后仍会被暂停）、远端track开始不可见的时间，
+    // 和已暂停的track，只在主线程访问
+    private val knownTracks = HashSet<VideoTrack>()
+    private val hiddenSince = HashMap<VideoTrack, Long>()
+    private val suspendedTracks = HashSet<VideoTrack>()
+    private val mainHandler by lazy { Handler(Looper.getMainLooper()) }
+    private val visibleRect = Rect()
+
+    @Volatile
+    private var updatePending = false
+
+    private val updateRunnable = Runnable {
+        updatePending = false
+        update()
+    }
+
+    // 等待隐藏的track到达suspendDelayMs后再检查一次，同一时间只保留一个
+    private val suspendCheckRunnable = Runnable { requestUpdate() }
+
+    internal fun register(view: VideoTrackView) {
+        if (!views.contains(view)) views.add(view)
+        requestUpdate()
+    }
+
+    internal fun unregister(view: VideoTrackView) {
+        views.remove(view)
+        requestUpdate()
+    }
+
+    /**
+     * 在主线程合并执行一次重新分配，任意线程可调用
+     */
+    @JvmStatic
+    fun requestUpdate() {
+        if (updatePending) return
+        updatePending = true
+        mainHandler.post(updateRunnable)
+    }
+
+    private fun update() {
+        val current = views.toList()
+        val areas = current.map { visibleArea(it) }
+        if (enabled) {
+            val weights = current.mapIndexed { index, view -> areas[index] * view.renderWeight.toDouble() }
+            val fps = allocate(weights)
+            current.forEachIndexed { index, view -> view.applyRenderFps(fps[index], areas[index]) }
+        } else {
+            current.forEachIndexed { index, view -> view.applyRenderFps(UNLIMITED, areas[index]) }
+        }
+        updateRemoteVideoSuspension(current, areas)
+    }
+
+    private fun updateRemoteVideoSuspension(views: List<VideoTrackView>, areas: List<Long>) {
+        val visible = HashMap<VideoTrack, Boolean>()
+        views.forEachIndexed { index, view ->
+            val track = view.currentVideoTrack ?: return@forEachIndexed
+            visible[track] = visible[track] == true || areas[index] > 0
+        }
+        // 已经没有view显示的track（view移除或换了track）视为不可见
+        knownTracks.addAll(visible.keys)
+        knownTracks.forEach { visible.putIfAbsent(it, false) }
+
+        val now = SystemClock.elapsedRealtime()
+        var nextCheckMs = Long.MAX_VALUE
+        for ((track, isVisible) in visible) {
+            // 本地track或连接已释放
+            val connection = WebRTCHelper.findConnection(track)
+            if (connection == null) {
+                knownTracks.remove(track)
+                hiddenSince.remove(track)
+                suspendedTracks.remove(track)
+                continue
+            }
+            if (isVisible || !suspendHiddenRemoteVideo) {
+                hiddenSince.remove(track)
+                if (suspendedTracks.remove(track)) connection.requestRemoteVideoSuspended(false)
+                continue
+            }
+            if (track in suspendedTracks) continue
+            val waitMs = hiddenSince.getOrPut(track) { now } + suspendDelayMs - now
+            if (waitMs > 0) {
+                nextCheckMs = minOf(nextCheckMs, waitMs)
+            } else {
+                suspendedTracks.add(track)
+                connection.requestRemoteVideoSuspended(true)
+            }
+        }
+        mainHandler.removeCallbacks(suspendCheckRunnable)
+        if (nextCheckMs != Long.MAX_VALUE) mainHandler.postDelayed(suspendCheckRunnable, nextCheckMs)
+    }
+
+    private fun visibleArea(view: VideoTrackView): Long {
+        if (!view.isAttachedToWindow || !view.isShown || view.windowVisibility != View.VISIBLE) return 0
+        if (!view.getGlobalVisibleRect(visibleRect)) return 0
+        return visibleRect.width().toLong() * visibleRect.height()
+    }
+
+    /**
+     * 按权重分配总帧率，超过[maxFps]的部分重新分给其他view
+     */
+    private fun allocate(weights: List<Double>): FloatArray {
+        val result = FloatArray(weights.size)
+        val open = weights.indices.filter { weights[it] > 0 }.toMutableList()
+        var remaining = totalFpsBudget.toDouble()
+        while (open.isNotEmpty()) {
+            val totalWeight = open.sumOf { weights[it] }
+            val capped = open.filter { remaining * weights[it] / totalWeight >= maxFps }
+            if (capped.isEmpty()) {
+                open.forEach { result[it] = (remaining * weights[it] / totalWeight).toFloat().coerceAtLeast(minFps) }
+                break
+            }
+            capped.forEach {
+                result[it] = maxFps
+                remaining -= maxFps
+            }
+            open.removeAll(capped)
+            remaining = remaining.coerceAtLeast(0.0)
+        }
+        return result
+    }
+}
@@ -0,0 +1,43 @@
+package cn.cleartv.webrtchelper
+
+import java.text.DecimalFormat
+
+/**
+ * [VideoTrackView]在一个采样周期内的渲染状态，由[RenderStatsRegistry]定时采样
+ */
+data class RenderStats(
+    val name: String,
+    val frameWidth: Int,
+    val frameHeight: Int,
+    // RenderScheduler分配的帧率，RenderScheduler.UNLIMITED表示不限制
+    val scheduledFps: Float,
+    // VideoSink收到的帧率
+    val receivedFps: Double,
+    // 实际绘制的帧率
+    val renderFps: Double,
+    // 按scheduledFps丢弃的帧数（累计）
+    val schedulerDroppedFrames: Long,
+    // 交给EglRenderer后没有绘制的帧数（累计，新帧覆盖了未绘制的帧、暂停、surface未创建等），含最多1帧等待绘制
+    val eglDroppedFrames: Long,
+    // GL绘制调用的平均/最大耗时
+    val avgDrawMs: Double,
+    val maxDrawMs: Double,
+    // 收到帧到绘制完成的平均/最大间隔，包含EglRenderer排队和YUV纹理上传
+    val avgArrivalToDrawMs: Double,
+    val maxArrivalToDrawMs: Double,
+) {
+
+    fun toFormatString(): String {
+        val format = DecimalFormat("#0.0")
+        val sb = StringBuilder()
+        sb.append("------ 渲染 $name ------\n")
+        sb.append("分辨率：$frameWidth*$frameHeight\n")
+        sb.append("接收帧率：${format.format(receivedFps)}\n")
+        sb.append("渲染帧率：${format.format(renderFps)}\n")
+        sb.append("限帧丢帧：$schedulerDroppedFrames\n")
+        sb.append("渲染丢帧：$eglDroppedFrames\n")
+        sb.append("绘制耗时：${format.format(avgDrawMs)}ms (最大${format.format(maxDrawMs)}ms)\n")
+        sb.append("到达到绘制：${format.format(avgArrivalToDrawMs)}ms (最大${format.format(maxArrivalToDrawMs)}ms)\n")
+        return sb.toString()
+    }
+}
@@ -0,0 +1,107 @@
+package cn.cleartv.webrtchelper
+
+import android.os.Handler
+import android.os.Looper
+import java.text.DecimalFormat
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 汇总所有显示中的[VideoTrackView]的渲染状态，可以和网络统计（[WebRTCHelper.getVideoStats]等）一起上报
+ *
+ * 有view时每[sampleIntervalMs]在主线程采样一次，帧率和耗时为该周期内的值；view的帧路径上只更新计数
+ */
+object RenderStatsRegistry {
+
+    data class Summary(
+        val viewCount: Int,
+        // 所有view合计
+        val receivedFps: Double,
+        val renderFps: Double,
+        val schedulerDroppedFrames: Long,
+        val eglDroppedFrames: Long,
+        // 所有view中最大的平均绘制耗时和最大的到达到绘制间隔
+        val worstAvgDrawMs: Double,
+        val maxArrivalToDrawMs: Double,
+    ) {
+
+        fun toFormatString(): String {
+            val format = DecimalFormat("#0.0")
+            val sb = StringBuilder()
+            sb.append("------ 渲染 ------\n")
+            sb.append("画面数：$viewCount\n")
+            sb.append("接收帧率：${format.format(receivedFps)}\n")
+            sb.append("渲染帧率：${format.format(renderFps)}\n")
+            sb.append("限帧丢帧：$schedulerDroppedFrames\n")
+            sb.append("渲染丢帧：$eglDroppedFrames\n")
+            sb.append("最大平均绘制耗时：${format.format(worstAvgDrawMs)}ms\n")
+            sb.append("最大到达到绘制：${format.format(maxArrivalToDrawMs)}ms\n")
+            return sb.toString()
+        }
+    }
+
+    /**
+     * 采样间隔，下次采样时生效
+     */
+    @JvmStatic
+    var sampleIntervalMs: Long = 1000
+        set(value) {
+            field = value.coerceAtLeast(100)
+        }
+
+    private val views = CopyOnWriteArrayList<VideoTrackView>()
+    private val mainHandler by lazy { Handler(Looper.getMainLooper()) }
+
+    // 只在主线程访问
+    private var sampling = false
+
+    private val sampleRunnable = object : Runnable {
+        override fun run() {
+            views.forEach { it.sampleRenderStats() }
+            if (views.isEmpty()) {
+                sampling = false
+            } else {
+                mainHandler.postDelayed(this, sampleIntervalMs)
+            }
+        }
+    }
+
+    /**
+     * 在主线程调用
+     */
+    internal fun register(view: VideoTrackView) {
+        if (views.contains(view)) return
+        views.add(view)
+        // 记录采样起点
+        view.sampleRenderStats()
+        if (!sampling) {
+            sampling = true
+            mainHandler.postDelayed(sampleRunnable, sampleIntervalMs)
+        }
+    }
+
+    internal fun unregister(view: VideoTrackView) {
+        views.remove(view)
+    }
+
+    /**
+     * 每个view最近一次采样的渲染状态
+     */
+    @JvmStatic
+    fun getStats(): List<RenderStats> {
+        return views.mapNotNull { it.renderStats }
+    }
+
+    @JvmStatic
+    fun getSummary(): Summary {
+        val stats = getStats()
+        return Summary(
+            stats.size,
+            stats.sumOf { it.receivedFps },
+            stats.sumOf { it.renderFps },
+            stats.sumOf { it.schedulerDroppedFrames },
+            stats.sumOf { it.eglDroppedFrames },
+            stats.maxOfOrNull { it.avgDrawMs } ?: 0.0,
+            stats.maxOfOrNull { it.maxArrivalToDrawMs } ?: 0.0
+        )
+    }
+}
@@ -0,0 +1,157 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.RendererCommon.GlDrawer
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 统计一个[VideoTrackView]的绘制耗时和帧到达到绘制的间隔，帧路径上只更新计数，不分配对象
+ *
+ * 通过包装EglRenderer的GlDrawer计时。EglRenderer只保留最新的一帧等待绘制，所以绘制时以最近一次交给EglRenderer的帧为准；
+ * 新帧恰好在取帧和绘制之间到达时，记为新帧的间隔。swapBuffers紧跟在绘制之后，无法单独计时
+ */
+internal class RenderStatsTracker {
+
+    private val drawnFrames = AtomicLong()
+    private val drawNsTotal = AtomicLong()
+    private val drawNsMax = AtomicLong()
+    private val gapNsTotal = AtomicLong()
+    private val gapNsMax = AtomicLong()
+
+    // 最近一次交给EglRenderer的帧
+    @Volatile
+    private var queuedTimestampNs = 0L
+
+    @Volatile
+    private var queuedAtNs = 0L
+
+    // 上次采样时的值，只在主线程访问
+    private var lastSampleNs = 0L
+    private var lastReceived = 0L
+    private var lastDrawn = 0L
+    private var lastDrawNs = 0L
+    private var lastGapNs = 0L
+
+    /**
+     * 帧交给EglRenderer之前调用
+     */
+    fun onQueued(timestampNs: Long) {
+        queuedAtNs = System.nanoTime()
+        queuedTimestampNs = timestampNs
+    }
+
+    /**
+     * 包装EglRenderer使用的drawer，EglRenderer每次init都需要新的drawer
+     */
+    fun wrap(delegate: GlDrawer, traceName: () -> String): GlDrawer = TimedDrawer(delegate, traceName)
+
+    /**
+     * 在主线程调用，帧率和耗时为距离上次采样的值，第一次采样只记录起点
+     *
+     * @param receivedFrames VideoSink收到的总帧数
+     * @param queuedFrames 交给EglRenderer的总帧数
+     */
+    fun sample(
+        name: String,
+        frameWidth: Int,
+        frameHeight: Int,
+        scheduledFps: Float,
+        receivedFrames: Long,
+        queuedFrames: Long,
+        schedulerDroppedFrames: Long,
+    ): RenderStats {
+        val now = System.nanoTime()
+        val drawn = drawnFrames.get()
+        val drawNs = drawNsTotal.get()
+        val gapNs = gapNsTotal.get()
+        val maxDrawNs = drawNsMax.getAndSet(0)
+        val maxGapNs = gapNsMax.getAndSet(0)
+        val seconds = if (lastSampleNs == 0L) 0.0 else (now - lastSampleNs) / 1e9
+        val frames = drawn - lastDrawn
+        val stats = RenderStats(
+            name,
+            frameWidth,
+            frameHeight,
+            scheduledFps,
+            if (seconds > 0) (receivedFrames - lastReceived) / seconds else 0.0,
+            if (seconds > 0) frames / seconds else 0.0,
+            schedulerDroppedFrames,
+            (queuedFrames - drawn).coerceAtLeast(0),
+            if (frames > 0) (drawNs - lastDrawNs) / frames / 1e6 else 0.0,
+            maxDrawNs / 1e6,
+            if (frames > 0) (gapNs - lastGapNs) / frames / 1e6 else 0.0,
+            maxGapNs / 1e6
+        )
+        lastSampleNs = now
+        lastReceived = receivedFrames
+        lastDrawn = drawn
+        lastDrawNs = drawNs
+        lastGapNs = gapNs
+        return stats
+    }
+
+    private fun onDrawn(startNs: Long, traceName: () -> String) {
+        val now = System.nanoTime()
+        record(drawNsTotal, drawNsMax, now - startNs)
+        record(gapNsTotal, gapNsMax, now - queuedAtNs)
+        drawnFrames.incrementAndGet()
+        if (FrameLatencyTracer.enabled) {
+            val timestampNs = queuedTimestampNs
+            FrameLatencyTracer.mark(traceName(), FrameLatencyTracer.Stage.DRAWN, timestampNs)
+            FrameLatencyTracer.end(timestampNs)
+        }
+    }
+
+    private fun record(total: AtomicLong, max: AtomicLong, valueNs: Long) {
+        total.addAndGet(valueNs)
+        while (true) {
+            val current = max.get()
+            if (valueNs <= current || max.compareAndSet(current, valueNs)) return
+        }
+    }
+
+    private inner class TimedDrawer(
+        private val delegate: GlDrawer,
+        private val traceName: () -> String,
+    ) : GlDrawer {
+
+        override fun drawOes(
+            oesTextureId: Int, texMatrix: FloatArray, frameWidth: Int, frameHeight: Int,
+            viewportX: Int, viewportY: Int, viewportWidth: Int, viewportHeight: Int
+        ) {
+            val start = System.nanoTime()
+            delegate.drawOes(
+                oesTextureId, texMatrix, frameWidth, frameHeight,
+                viewportX, viewportY, viewportWidth, viewportHeight
+            )
+            onDrawn(start, traceName)
+        }
+
+        override fun drawRgb(
+            textureId: Int, texMatrix: FloatArray, frameWidth: Int, frameHeight: Int,
+            viewportX: Int, viewportY: Int, viewportWidth: Int, viewportHeight: Int
+        ) {
+            val start = System.nanoTime()
+            delegate.drawRgb(
+                textureId, texMatrix, frameWidth, frameHeight,
+                viewportX, viewportY, viewportWidth, viewportHeight
+            )
+            onDrawn(start, traceName)
+        }
+
+        override fun drawYuv(
+            yuvTextures: IntArray, texMatrix: FloatArray, frameWidth: Int, frameHeight: Int,
+            viewportX: Int, viewportY: Int, viewportWidth: Int, viewportHeight: Int
+        ) {
+            val start = System.nanoTime()
+            delegate.drawYuv(
+                yuvTextures, texMatrix, frameWidth, frameHeight,
+                viewportX, viewportY, viewportWidth, viewportHeight
+            )
+            onDrawn(start, traceName)
+        }
+
+        override fun release() {
+            delegate.release()
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.VideoFrame
+
+/**
+ * 顺时针旋转，只修改帧的rotation，由编码器/渲染器处理，不复制像素
+ *
+ * @param rotation 90的倍数
+ */
+class RotationProcessor(rotation: Int) : VideoFrameProcessor {
+
+    var rotation: Int = 0
+        set(value) {
+            require(value % 90 == 0) { "rotation should be multiple of 90!" }
+            field = (value % 360 + 360) % 360
+        }
+
+    init {
+        this.rotation = rotation
+    }
+
+    override fun process(frame: VideoFrame): VideoFrame? {
+        val rotation = rotation
+        if (rotation == 0) return frame
+        frame.buffer.retain()
+        return VideoFrame(frame.buffer, (frame.rotation + rotation) % 360, frame.timestampNs)
+    }
+}
@@ -0,0 +1,104 @@
+package cn.cleartv.webrtchelper
+
+import android.os.SystemClock
+import org.webrtc.VideoFrame
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 判断采集画面是否静止，供设置了[VideoTrackProfile.staticFps]的track降帧
+ *
+ * 把亮度平面划分为[TILES_X]x[TILES_Y]个块，每块只取少量采样点计算哈希和差异（见[TileMotionDetector]），开销与分辨率无关。
+ * 采样点每帧在格子内错开位置，光标、单个字符这类落在采样点之间的小变化也能在几帧内发现。
+ * 没有块变化并持续[staticDelayMs]后视为静止，任意块变化立即恢复。
+ * 纹理帧先由GPU缩小到[ANALYSIS_SIZE]再读回，I420帧直接采样。只在采集线程调用
+ */
+class StaticContentDetector {
+
+    data class Stats(
+        val analyzedFrames: Long,
+        val staticFrames: Long,
+        // 最近一帧变化的块数
+        val lastChangedTiles: Int,
+    )
+
+    companion object {
+        const val TILES_X = 16
+        const val TILES_Y = 9
+        private const val SAMPLES_PER_SIDE = 8
+
+        // 纹理帧读回前缩小到的长边
+        const val ANALYSIS_SIZE = 256
+    }
+
+    /**
+     * 单个采样点的差异超过该值即认为所在块变化，低于该值的差异视为摄像头噪声
+     */
+    var noiseThreshold: Int = 24
+        set(value) {
+            field = value
+            detector = TileMotionDetector(TILES_X, TILES_Y, SAMPLES_PER_SIDE, value)
+        }
+
+    /**
+     * 画面连续不变多久后视为静止
+     */
+    var staticDelayMs: Long = 500
+
+    var isStatic = false
+        private set
+
+    private var detector = TileMotionDetector(TILES_X, TILES_Y, SAMPLES_PER_SIDE, noiseThreshold)
+    private var unchangedSince = 0L
+    private var lastChangedTiles = 0
+
+    private val analyzedFrames = AtomicLong()
+    private val staticFrames = AtomicLong()
+
+    /**
+     * @return 画面是否静止
+     */
+    fun analyze(frame: VideoFrame): Boolean {
+        val buffer = frame.buffer
+        val i420 = if (buffer is VideoFrame.I420Buffer) {
+            buffer.also { it.retain() }
+        } else {
+            val scale = minOf(1.0, ANALYSIS_SIZE.toDouble() / maxOf(buffer.width, buffer.height))
+            val scaled = buffer.cropAndScale(
+                0, 0, buffer.width, buffer.height,
+                maxOf(2, (buffer.width * scale).toInt()), maxOf(2, (buffer.height * scale).toInt())
+            )
+            scaled.toI420().also { scaled.release() }
+        } ?: return false
+        val changed = try {
+            detector.update(i420.dataY, i420.strideY, i420.width, i420.height)
+        } finally {
+            i420.release()
+        }
+        lastChangedTiles = changed
+        analyzedFrames.incrementAndGet()
+
+        val now = SystemClock.elapsedRealtime()
+        if (changed > 0) {
+            unchangedSince = 0L
+            isStatic = false
+        } else {
+            if (unchangedSince == 0L) unchangedSince = now
+            isStatic = now - unchangedSince >= staticDelayMs
+        }
+        if (isStatic) staticFrames.incrementAndGet()
+        return isStatic
+    }
+
+    /**
+     * 采集重新开始时调用
+     */
+    fun reset() {
+        detector.reset()
+        unchangedSince = 0L
+        isStatic = false
+    }
+
+    fun getStats(): Stats {
+        return Stats(analyzedFrames.get(), staticFrames.get(), lastChangedTiles)
+    }
+}
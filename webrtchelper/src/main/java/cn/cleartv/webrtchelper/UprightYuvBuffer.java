@@ -0,0 +1,58 @@
+package cn.cleartv.webrtchelper;
+
+/**
+ * Upright (rotation already applied) YUV planes produced by {@link YuvFrame#toUpright(UprightYuvBuffer, Format)}.
+ * Pass the same instance back for the next frame and its arrays are reused as long as the size doesn't change.
+ */
+public class UprightYuvBuffer {
+
+    public enum Format {
+        /**
+         * Three planes: {@link #y}, {@link #u}, {@link #v}.
+         */
+        I420,
+        /**
+         * Two planes: {@link #y} and interleaved UV in {@link #uv}.
+         */
+        NV12
+    }
+
+    public Format format = Format.I420;
+    public int width;
+    public int height;
+    public int strideY;
+    /**
+     * Stride of {@link #u} and {@link #v} for I420, of {@link #uv} for NV12.
+     */
+    public int strideUV;
+    public byte[] y;
+    public byte[] u;
+    public byte[] v;
+    public byte[] uv;
+    public long timestamp;
+
+    /**
+     * Sizes the planes for an upright frame, keeping arrays that already have the right length.
+     */
+    void prepare(final Format format, final int width, final int height) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        strideY = width;
+        y = ensureSize(y, width * height);
+        if (format == Format.NV12) {
+            strideUV = chromaWidth * 2;
+            uv = ensureSize(uv, strideUV * chromaHeight);
+        } else {
+            strideUV = chromaWidth;
+            u = ensureSize(u, chromaWidth * chromaHeight);
+            v = ensureSize(v, chromaWidth * chromaHeight);
+        }
+    }
+
+    private static byte[] ensureSize(final byte[] array, final int size) {
+        return array != null && array.length == size ? array : new byte[size];
+    }
+}
@@ -0,0 +1,29 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.VideoFrame
+
+/**
+ * 采集帧的处理器，按顺序添加到[VideoFrameProcessorChain]中，在采集线程上调用
+ *
+ * [process]的返回值：
+ * - 传入的frame本身：不修改画面，直接交给下一个处理器，没有任何复制
+ * - 新的VideoFrame：由处理器创建（引用计数为1），链会在下一步用完后release
+ * - null：丢弃这一帧
+ *
+ * 传入的frame归调用方所有，处理器不能release；需要在process之后继续持有时自行retain
+ */
+interface VideoFrameProcessor {
+
+    /**
+     * 显示在[VideoFrameProcessorChain.getStats]中的名称
+     */
+    val name: String
+        get() = javaClass.simpleName
+
+    fun process(frame: VideoFrame): VideoFrame?
+
+    /**
+     * 从链中移除或链被清空时调用，释放处理器持有的资源
+     */
+    fun release() {}
+}
@@ -0,0 +1,139 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.VideoFrame
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 按顺序执行的[VideoFrameProcessor]链，位于采集器和VideoSource之间，见[VideoSourceHelper.frameProcessors]
+ *
+ * 可以在任意线程增删处理器，[process]只在采集线程调用。每个处理器的耗时、直通、丢帧和异常次数记录在[getStats]中。
+ * 处理器抛出异常时跳过该处理器，帧原样交给下一个处理器，异常不会传到采集线程
+ */
+class VideoFrameProcessorChain {
+
+    data class StageStats(
+        val name: String,
+        val frames: Long,
+        val passThrough: Long,
+        val dropped: Long,
+        // 抛出异常被跳过的次数
+        val failed: Long,
+        val avgMicros: Double,
+        val maxMicros: Double,
+    )
+
+    private class Stage(val processor: VideoFrameProcessor) {
+        val frames = AtomicLong()
+        val passThrough = AtomicLong()
+        val dropped = AtomicLong()
+        val failed = AtomicLong()
+        val totalNs = AtomicLong()
+        val maxNs = AtomicLong()
+
+        fun record(elapsedNs: Long) {
+            frames.incrementAndGet()
+            totalNs.addAndGet(elapsedNs)
+            if (elapsedNs > maxNs.get()) maxNs.set(elapsedNs)
+        }
+
+        fun toStats(): StageStats {
+            val count = frames.get()
+            return StageStats(
+                processor.name,
+                count,
+                passThrough.get(),
+                dropped.get(),
+                failed.get(),
+                if (count > 0) totalNs.get() / count / 1000.0 else 0.0,
+                maxNs.get() / 1000.0
+            )
+        }
+
+        fun reset() {
+            frames.set(0)
+            passThrough.set(0)
+            dropped.set(0)
+            failed.set(0)
+            totalNs.set(0)
+            maxNs.set(0)
+        }
+    }
+
+    private val stages = CopyOnWriteArrayList<Stage>()
+
+    val isEmpty: Boolean
+        get() = stages.isEmpty()
+
+    /**
+     * 添加到链的末尾
+     */
+    fun add(processor: VideoFrameProcessor) {
+        stages.add(Stage(processor))
+    }
+
+    fun add(index: Int, processor: VideoFrameProcessor) {
+        stages.add(index, Stage(processor))
+    }
+
+    fun remove(processor: VideoFrameProcessor): Boolean {
+        val stage = stages.firstOrNull { it.processor === processor } ?: return false
+        stages.remove(stage)
+        processor.release()
+        return true
+    }
+
+    fun clear() {
+        val removed = stages.toList()
+        stages.clear()
+        removed.forEach { it.processor.release() }
+    }
+
+    fun getProcessors(): List<VideoFrameProcessor> {
+        return stages.map { it.processor }
+    }
+
+    /**
+     * 依次执行所有处理器
+     *
+     * @return 处理后的帧，与传入的frame不同时调用方用完后需要release；返回null表示丢弃
+     */
+    fun process(frame: VideoFrame): VideoFrame? {
+        var current = frame
+        for (stage in stages) {
+            val start = System.nanoTime()
+            val result = try {
+                stage.processor.process(current)
+            } catch (e: Exception) {
+                stage.record(System.nanoTime() - start)
+                // 出错的处理器通常每帧都会出错，只记录第一次和之后每100次
+                val failed = stage.failed.incrementAndGet()
+                if (failed == 1L || failed % 100 == 0L) {
+                    L.e("${stage.processor.name} failed ($failed), frame passed through", e)
+                }
+                continue
+            }
+            stage.record(System.nanoTime() - start)
+            if (result !== current) {
+                // 中间帧只在链内使用，下一步已经处理完，可以释放
+                if (current !== frame) current.release()
+                if (result == null) {
+                    stage.dropped.incrementAndGet()
+                    return null
+                }
+                current = result
+            } else {
+                stage.passThrough.incrementAndGet()
+            }
+        }
+        return current
+    }
+
+    fun getStats(): List<StageStats> {
+        return stages.map { it.toStats() }
+    }
+
+    fun resetStats() {
+        stages.forEach { it.reset() }
+    }
+}
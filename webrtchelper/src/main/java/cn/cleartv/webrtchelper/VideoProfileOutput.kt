@@ -0,0 +1,193 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.VideoFrame
+import org.webrtc.VideoSource
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * 按[VideoTrackProfile]从采集帧派生输出帧，并分发给使用该profile的所有[VideoSource]
+ *
+ * 每帧只做一次cropAndScale，纹理帧的cropAndScale只是修改变换矩阵，实际缩放在编码/渲染时由GPU完成。
+ * [onFrame]只在采集线程调用
+ */
+internal class VideoProfileOutput(val profile: VideoTrackProfile) {
+
+    private companion object {
+        const val NO_TIMESTAMP = Long.MIN_VALUE
+    }
+
+    val sources = CopyOnWriteArrayList<VideoSource>()
+
+    val deliveredFrames = AtomicLong()
+    val droppedFrames = AtomicLong()
+
+    // 画面静止时按staticFps丢弃的帧数，以及这些帧本来需要编码的像素数（每个source各编码一次）
+    val staticDroppedFrames = AtomicLong()
+    val savedEncodePixels = AtomicLong()
+
+    private var nextFrameTimestampNs = NO_TIMESTAMP
+    private var lastDeliveredTimestampNs = NO_TIMESTAMP
+
+    // 按输入尺寸缓存的裁剪缩放参数，尺寸不变时不重新计算
+    private var inputWidth = 0
+    private var inputHeight = 0
+    private var cropX = 0
+    private var cropY = 0
+    private var cropWidth = 0
+    private var cropHeight = 0
+
+    @Volatile
+    var outputWidth = 0
+        private set
+
+    @Volatile
+    var outputHeight = 0
+        private set
+
+    /**
+     * @param contentStatic 画面是否静止，见[StaticContentDetector]
+     */
+    fun onFrame(frame: VideoFrame, contentStatic: Boolean = false) {
+        if (sources.isEmpty()) return
+        if (contentStatic && !acceptStaticFrame(frame.timestampNs)) {
+            staticDroppedFrames.incrementAndGet()
+            savedEncodePixels.addAndGet(outputWidth.toLong() * outputHeight * sources.size)
+            return
+        }
+        if (!acceptFrame(frame.timestampNs)) {
+            droppedFrames.incrementAndGet()
+            return
+        }
+        lastDeliveredTimestampNs = frame.timestampNs
+        val output = adapt(frame)
+        sources.forEach {
+            it.capturerObserver.onFrameCaptured(output)
+        }
+        if (output !== frame) {
+            output.release()
+        }
+        deliveredFrames.incrementAndGet()
+    }
+
+    /**
+     * 重新开始帧率控制，采集重新开始时调用
+     */
+    fun reset() {
+        nextFrameTimestampNs = NO_TIMESTAMP
+        lastDeliveredTimestampNs = NO_TIMESTAMP
+    }
+
+    /**
+     * 画面静止时，距离上次输出不足1 / staticFps的帧丢弃
+     */
+    private fun acceptStaticFrame(timestampNs: Long): Boolean {
+        if (profile.staticFps <= 0 || lastDeliveredTimestampNs == NO_TIMESTAMP) return true
+        val elapsed = timestampNs - lastDeliveredTimestampNs
+        // 时间戳回退时不丢帧
+        return elapsed < 0 || elapsed >= 1_000_000_000L / profile.staticFps
+    }
+
+    /**
+     * 帧率控制，与WebRTC的VideoAdapter相同：比预期时间早半个间隔以上的帧丢弃，时间戳跳变时重新对齐
+     */
+    private fun acceptFrame(timestampNs: Long): Boolean {
+        if (profile.maxFps <= 0) return true
+        val interval = 1_000_000_000L / profile.maxFps
+        if (nextFrameTimestampNs != NO_TIMESTAMP) {
+            val untilNext = nextFrameTimestampNs - timestampNs
+            if (untilNext > interval / 2) return false
+            if (abs(untilNext) < 2 * interval) {
+                nextFrameTimestampNs += interval
+                return true
+            }
+        }
+        nextFrameTimestampNs = timestampNs + interval
+        return true
+    }
+
+    private fun adapt(frame: VideoFrame): VideoFrame {
+        val buffer = frame.buffer
+        if (buffer.width != inputWidth || buffer.height != inputHeight) {
+            updateLayout(buffer.width, buffer.height)
+        }
+        if (cropX == 0 && cropY == 0 && cropWidth == inputWidth && cropHeight == inputHeight
+            && outputWidth == inputWidth && outputHeight == inputHeight
+        ) {
+            return frame
+        }
+        return VideoFrame(
+            buffer.cropAndScale(cropX, cropY, cropWidth, cropHeight, outputWidth, outputHeight),
+            frame.rotation,
+            frame.timestampNs
+        )
+    }
+
+    private fun updateLayout(width: Int, height: Int) {
+        inputWidth = width
+        inputHeight = height
+        val inputLong = max(width, height)
+        val inputShort = min(width, height)
+
+        // 先按aspectRatio裁剪
+        var cropLong = inputLong
+        var cropShort = inputShort
+        val ratio = profile.aspectRatio.let { if (it > 0f && it < 1f) 1f / it else it }
+        if (ratio > 0f) {
+            if (cropLong > cropShort * ratio) {
+                cropLong = (cropShort * ratio).toInt()
+            } else {
+                cropShort = (cropLong / ratio).toInt()
+            }
+        }
+
+        val boundLong = max(profile.maxWidth, profile.maxHeight)
+        val boundShort = if (profile.maxWidth > 0 && profile.maxHeight > 0) {
+            min(profile.maxWidth, profile.maxHeight)
+        } else 0
+
+        // FILL再裁剪到限制的比例
+        if (profile.scaleMode == VideoTrackProfile.ScaleMode.FILL && boundShort > 0) {
+            if (cropLong.toLong() * boundShort > cropShort.toLong() * boundLong) {
+                cropLong = (cropShort.toLong() * boundLong / boundShort).toInt()
+            } else {
+                cropShort = (cropLong.toLong() * boundShort / boundLong).toInt()
+            }
+        }
+        // 裁剪时尺寸取偶数，保证色度平面对齐
+        if (cropLong != inputLong) cropLong = evenAtLeastTwo(cropLong)
+        if (cropShort != inputShort) cropShort = evenAtLeastTwo(cropShort)
+
+        var scale = 1.0
+        if (boundLong > 0) scale = min(scale, boundLong.toDouble() / cropLong)
+        if (boundShort > 0) scale = min(scale, boundShort.toDouble() / cropShort)
+        val outputLong = if (scale < 1.0) evenAtLeastTwo((cropLong * scale).toInt()) else cropLong
+        val outputShort = if (scale < 1.0) evenAtLeastTwo((cropShort * scale).toInt()) else cropShort
+
+        val offsetLong = ((inputLong - cropLong) / 2) and 1.inv()
+        val offsetShort = ((inputShort - cropShort) / 2) and 1.inv()
+        if (width >= height) {
+            cropX = offsetLong
+            cropY = offsetShort
+            cropWidth = cropLong
+            cropHeight = cropShort
+            outputWidth = outputLong
+            outputHeight = outputShort
+        } else {
+            cropX = offsetShort
+            cropY = offsetLong
+            cropWidth = cropShort
+            cropHeight = cropLong
+            outputWidth = outputShort
+            outputHeight = outputLong
+        }
+        L.d("profile $profile: ${width}x$height -> crop $cropWidth x $cropHeight at ($cropX, $cropY), output ${outputWidth}x$outputHeight")
+    }
+
+    private fun evenAtLeastTwo(value: Int): Int {
+        return max(2, value and 1.inv())
+    }
+}
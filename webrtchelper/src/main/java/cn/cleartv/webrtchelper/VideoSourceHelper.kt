@@ -3,9 +3,10 @@ package cn.cleartv.webrtchelper
 import android.content.Intent
 import android.media.projection.MediaProjection
 import android.os.Build
+import android.os.SystemClock
 import androidx.annotation.RequiresApi
 import cn.cleartv.webrtchelper.WebRTCUtils.getCameraName
-import cn.cleartv.webrtchelper.WebRTCUtils.setRotation
+import cn.cleartv.webrtchelper.WebRTCUtils.withRotation
 import org.webrtc.Camera1Enumerator
 import org.webrtc.Camera2Enumerator
 import org.webrtc.CameraEnumerator
@@ -19,7 +20,19 @@ import org.webrtc.VideoFrame
 import org.webrtc.VideoSource
 import org.webrtc.VideoTrack
 import org.webrtc.YuvConverter
+import kotlinx.coroutines.CoroutineExceptionHandler
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExecutorCoroutineDispatcher
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 class VideoSourceHelper(
     val capturerObserver: CapturerObserver? = null,
@@ -34,6 +47,21 @@ class VideoSourceHelper(
             }
         }
 
+    /**
+     * 采集帧在分发给VideoSource之前依次经过的处理器，在[customRotation]之后执行
+     */
+    val frameProcessors = VideoFrameProcessorChain()
+
+    /**
+     * 有track设置了[VideoTrackProfile.staticFps]时，判断画面是否静止
+     */
+    val staticContentDetector = StaticContentDetector()
+
+    /**
+     * 在[FrameLatencyTracer]中的统计分组名
+     */
+    var traceName: String = "capture"
+
     var useCamera2: Boolean = false
     var cameraName: String = ""
     val cameraEnumerator: CameraEnumerator by lazy {
@@ -48,27 +76,128 @@ class VideoSourceHelper(
     var isCapturerStarted = false
         private set
 
-    private var captureWidth: Int = 0
-    private var captureHeight: Int = 0
-    private var captureFrameRate: Int = 0
+    var captureWidth: Int = 0
+        private set
+    var captureHeight: Int = 0
+        private set
+    var captureFrameRate: Int = 0
+        private set
+
+    /**
+     * 热备模式：重新初始化采集器、切换摄像头和相机出错恢复时，只替换采集器，
+     * 保留SurfaceTextureHelper（GL线程）和所有VideoSource/VideoTrack，已经添加到连接和View上的track不受影响
+     */
+    var warmStandby: Boolean = false
+
+    data class FirstFrameReport(
+        val cameraName: String,
+        // 从发起打开/切换到收到第一帧的时长
+        val timeToFirstFrameMs: Long,
+        // 是否复用了已经准备好的采集器和GL线程
+        val warm: Boolean,
+    )
+
+    /**
+     * 每次打开、切换摄像头后收到第一帧时回调，在采集线程调用
+     */
+    var onFirstFrame: (FirstFrameReport) -> Unit = {}
+
+    var lastFirstFrameReport: FirstFrameReport? = null
+        private set
 
-    private var yuvConverter: YuvConverter? = null
     private var surfaceTextureHelper: SurfaceTextureHelper? = null
     private var videoCapturer: VideoCapturer? = null
 
+    // prepareCamera预先创建的采集器，拥有独立的SurfaceTextureHelper，切换时与当前采集器互换
+    private var standbyCapturer: CameraVideoCapturer? = null
+    private var standbyCameraName: String = ""
+    private var standbySurfaceTextureHelper: SurfaceTextureHelper? = null
+
+    // 等待第一帧的开始时间，0表示没有在等待
+    @Volatile
+    private var firstFrameRequestedAt = 0L
+
+    @Volatile
+    private var firstFrameWarm = false
+
+    // 打开/关闭相机会阻塞，放在单独的线程中执行；release时关闭，之后需要时重新创建
+    private val capturerThreadLock = Any()
+    private var capturerDispatcherInstance: ExecutorCoroutineDispatcher? = null
+    private var capturerScopeInstance: CoroutineScope? = null
+
+    private val capturerDispatcher: ExecutorCoroutineDispatcher
+        get() = synchronized(capturerThreadLock) {
+            capturerDispatcherInstance ?: Executors.newSingleThreadExecutor {
+                Thread(it, "VideoSourceHelper-capturer").apply { isDaemon = true }
+            }.asCoroutineDispatcher().also { capturerDispatcherInstance = it }
+        }
+
+    private val capturerScope: CoroutineScope
+        get() = synchronized(capturerThreadLock) {
+            capturerScopeInstance ?: CoroutineScope(
+                capturerDispatcher + SupervisorJob() + CoroutineExceptionHandler { _, e ->
+                    L.e("capturer task failed", e)
+                }
+            ).also { capturerScopeInstance = it }
+        }
+
+    // swapWithStandby等待当前相机关闭
+    @Volatile
+    private var cameraClosedLatch: CountDownLatch? = null
+
     private val videoSourceMap: ConcurrentHashMap<String, VideoSource> = ConcurrentHashMap()
     private val videoTrackMap: ConcurrentHashMap<String, VideoTrack> = ConcurrentHashMap()
 
+    // 每个track使用的profile，以及每个profile的输出，相同profile的track共用一个输出
+    private val trackProfileMap: ConcurrentHashMap<String, VideoTrackProfile> = ConcurrentHashMap()
+    private val profileOutputMap: ConcurrentHashMap<VideoTrackProfile, VideoProfileOutput> = ConcurrentHashMap()
+
+    // 在独立线程接收采集帧的observer，见addFrameObserver
+    private val observerLanes = CopyOnWriteArrayList<FrameObserverLane>()
+
+    data class ProfileStats(
+        val trackCount: Int,
+        val outputWidth: Int,
+        val outputHeight: Int,
+        val deliveredFrames: Long,
+        val droppedFrames: Long,
+        // 画面静止时丢弃的帧数
+        val staticDroppedFrames: Long,
+        // 静止丢帧节省的编码像素数（所有track合计）
+        val savedEncodePixels: Long,
+    )
+
+    companion object {
+        // 切换到备用相机时等待当前相机关闭的最长时间
+        private const val CAMERA_CLOSE_TIMEOUT_MS = 2000L
+    }
+
+    /**
+     * 释放采集器、GL线程、采集线程、所有VideoSource/VideoTrack和[addFrameObserver]添加的observer
+     */
     @Synchronized
     fun release() {
+        releaseSources()
+        observerLanes.forEach { it.close() }
+        observerLanes.clear()
+        synchronized(capturerThreadLock) {
+            capturerScopeInstance?.cancel()
+            capturerScopeInstance = null
+            capturerDispatcherInstance?.close()
+            capturerDispatcherInstance = null
+        }
+    }
 
-        yuvConverter?.release()
-        yuvConverter = null
+    /**
+     * 释放采集器、GL线程和所有VideoSource/VideoTrack，采集线程保留，重新初始化采集器时使用
+     */
+    @Synchronized
+    private fun releaseSources() {
+        releaseCapturer()
+        releaseStandby()
+        // SurfaceTextureHelper在自己的GL线程上释放它持有的YuvConverter
         surfaceTextureHelper?.dispose()
         surfaceTextureHelper = null
-        videoCapturer?.stopCapture()
-        videoCapturer?.dispose()
-        videoCapturer = null
 
         videoSourceMap.values.forEach {
             it.dispose()
@@ -78,13 +207,80 @@ class VideoSourceHelper(
 
         }
         videoTrackMap.clear()
+        trackProfileMap.clear()
+        profileOutputMap.clear()
+    }
+
+    /**
+     * 只停止并释放当前采集器
+     */
+    @Synchronized
+    private fun releaseCapturer() {
+        videoCapturer?.stopCapture()
+        videoCapturer?.dispose()
+        videoCapturer = null
+    }
+
+    @Synchronized
+    private fun releaseStandby() {
+        standbyCapturer?.dispose()
+        standbyCapturer = null
+        standbyCameraName = ""
+        standbySurfaceTextureHelper?.dispose()
+        standbySurfaceTextureHelper = null
+    }
+
+    /**
+     * 热备模式下只替换采集器，否则释放全部资源
+     */
+    private fun resetForNewCapturer() {
+        if (warmStandby) {
+            releaseCapturer()
+        } else {
+            releaseSources()
+        }
+    }
+
+    /**
+     * 热备模式下复用已有的SurfaceTextureHelper
+     */
+    private fun obtainSurfaceTextureHelper(name: String): SurfaceTextureHelper {
+        surfaceTextureHelper?.let { return it }
+        return createSurfaceTextureHelper(name).also {
+            surfaceTextureHelper = it
+        }
+    }
+
+    private fun createSurfaceTextureHelper(name: String): SurfaceTextureHelper {
+        // 每个GL线程需要独立的YuvConverter，由SurfaceTextureHelper负责释放
+        return SurfaceTextureHelper.create(
+            name,
+            WebRTCHelper.rootEglBaseContext,
+            false,
+            YuvConverter()
+        )
+    }
+
+    private fun markFirstFrameRequested(warm: Boolean) {
+        firstFrameWarm = warm
+        firstFrameRequestedAt = SystemClock.elapsedRealtime()
+    }
+
+    private fun reportFirstFrame() {
+        val requestedAt = firstFrameRequestedAt
+        if (requestedAt == 0L) return
+        firstFrameRequestedAt = 0L
+        val report = FirstFrameReport(cameraName, SystemClock.elapsedRealtime() - requestedAt, firstFrameWarm)
+        lastFirstFrameReport = report
+        L.i("first frame: $report")
+        onFirstFrame(report)
     }
 
     fun initScreenCapturer(intent: Intent) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             throw Exception("Android version not support! need >= lollipop")
         }
-        release()
+        resetForNewCapturer()
 
         videoCapturer = ScreenCapturerAndroid(
             intent,
@@ -94,17 +290,19 @@ class VideoSourceHelper(
                     L.i("User revoked permission to capture the screen.")
                 }
             }).apply {
-            yuvConverter?.release()
-            yuvConverter = YuvConverter()
-            surfaceTextureHelper?.dispose()
-            surfaceTextureHelper =
-                SurfaceTextureHelper.create(
-                    this.toString(),
-                    WebRTCHelper.rootEglBaseContext,
-                    false,
-                    yuvConverter
-                )
-            initialize(surfaceTextureHelper, WebRTCHelper.appContext, this@VideoSourceHelper)
+            initialize(obtainSurfaceTextureHelper(this.toString()), WebRTCHelper.appContext, this@VideoSourceHelper)
+        }
+    }
+
+    /**
+     * 使用自定义采集器，如[MappedY4mCapturer]，之后与其他采集器一样调用[startCapture]
+     */
+    @Synchronized
+    fun initCustomCapturer(capturer: VideoCapturer) {
+        resetForNewCapturer()
+
+        videoCapturer = capturer.apply {
+            initialize(obtainSurfaceTextureHelper(this.toString()), WebRTCHelper.appContext, this@VideoSourceHelper)
         }
     }
 
@@ -119,40 +317,93 @@ class VideoSourceHelper(
         }
     }
 
+    @Synchronized
     fun initCameraCapturer(deviceName: String = "", useCamera2: Boolean = false) {
-        release()
+        resetForNewCapturer()
 
         this.useCamera2 = useCamera2
         checkCameraName(deviceName)
 
         videoCapturer = cameraEnumerator.createCapturer(cameraName, this)?.apply {
-            yuvConverter?.release()
-            yuvConverter = YuvConverter()
-            surfaceTextureHelper?.dispose()
-            surfaceTextureHelper =
-                SurfaceTextureHelper.create(
-                    this.toString(),
-                    WebRTCHelper.rootEglBaseContext,
-                    false,
-                    yuvConverter
-                )
-            initialize(surfaceTextureHelper, WebRTCHelper.appContext, this@VideoSourceHelper)
+            initialize(obtainSurfaceTextureHelper(this.toString()), WebRTCHelper.appContext, this@VideoSourceHelper)
         } ?: throw Exception("create camera capturer failed!")
     }
 
+    /**
+     * 在采集线程上初始化摄像头并开始采集，不阻塞调用线程
+     */
+    suspend fun openCamera(
+        deviceName: String = "",
+        useCamera2: Boolean = false,
+        width: Int,
+        height: Int,
+        framerate: Int,
+    ) {
+        withContext(capturerDispatcher) {
+            val warm = warmStandby && surfaceTextureHelper != null
+            initCameraCapturer(deviceName, useCamera2)
+            markFirstFrameRequested(warm)
+            startCapture(width, height, framerate)
+        }
+    }
+
+    /**
+     * 在采集线程上预先创建下一个摄像头的采集器和GL线程（需要开启[warmStandby]），
+     * 之后[switchCamera]切换到该摄像头时只需要关闭当前相机、打开新相机。
+     * 大部分设备不能同时打开两个摄像头，所以相机本身在切换时才打开
+     */
+    fun prepareCamera(deviceName: String) {
+        if (!warmStandby) {
+            L.w("prepareCamera requires warmStandby")
+            return
+        }
+        capturerScope.launch {
+            synchronized(this@VideoSourceHelper) {
+                if (standbyCapturer != null && standbyCameraName == deviceName) return@launch
+                if (!cameraEnumerator.deviceNames.contains(deviceName)) {
+                    L.w("prepareCamera: $deviceName not found")
+                    return@launch
+                }
+                standbyCapturer?.dispose()
+                standbyCapturer = null
+                val helper = standbySurfaceTextureHelper
+                    ?: createSurfaceTextureHelper("standby-$deviceName").also { standbySurfaceTextureHelper = it }
+                standbyCapturer = cameraEnumerator.createCapturer(deviceName, this@VideoSourceHelper)?.apply {
+                    initialize(helper, WebRTCHelper.appContext, this@VideoSourceHelper)
+                }
+                standbyCameraName = if (standbyCapturer != null) deviceName else ""
+                L.d("prepareCamera: $standbyCameraName ready")
+            }
+        }
+    }
+
     fun startCapture(width: Int, height: Int, framerate: Int) {
         captureWidth = width
         captureHeight = height
         captureFrameRate = framerate
+        if (firstFrameRequestedAt == 0L) markFirstFrameRequested(false)
         videoCapturer?.startCapture(width, height, framerate)
     }
 
+    /**
+     * 采集过程中修改分辨率和帧率，不重新打开相机，见[CaptureGovernor]
+     */
+    fun changeCaptureFormat(width: Int, height: Int, framerate: Int) {
+        captureWidth = width
+        captureHeight = height
+        captureFrameRate = framerate
+        if (isCapturerStarted) {
+            videoCapturer?.changeCaptureFormat(width, height, framerate)
+        }
+    }
+
     fun stopCapture() {
         videoCapturer?.stopCapture()
     }
 
 
     fun switchCamera() {
+        markFirstFrameRequested(false)
         (videoCapturer as? CameraVideoCapturer)?.switchCamera(object : CameraSwitchHandler {
             override fun onCameraSwitchDone(p0: Boolean) {
                 val cameraName = (videoCapturer as? CameraVideoCapturer)?.getCameraName() ?: ""
@@ -168,7 +419,15 @@ class VideoSourceHelper(
     }
 
 
+    /**
+     * 切换到指定摄像头，已经通过[prepareCamera]准备好时直接与备用采集器互换，原采集器成为新的备用
+     */
     fun switchCamera(cameraName: String) {
+        if (warmStandby && standbyCapturer != null && standbyCameraName == cameraName) {
+            capturerScope.launch { swapWithStandby() }
+            return
+        }
+        markFirstFrameRequested(false)
         (videoCapturer as? CameraVideoCapturer)?.switchCamera(object : CameraSwitchHandler {
             override fun onCameraSwitchDone(p0: Boolean) {
                 L.d("onCameraSwitchDone: $p0")
@@ -189,15 +448,64 @@ class VideoSourceHelper(
         }
     }
 
+    @Synchronized
+    private fun swapWithStandby() {
+        val next = standbyCapturer ?: return
+        val nextHelper = standbySurfaceTextureHelper ?: return
+        val wasStarted = isCapturerStarted
+        val previous = videoCapturer
+        val previousName = cameraName
+        val previousHelper = surfaceTextureHelper
+        // 关闭当前相机后才能打开新相机。CameraCapturer.stopCapture只是把关闭相机post到相机线程，
+        // 等onCameraClosed后再打开，否则只允许打开一个相机的设备会打开失败，进入CameraCapturer的重试等待
+        if (wasStarted && previous is CameraVideoCapturer) {
+            val closed = CountDownLatch(1)
+            cameraClosedLatch = closed
+            previous.stopCapture()
+            if (!closed.await(CAMERA_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                L.w("switchCamera: $previousName not closed after ${CAMERA_CLOSE_TIMEOUT_MS}ms")
+            }
+            cameraClosedLatch = null
+        } else {
+            previous?.stopCapture()
+        }
+        videoCapturer = next
+        surfaceTextureHelper = nextHelper
+        cameraName = standbyCameraName
+        if (previous is CameraVideoCapturer && previousHelper != null) {
+            standbyCapturer = previous
+            standbyCameraName = previousName
+            standbySurfaceTextureHelper = previousHelper
+        } else {
+            standbyCapturer = null
+            standbyCameraName = ""
+            standbySurfaceTextureHelper = null
+            previous?.dispose()
+            previousHelper?.dispose()
+        }
+        L.i("switchCamera: $previousName to $cameraName (standby)")
+        if (wasStarted) {
+            markFirstFrameRequested(true)
+            next.startCapture(captureWidth, captureHeight, captureFrameRate)
+        }
+    }
+
     override fun onCameraError(p0: String?) {
         L.w("onCameraError: $p0")
         val lastCameraStatus = isCapturerStarted
-        // 重新启动相机
-        initCameraCapturer()
-        if (lastCameraStatus) {
-            startCapture(captureWidth, captureHeight, captureFrameRate)
-        } else {
-            stopCapture()
+        // 在相机线程上回调，不能在这里释放它自己的SurfaceTextureHelper，到采集线程上重新启动相机
+        capturerScope.launch {
+            try {
+                initCameraCapturer(cameraName, useCamera2)
+                if (lastCameraStatus) {
+                    markFirstFrameRequested(warmStandby)
+                    startCapture(captureWidth, captureHeight, captureFrameRate)
+                } else {
+                    stopCapture()
+                }
+            } catch (e: Exception) {
+                L.e("restart camera $cameraName failed", e)
+            }
         }
     }
 
@@ -215,18 +523,25 @@ class VideoSourceHelper(
 
     override fun onFirstFrameAvailable() {
         L.d("onFirstFrameAvailable")
+        reportFirstFrame()
     }
 
     override fun onCameraClosed() {
         L.d("onCameraClosed")
+        cameraClosedLatch?.countDown()
     }
 
     override fun onCapturerStarted(p0: Boolean) {
         isCapturerStarted = p0
+        profileOutputMap.values.forEach {
+            it.reset()
+        }
+        staticContentDetector.reset()
         videoSourceMap.values.forEach {
             it.capturerObserver.onCapturerStarted(p0)
         }
         capturerObserver?.onCapturerStarted(p0)
+        observerLanes.forEach { it.onCapturerStarted(p0) }
     }
 
     override fun onCapturerStopped() {
@@ -235,24 +550,119 @@ class VideoSourceHelper(
             it.capturerObserver.onCapturerStopped()
         }
         capturerObserver?.onCapturerStopped()
+        observerLanes.forEach { it.onCapturerStopped() }
     }
 
     override fun onFrameCaptured(p0: VideoFrame?) {
-        if (customRotation != 0) {
-            p0?.setRotation((customRotation + p0.rotation) % 360)
+        // 相机通过onFirstFrameAvailable上报，其他采集器以第一帧为准
+        if (firstFrameRequestedAt != 0L && videoCapturer !is CameraVideoCapturer) {
+            reportFirstFrame()
         }
-        videoSourceMap.values.forEach {
-            it.capturerObserver.onFrameCaptured(p0)
+        if (p0 == null) {
+            capturerObserver?.onFrameCaptured(p0)
+            return
+        }
+        val tracing = FrameLatencyTracer.enabled
+        if (tracing) {
+            FrameLatencyTracer.begin(p0.timestampNs)
+            FrameLatencyTracer.mark(traceName, FrameLatencyTracer.Stage.CAPTURED, p0.timestampNs)
+        }
+        // 不修改采集器的帧，旋转后的帧共享同一个buffer
+        val rotated = if (customRotation != 0) p0.withRotation((customRotation + p0.rotation) % 360) else p0
+        try {
+            val frame = if (frameProcessors.isEmpty) rotated else frameProcessors.process(rotated)
+            if (frame != null) {
+                try {
+                    if (tracing) FrameLatencyTracer.mark(traceName, FrameLatencyTracer.Stage.PROCESSED, frame.timestampNs)
+                    val contentStatic = profileOutputMap.keys.any { it.staticFps > 0 } && staticContentDetector.analyze(frame)
+                    profileOutputMap.values.forEach {
+                        it.onFrame(frame, contentStatic)
+                    }
+                    if (tracing) FrameLatencyTracer.mark(traceName, FrameLatencyTracer.Stage.DELIVERED, frame.timestampNs)
+                    capturerObserver?.onFrameCaptured(frame)
+                    if (observerLanes.isNotEmpty()) dispatchToLanes(frame)
+                } finally {
+                    if (frame !== rotated) frame.release()
+                }
+            }
+        } catch (e: Exception) {
+            // 异常传到采集器的线程会让相机停止工作，这里只丢弃这一帧
+            L.e("onFrameCaptured failed, frame dropped", e)
+        } finally {
+            if (rotated !== p0) rotated.release()
+            // 采集端的跟踪到DELIVERED为止，被处理器丢弃或出错的帧同样结束
+            if (tracing) FrameLatencyTracer.end(p0.timestampNs)
+        }
+    }
+
+    // 纹理帧只转换一次I420，所有需要复制的lane共用（各自retain）
+    private fun dispatchToLanes(frame: VideoFrame) {
+        val i420Copy = if (frame.buffer !is VideoFrame.I420Buffer && observerLanes.any { it.copyTextureFrames }) {
+            frame.buffer.toI420()?.let { VideoFrame(it, frame.rotation, frame.timestampNs) }
+        } else {
+            null
+        }
+        try {
+            observerLanes.forEach {
+                if (!it.copyTextureFrames) {
+                    it.onFrameCaptured(frame)
+                } else if (i420Copy != null) {
+                    it.onFrameCaptured(i420Copy)
+                } else if (frame.buffer is VideoFrame.I420Buffer) {
+                    it.onFrameCaptured(frame)
+                }
+            }
+        } finally {
+            i420Copy?.release()
         }
-        capturerObserver?.onFrameCaptured(p0)
     }
 
+    /**
+     * 添加一个在独立线程上接收采集帧的observer，observer处理慢时按policy丢帧，不会阻塞采集线程。
+     * 构造函数传入的[capturerObserver]仍然在采集线程同步调用
+     *
+     * @param capacity 最多排队的帧数
+     * @param deadlineMs 排队超过该时长的帧不再送达，0表示不限制
+     * @param copyTextureFrames 纹理帧是否先转换为I420再排队，避免持有相机纹理
+     * @return 可以通过[FrameObserverLane.getStats]查看队列深度和丢帧数
+     */
+    @JvmOverloads
+    fun addFrameObserver(
+        observer: CapturerObserver,
+        policy: FrameObserverLane.Policy = FrameObserverLane.Policy.DROP_OLDEST,
+        capacity: Int = 2,
+        deadlineMs: Long = 200,
+        copyTextureFrames: Boolean = true,
+    ): FrameObserverLane {
+        return FrameObserverLane(observer, policy, capacity, deadlineMs, copyTextureFrames).also {
+            observerLanes.add(it)
+        }
+    }
+
+    /**
+     * 移除observer并停止它的线程，尚未送达的帧直接释放
+     */
+    fun removeFrameObserver(observer: CapturerObserver) {
+        observerLanes.filter { it.observer === observer }.forEach {
+            observerLanes.remove(it)
+            it.close()
+        }
+    }
+
+    /**
+     * @param profile 输出格式，相同profile的track共用同一份裁剪缩放后的帧。track已存在时不会修改其profile，见[setVideoTrackProfile]
+     */
     @Synchronized
-    fun getOrCreateVideoTrack(trackId: String, isScreencast: Boolean = false): VideoTrack {
+    fun getOrCreateVideoTrack(
+        trackId: String,
+        isScreencast: Boolean = false,
+        profile: VideoTrackProfile = VideoTrackProfile.ORIGINAL,
+    ): VideoTrack {
         return videoTrackMap.getOrPut(trackId) {
             val videoSource: VideoSource =
                 WebRTCHelper.factory.createVideoSource(isScreencast)
             videoSourceMap[trackId] = videoSource
+            attachSource(trackId, videoSource, profile)
             WebRTCHelper.factory.createVideoTrack(
                 trackId,
                 videoSource
@@ -260,9 +670,66 @@ class VideoSourceHelper(
         }
     }
 
+    /**
+     * 修改已有track的输出格式
+     */
+    @Synchronized
+    fun setVideoTrackProfile(trackId: String, profile: VideoTrackProfile) {
+        val videoSource = videoSourceMap[trackId] ?: return
+        if (trackProfileMap[trackId] == profile) return
+        detachSource(trackId, videoSource)
+        attachSource(trackId, videoSource, profile)
+    }
+
+    fun getVideoTrackProfile(trackId: String): VideoTrackProfile? {
+        return trackProfileMap[trackId]
+    }
+
+    /**
+     * 每个profile的输出尺寸和帧数统计
+     */
+    fun getProfileStats(): Map<VideoTrackProfile, ProfileStats> {
+        return profileOutputMap.mapValues { (_, output) ->
+            ProfileStats(
+                output.sources.size,
+                output.outputWidth,
+                output.outputHeight,
+                output.deliveredFrames.get(),
+                output.droppedFrames.get(),
+                output.staticDroppedFrames.get(),
+                output.savedEncodePixels.get()
+            )
+        }
+    }
+
+    /**
+     * track所用profile的统计，同一profile的track共用
+     */
+    fun getVideoTrackStats(trackId: String): ProfileStats? {
+        val profile = trackProfileMap[trackId] ?: return null
+        return getProfileStats()[profile]
+    }
+
+    private fun attachSource(trackId: String, videoSource: VideoSource, profile: VideoTrackProfile) {
+        trackProfileMap[trackId] = profile
+        profileOutputMap.getOrPut(profile) { VideoProfileOutput(profile) }.sources.add(videoSource)
+    }
+
+    private fun detachSource(trackId: String, videoSource: VideoSource) {
+        val profile = trackProfileMap.remove(trackId) ?: return
+        val output = profileOutputMap[profile] ?: return
+        output.sources.remove(videoSource)
+        if (output.sources.isEmpty()) {
+            profileOutputMap.remove(profile)
+        }
+    }
+
     @Synchronized
     fun removeVideoTrack(trackId: String) {
-        videoSourceMap.remove(trackId)?.dispose()
+        videoSourceMap.remove(trackId)?.let {
+            detachSource(trackId, it)
+            it.dispose()
+        }
         videoTrackMap.remove(trackId)?.dispose()
     }
 
@@ -0,0 +1,59 @@
+package cn.cleartv.webrtchelper
+
+/**
+ * VideoTrack的输出格式，见[VideoSourceHelper.getOrCreateVideoTrack]
+ *
+ * 分辨率限制与方向无关：[maxWidth]和[maxHeight]中较大的值限制长边，较小的值限制短边，横屏竖屏采集都适用。
+ * 只会缩小不会放大。相同（equals）的profile只计算一次，结果共享给所有使用该profile的track
+ *
+ * @param maxWidth 最大宽度，0表示不限制
+ * @param maxHeight 最大高度，0表示不限制
+ * @param maxFps 最大帧率，0表示不限制
+ * @param aspectRatio 长边与短边之比，大于0时先从画面中心裁剪到该比例，如16f / 9、4f / 3、1f
+ * @param scaleMode 画面比例与限制的比例不一致时的处理方式
+ * @param staticFps 画面静止（如幻灯片、白板）时降到的帧率，画面一变化立即恢复，0表示不降帧，见[StaticContentDetector]
+ */
+data class VideoTrackProfile(
+    val maxWidth: Int = 0,
+    val maxHeight: Int = 0,
+    val maxFps: Int = 0,
+    val aspectRatio: Float = 0f,
+    val scaleMode: ScaleMode = ScaleMode.FIT,
+    val staticFps: Int = 0,
+) {
+
+    enum class ScaleMode {
+        /**
+         * 保持比例缩小到限制范围内
+         */
+        FIT,
+
+        /**
+         * 从中心裁剪到限制的比例后再缩小，填满限制范围，需要同时设置maxWidth和maxHeight
+         */
+        FILL,
+    }
+
+    init {
+        require(maxWidth >= 0 && maxHeight >= 0 && maxFps >= 0 && aspectRatio >= 0f && staticFps >= 0) { "invalid profile: $this" }
+    }
+
+    /**
+     * 是否原样输出采集的帧
+     */
+    val isOriginal: Boolean
+        get() = maxWidth == 0 && maxHeight == 0 && maxFps == 0 && aspectRatio == 0f && staticFps == 0
+
+    companion object {
+        /**
+         * 不做任何处理
+         */
+        @JvmField
+        val ORIGINAL = VideoTrackProfile()
+
+        @JvmStatic
+        fun of(maxWidth: Int, maxHeight: Int, maxFps: Int = 0): VideoTrackProfile {
+            return VideoTrackProfile(maxWidth, maxHeight, maxFps)
+        }
+    }
+}
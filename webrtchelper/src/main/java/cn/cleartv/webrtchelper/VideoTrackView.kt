@@ -5,6 +5,8 @@ import android.os.Looper
 import android.util.AttributeSet
 import android.view.SurfaceHolder
 import android.view.SurfaceView
+import android.view.View
+import android.view.ViewTreeObserver
 import androidx.constraintlayout.widget.ConstraintLayout
 import androidx.constraintlayout.widget.ConstraintSet
 import org.webrtc.EglBase
@@ -18,6 +20,8 @@ import org.webrtc.VideoSink
 import org.webrtc.VideoTrack
 import java.util.Objects
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
 
 class VideoTrackView : ConstraintLayout, RendererCommon.RendererEvents,
     SurfaceHolder.Callback {
@@ -25,13 +29,86 @@ class VideoTrackView : ConstraintLayout, RendererCommon.RendererEvents,
 
     private val videoSink: VideoSink by lazy {
         VideoSink { frame ->
+            val tracing = FrameLatencyTracer.enabled
+            if (tracing) FrameLatencyTracer.mark(traceName, FrameLatencyTracer.Stage.SINK, frame.timestampNs, true)
+            if (!acceptRender()) {
+                droppedFrameCount.incrementAndGet()
+                if (tracing) FrameLatencyTracer.end(frame.timestampNs)
+                return@VideoSink
+            }
+            renderedFrameCount.incrementAndGet()
             updateFrameDimensionsAndReportEvents(frame)
+            renderStatsTracker.onQueued(frame.timestampNs)
             eglRenderer.onFrame(frame)
+            if (tracing) FrameLatencyTracer.mark(traceName, FrameLatencyTracer.Stage.RENDER_QUEUED, frame.timestampNs)
         }
     }
 
     private var videoTrack: VideoTrack? = null
 
+    /**
+     * 正在显示的track，供[RenderScheduler]判断远端视频是否可见
+     */
+    internal val currentVideoTrack: VideoTrack?
+        get() = videoTrack
+
+    /**
+     * 在[FrameLatencyTracer]中的统计分组名，默认为显示的track id
+     */
+    @Volatile
+    var traceName: String = "view"
+
+    /**
+     * [RenderScheduler]分配帧率时的权重，与可见面积相乘，如把正在说话的人设为2f
+     */
+    var renderWeight: Float = 1f
+        set(value) {
+            field = value
+            RenderScheduler.requestUpdate()
+        }
+
+    /**
+     * [RenderScheduler]分配的渲染帧率，0表示暂停，[RenderScheduler.UNLIMITED]表示不限制
+     */
+    @Volatile
+    var scheduledFps: Float = RenderScheduler.UNLIMITED
+        private set
+
+    /**
+     * 最近一次分配时的可见面积（像素）
+     */
+    @Volatile
+    var visibleArea: Long = 0
+        private set
+
+    /**
+     * 交给EglRenderer的帧数
+     */
+    val renderedFrames: Long
+        get() = renderedFrameCount.get()
+
+    /**
+     * 按[scheduledFps]丢弃的帧数
+     */
+    val droppedFrames: Long
+        get() = droppedFrameCount.get()
+
+    /**
+     * 最近一次采样的渲染状态，由[RenderStatsRegistry]定时更新，未显示时为null
+     */
+    @Volatile
+    var renderStats: RenderStats? = null
+        private set
+
+    private val renderStatsTracker = RenderStatsTracker()
+    private val renderedFrameCount = AtomicLong()
+    private val droppedFrameCount = AtomicLong()
+
+    // 下一帧的预期到达时间，只在VideoSink的线程访问
+    private var nextRenderAtNs = 0L
+
+    private val scrollListener = ViewTreeObserver.OnScrollChangedListener { RenderScheduler.requestUpdate() }
+
     /**
      * 监听渲染事件
      */
@@ -97,16 +174,84 @@ class VideoTrackView : ConstraintLayout, RendererCommon.RendererEvents,
         eglRenderer.init(
             WebRTCHelper.rootEglBaseContext,
             EglBase.CONFIG_PLAIN,
-            GlRectDrawer()
+            renderStatsTracker.wrap(GlRectDrawer()) { traceName }
         )
         videoTrack?.addSink(videoSink)
+        viewTreeObserver.addOnScrollChangedListener(scrollListener)
+        RenderScheduler.register(this)
+        RenderStatsRegistry.register(this)
     }
 
     override fun onDetachedFromWindow() {
         super.onDetachedFromWindow()
+        viewTreeObserver.removeOnScrollChangedListener(scrollListener)
+        RenderScheduler.unregister(this)
+        RenderStatsRegistry.unregister(this)
+        renderStats = null
         release()
     }
 
+    override fun onSizeChanged(w: Int, h: Int, oldw: Int, oldh: Int) {
+        super.onSizeChanged(w, h, oldw, oldh)
+        RenderScheduler.requestUpdate()
+    }
+
+    override fun onVisibilityChanged(changedView: View, visibility: Int) {
+        super.onVisibilityChanged(changedView, visibility)
+        RenderScheduler.requestUpdate()
+    }
+
+    override fun onWindowVisibilityChanged(visibility: Int) {
+        super.onWindowVisibilityChanged(visibility)
+        RenderScheduler.requestUpdate()
+    }
+
+    /**
+     * 由[RenderScheduler]在主线程调用
+     */
+    internal fun applyRenderFps(fps: Float, area: Long) {
+        visibleArea = area
+        if (fps != scheduledFps) {
+            L.d("render fps of $traceName: $scheduledFps -> $fps (visible area $area)")
+            scheduledFps = fps
+        }
+    }
+
+    /**
+     * 由[RenderStatsRegistry]在主线程调用
+     */
+    internal fun sampleRenderStats() {
+        val rendered = renderedFrames
+        val dropped = droppedFrames
+        renderStats = synchronized(layoutLock) {
+            renderStatsTracker.sample(
+                traceName, rotatedFrameWidth, rotatedFrameHeight, scheduledFps,
+                rendered + dropped, rendered, dropped
+            )
+        }
+    }
+
+    /**
+     * 按[scheduledFps]限帧，规则与WebRTC的VideoAdapter相同，以到达时间为准
+     */
+    private fun acceptRender(): Boolean {
+        val fps = scheduledFps
+        if (fps >= RenderScheduler.UNLIMITED) return true
+        if (fps <= 0f) return false
+        val now = System.nanoTime()
+        val interval = (1_000_000_000 / fps).toLong()
+        if (nextRenderAtNs != 0L) {
+            val untilNext = nextRenderAtNs - now
+            if (untilNext > interval / 2) return false
+            if (abs(untilNext) < 2 * interval) {
+                nextRenderAtNs += interval
+                return true
+            }
+        }
+        nextRenderAtNs = now + interval
+        return true
+    }
+
     private fun release() {
         ThreadUtils.checkIsOnMainThread()
         videoTrack?.removeSink(videoSink)
@@ -138,6 +283,8 @@ class VideoTrackView : ConstraintLayout, RendererCommon.RendererEvents,
         }
         videoTrack?.addSink(videoSink)
         this.videoTrack = videoTrack
+        videoTrack?.let { traceName = it.id() }
+        RenderScheduler.requestUpdate()
     }
 
     fun addFrameListener(
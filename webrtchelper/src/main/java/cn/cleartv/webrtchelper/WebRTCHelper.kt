@@ -11,6 +11,7 @@ import org.webrtc.DefaultVideoEncoderFactory
 import org.webrtc.EglBase
 import org.webrtc.IceCandidate
 import org.webrtc.Logging
+import org.webrtc.PeerConnection
 import org.webrtc.PeerConnectionFactory
 import org.webrtc.SessionDescription
 import org.webrtc.VideoTrack
@@ -39,6 +40,11 @@ object WebRTCHelper {
     var curBitrate: Int = 2000000
     var maxBitrate: Int = 4000000
 
+    /**
+     * 之后创建的连接使用的SDP语义，默认Plan B；[setRenegotiator]停止远端解码需要UNIFIED_PLAN
+     */
+    var sdpSemantics: PeerConnection.SdpSemantics = PeerConnection.SdpSemantics.PLAN_B
+
     private lateinit var handler: Handler
 
     /**
@@ -160,7 +166,10 @@ object WebRTCHelper {
         L.i("pushStream $streamId")
         pchMap[streamId]?.dispose()
         if (videoTrack == null && audioTrack == null) throw IllegalArgumentException("video and audio both null")
-        val pch = PeerConnectionHelper(streamId)
+        val pch = PeerConnectionHelper(
+            streamId,
+            configuration = PeerConnectionHelper.RTCConfiguration(sdpSemantics = sdpSemantics)
+        )
         pchMap[streamId] = pch
         pch.onDisconnected = {
             releaseConnection(streamId)
@@ -217,7 +226,10 @@ object WebRTCHelper {
         L.d("pushStream $streamId \n$sdpOffer")
         pchMap[streamId]?.dispose()
         if (videoTrack == null && audioTrack == null) throw IllegalArgumentException("video and audio both null")
-        val pch = PeerConnectionHelper(streamId)
+        val pch = PeerConnectionHelper(
+            streamId,
+            configuration = PeerConnectionHelper.RTCConfiguration(sdpSemantics = sdpSemantics)
+        )
         pchMap[streamId] = pch
         pch.onDisconnected = {
             releaseConnection(streamId)
@@ -274,7 +286,10 @@ object WebRTCHelper {
         L.d("pullStream $streamId")
         pchMap[streamId]?.dispose()
 
-        val pch = PeerConnectionHelper(streamId)
+        val pch = PeerConnectionHelper(
+            streamId,
+            configuration = PeerConnectionHelper.RTCConfiguration(sdpSemantics = sdpSemantics)
+        )
         pchMap[streamId] = pch
         pch.onDisconnected = {
             releaseConnection(streamId)
@@ -322,7 +337,10 @@ object WebRTCHelper {
         L.d("pullStream $streamId\n$sdpOffer")
         pchMap[streamId]?.dispose()
 
-        val pch = PeerConnectionHelper(streamId)
+        val pch = PeerConnectionHelper(
+            streamId,
+            configuration = PeerConnectionHelper.RTCConfiguration(sdpSemantics = sdpSemantics)
+        )
         pchMap[streamId] = pch
         pch.onDisconnected = {
             releaseConnection(streamId)
@@ -388,4 +406,38 @@ object WebRTCHelper {
             it.videoStats.copy()
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取远端视频的接收、解码和暂停状态，调用时才会去获取，返回的是上一次调用本方法时的状态
+     * @param streamId 自定义流的唯一ID，用于区分每个连接
+     */
+    fun getRemoteVideoStats(streamId: String): RemoteVideoStats? {
+        return pchMap[streamId]?.let {
+            it.updateVideoStats()
+            it.remoteVideoStats.copy()
+        }
+    }
+
+    /**
+     * 设置重新协商回调 (sdpOffer) -> sdpAnswer，设置后暂停远端视频时会停止接收和解码，见[PeerConnectionHelper.renegotiator]
+     * @param streamId 自定义流的唯一ID，用于区分每个连接
+     */
+    fun setRenegotiator(streamId: String, renegotiator: (suspend (String) -> String)?) {
+        pchMap[streamId]?.renegotiator = renegotiator
+    }
+
+    /**
+     * 暂停/恢复远端视频，见[PeerConnectionHelper.setRemoteVideoSuspended]
+     * @param streamId 自定义流的唯一ID，用于区分每个连接
+     */
+    suspend fun setRemoteVideoSuspended(streamId: String, suspended: Boolean) {
+        pchMap[streamId]?.setRemoteVideoSuspended(suspended)
+    }
+
+    /**
+     * 查找接收该远端视频的连接
+     */
+    internal fun findConnection(remoteVideoTrack: VideoTrack): PeerConnectionHelper? {
+        return pchMap.values.firstOrNull { it.remoteVideoTrack === remoteVideoTrack }
+    }
+}
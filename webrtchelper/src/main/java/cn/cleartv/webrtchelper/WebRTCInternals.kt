@@ -0,0 +1,128 @@
+package cn.cleartv.webrtchelper
+
+import android.media.AudioTrack
+import org.webrtc.CameraVideoCapturer
+import org.webrtc.MediaStream
+import org.webrtc.MediaStreamTrack
+import org.webrtc.audio.JavaAudioDeviceModule
+import java.lang.reflect.Field
+import java.lang.reflect.Method
+
+/**
+ * 访问WebRTC非公开字段/方法的统一入口
+ *
+ * 每个字段/方法只在第一次使用时查找并setAccessible一次，之后直接复用；查找失败（WebRTC版本变化、混淆等）时只打印一次日志，
+ * 后续调用走不依赖反射的兜底逻辑。minSdk 21不支持MethodHandle（需要API 26），所以缓存的是[Field]/[Method]
+ */
+internal object WebRTCInternals {
+
+    private class Accessor<T>(private val description: String, private val resolver: () -> T) {
+        @Volatile
+        private var resolved = false
+
+        @Volatile
+        private var value: T? = null
+
+        fun get(): T? {
+            if (!resolved) {
+                synchronized(this) {
+                    if (!resolved) {
+                        value = try {
+                            resolver()
+                        } catch (e: Throwable) {
+                            L.w("$description not available, falling back: $e")
+                            null
+                        }
+                        resolved = true
+                    }
+                }
+            }
+            return value
+        }
+    }
+
+    private fun declaredField(cls: Class<*>, name: String): Field {
+        return cls.getDeclaredField(name).apply { isAccessible = true }
+    }
+
+    private fun declaredMethod(cls: Class<*>, name: String): Method {
+        return cls.getDeclaredMethod(name).apply { isAccessible = true }
+    }
+
+    private val mediaStreamNative = Accessor("MediaStream.nativeStream") {
+        declaredField(MediaStream::class.java, "nativeStream")
+    }
+
+    private val mediaStreamTrackNative = Accessor("MediaStreamTrack.nativeTrack") {
+        declaredField(MediaStreamTrack::class.java, "nativeTrack")
+    }
+
+    private val cameraCapturerGetCameraName = Accessor("CameraCapturer.getCameraName") {
+        declaredMethod(Class.forName("org.webrtc.CameraCapturer"), "getCameraName")
+    }
+
+    private val audioDeviceModuleOutput = Accessor("JavaAudioDeviceModule.audioOutput") {
+        declaredField(JavaAudioDeviceModule::class.java, "audioOutput")
+    }
+
+    private val webRtcAudioTrackTrack = Accessor("WebRtcAudioTrack.audioTrack") {
+        declaredField(Class.forName("org.webrtc.audio.WebRtcAudioTrack"), "audioTrack")
+    }
+
+    /**
+     * native对象是否还存在（未dispose）
+     */
+    fun isExists(stream: MediaStream): Boolean {
+        mediaStreamNative.get()?.let {
+            return it.getLong(stream) != 0L
+        }
+        // 已dispose时getId会抛出IllegalStateException
+        return try {
+            stream.id
+            true
+        } catch (e: IllegalStateException) {
+            false
+        }
+    }
+
+    fun isExists(track: MediaStreamTrack): Boolean {
+        mediaStreamTrackNative.get()?.let {
+            return it.getLong(track) != 0L
+        }
+        return try {
+            track.id()
+            true
+        } catch (e: IllegalStateException) {
+            false
+        }
+    }
+
+    fun getCameraName(capturer: CameraVideoCapturer): String? {
+        val method = cameraCapturerGetCameraName.get() ?: return null
+        if (!method.declaringClass.isInstance(capturer)) return null
+        return method.invoke(capturer)?.toString()
+    }
+
+    /**
+     * 把[JavaAudioDeviceModule]内部播放用的[AudioTrack]替换为[AudioTrackInterceptor]
+     *
+     * @return 是否替换成功，已经替换过时返回true
+     */
+    fun interceptAudioTrack(
+        module: JavaAudioDeviceModule,
+        samplesReadyCallback: JavaAudioDeviceModule.SamplesReadyCallback,
+    ): Boolean {
+        val outputField = audioDeviceModuleOutput.get() ?: return false
+        val trackField = webRtcAudioTrackTrack.get() ?: return false
+        val webRtcAudioTrack = outputField.get(module) ?: return false
+        return when (val audioTrack = trackField.get(webRtcAudioTrack)) {
+            is AudioTrackInterceptor -> true
+            is AudioTrack -> {
+                trackField.set(webRtcAudioTrack, AudioTrackInterceptor(audioTrack, samplesReadyCallback))
+                true
+            }
+
+            else -> false
+        }
+    }
+}
@@ -14,61 +14,85 @@ import java.nio.IntBuffer
 
 internal object WebRTCUtils {
 
-    fun VideoFrame.setRotation(rotation: Int) {
-        try {
-            val cls = VideoFrame::class.java
-            val method = cls.getDeclaredField("rotation")
-            method.isAccessible = true
-            method.setInt(this, rotation)
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
+    /**
+     * 返回应用了指定旋转角度的新帧，与原帧共享buffer（已retain），用完需要release；不修改原帧
+     */
+    fun VideoFrame.withRotation(rotation: Int): VideoFrame {
+        buffer.retain()
+        return VideoFrame(buffer, rotation, timestampNs)
     }
 
     fun CameraVideoCapturer.getCameraName(): String? {
-        try {
-            val cls = Class.forName("org.webrtc.CameraCapturer")
-            val method = cls.getDeclaredMethod("getCameraName")
-            method.isAccessible = true
-            return method.invoke(this)?.toString()
+        return try {
+            WebRTCInternals.getCameraName(this)
         } catch (e: Exception) {
             e.printStackTrace()
+            null
         }
-        return null
     }
 
     fun MediaStream.isExists(): Boolean {
-        try {
-            val cls = MediaStream::class.java
-            val field = cls.getDeclaredField("nativeStream")
-            field.isAccessible = true
-            return field.getLong(this) != 0L
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-        return false
+        return WebRTCInternals.isExists(this)
     }
 
     fun MediaStreamTrack.isExists(): Boolean {
-        try {
-            val cls = MediaStreamTrack::class.java
-            val field = cls.getDeclaredField("nativeTrack")
-            field.isAccessible = true
-            return field.getLong(this) != 0L
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-        return false
+        return WebRTCInternals.isExists(this)
     }
 
+    // 截图时复用，平面数组在分辨率不变时不会重新分配
+    private val snapshotFrame = YuvFrame()
+
+    /**
+     * @param into 传入尺寸匹配的可变Bitmap时直接写入该Bitmap，否则从[BitmapPool]获取，用完可以通过[BitmapPool.releaseBitmap]归还
+     */
     @Synchronized
-    fun videoFrame2Bitmap(frame: VideoFrame): Bitmap? {
-        return YuvFrame(frame).bitmap
+    fun videoFrame2Bitmap(frame: VideoFrame, into: Bitmap? = null): Bitmap? {
+        snapshotFrame.fromi420Buffer(frame, YuvFrame.PROCESSING_NONE, System.nanoTime())
+        return snapshotFrame.getBitmap(into)
     }
 
+    /**
+     * Bitmap转VideoFrame，可以通过[org.webrtc.CapturerObserver.onFrameCaptured]送入VideoSource
+     *
+     * 转换结果写入[I420BufferPool]中的buffer，VideoFrame release后buffer自动回到池中
+     * @param parallel 是否分块多线程转换，大分辨率时可以降低单帧耗时
+     */
     @Synchronized
-    fun bitmap2VideoFrame(bitmap: Bitmap, timestampNs: Long): VideoFrame? {
-        return null
+    fun bitmap2VideoFrame(bitmap: Bitmap, timestampNs: Long, parallel: Boolean = false): VideoFrame? {
+        if (bitmap.isRecycled || bitmap.width <= 0 || bitmap.height <= 0) return null
+        val width = bitmap.width
+        val height = bitmap.height
+        val pixels = BitmapPool.acquirePixels(width * height)
+        try {
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height)
+            val buffer = I420BufferPool.acquire(width, height)
+            try {
+                if (parallel) {
+                    ArgbToI420Converter.convertParallel(
+                        pixels, width, height,
+                        buffer.dataY, buffer.strideY,
+                        buffer.dataU, buffer.strideU,
+                        buffer.dataV, buffer.strideV,
+                        YuvArgbConverter.defaultExecutor(),
+                        YuvArgbConverter.defaultBandCount(height)
+                    )
+                } else {
+                    ArgbToI420Converter.convert(
+                        pixels, width, height,
+                        buffer.dataY, buffer.strideY,
+                        buffer.dataU, buffer.strideU,
+                        buffer.dataV, buffer.strideV
+                    )
+                }
+            } catch (e: Throwable) {
+                // 转换失败时归还buffer
+                buffer.release()
+                throw e
+            }
+            return VideoFrame(buffer, 0, timestampNs)
+        } finally {
+            BitmapPool.releasePixels(pixels)
+        }
     }
 
     private fun textureToBitmap(texIn: Int, width: Int, height: Int): Bitmap? {
@@ -10,6 +10,7 @@ import org.webrtc.TextureBufferImpl;
 import org.webrtc.VideoFrame;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 public class YuvFrame {
     public int width;
@@ -20,13 +21,41 @@ public class YuvFrame {
     public byte[] yPlane;
     public byte[] uPlane;
     public byte[] vPlane;
+    /**
+     * Direct views of the retained I420Buffer planes, only set for frames created with {@link #PROCESSING_RETAIN_BUFFER}.
+     */
+    public ByteBuffer yBuffer;
+    public ByteBuffer uBuffer;
+    public ByteBuffer vBuffer;
     public int rotationDegree;
     public long timestamp;
 
     private final Object planeLock = new Object();
+    private YuvArgbConverter argbConverter = YuvArgbConverter.DEFAULT;
+    @Nullable
+    private Executor parallelExecutor = null;
+    private int parallelThreshold = Integer.MAX_VALUE;
+    @Nullable
+    private VideoFrame.I420Buffer retainedBuffer = null;
+    @Nullable
+    private PlaneScaler planeScaler = null;
+    @Nullable
+    private PlaneRotator planeRotator = null;
+
+    /**
+     * Frames with at least this many pixels are converted in parallel once parallel conversion is enabled.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1280 * 720;
 
     public static final int PROCESSING_NONE = 0x00;
     public static final int PROCESSING_CROP_TO_SQUARE = 0x01;
+    /**
+     * Keeps a reference to the frame's I420Buffer and exposes its planes through {@link #yBuffer}, {@link #uBuffer}
+     * and {@link #vBuffer} instead of copying them to the heap. Call {@link #copyToHeap()} when byte arrays are needed,
+     * and {@link #dispose()} to give the buffer back. Ignored together with {@link #PROCESSING_CROP_TO_SQUARE}
+     * or a {@link FrameProcessingSpec}.
+     */
+    public static final int PROCESSING_RETAIN_BUFFER = 0x02;
 
 
     private boolean enableLog = false;
@@ -35,6 +64,13 @@ public class YuvFrame {
         if (enableLog) Log.i("YuvFrame", text);
     }
 
+    /**
+     * Creates an empty YuvFrame, fill it with {@link #fromi420Buffer(VideoFrame, int, long)}.
+     * Reusing one instance keeps its plane arrays across frames of the same size.
+     */
+    public YuvFrame() {
+    }
+
     public YuvFrame(final VideoFrame videoFrame, boolean enableLog) {
         this.enableLog = enableLog;
         fromi420Buffer(videoFrame, PROCESSING_NONE, System.nanoTime());
@@ -83,25 +119,60 @@ public class YuvFrame {
      * @param timestamp       The timestamp to give the frame.
      */
     public void fromi420Buffer(final VideoFrame videoFrame, final int processingFlags, final long timestamp) {
+        if (PROCESSING_CROP_TO_SQUARE == (processingFlags & PROCESSING_CROP_TO_SQUARE)) {
+            fromi420Buffer(videoFrame, new FrameProcessingSpec().cropToSquare(), timestamp);
+        } else {
+            fromi420Buffer(videoFrame, null, PROCESSING_RETAIN_BUFFER == (processingFlags & PROCESSING_RETAIN_BUFFER), timestamp);
+        }
+    }
+
+
+    /**
+     * Replaces the data in this YuvFrame with a cropped, scaled and/or rotated copy of the provided frame.
+     * Only the bytes needed for the output are read from the source.
+     *
+     * @param videoFrame Source frame.
+     * @param spec       What to do while copying.
+     * @param timestamp  The timestamp to give the frame.
+     */
+    public void fromi420Buffer(final VideoFrame videoFrame, @NonNull final FrameProcessingSpec spec, final long timestamp) {
+        fromi420Buffer(videoFrame, spec.isIdentity() ? null : spec, false, timestamp);
+    }
+
+
+    private void fromi420Buffer(final VideoFrame videoFrame, @Nullable final FrameProcessingSpec spec,
+                                final boolean retain, final long timestamp) {
         synchronized (planeLock) {
+            VideoFrame.I420Buffer i420Buffer = null;
             try {
                 VideoFrame.Buffer buffer = videoFrame.getBuffer();
                 log("buffer:" + buffer.getClass().getName() + ",width:" + buffer.getWidth() + ", height:" + buffer.getHeight() + ", rotation:" + videoFrame.getRotation());
-                VideoFrame.I420Buffer i420Buffer = null;
+                final int[] crop = spec == null ? null : cropRect(spec, buffer.getWidth(), buffer.getHeight());
                 if (buffer instanceof TextureBufferImpl) {
                     // opengl中的buffer转420会有问题
+                    if (crop != null) {
+                        // Let the GPU crop and scale, only the output size gets read back.
+                        final VideoFrame.Buffer scaled = buffer.cropAndScale(crop[0], crop[1], crop[2], crop[3], crop[4], crop[5]);
+                        i420Buffer = scaled.toI420();
+                        scaled.release();
+                        crop[0] = 0;
+                        crop[1] = 0;
+                        crop[2] = crop[4];
+                        crop[3] = crop[5];
+                    }
                 }
                 if (i420Buffer == null) {
                     i420Buffer = videoFrame.getBuffer().toI420();
                 }
                 if (i420Buffer == null) return;
+                releaseRetainedBuffer();
                 // Save timestamp
                 this.timestamp = timestamp;
 
                 // TODO: Check to see if i420Buffer.yuvFrame is actually true?  Need to find out what the alternative would be.
 
                 // Copy YUV stride information
-                // TODO: There is probably a case where strides makes a difference, so far we haven't run across it.
+                // Strides are kept alongside the planes, rows may be padded.
                 yStride = i420Buffer.getStrideY();
                 uStride = i420Buffer.getStrideU();
                 vStride = i420Buffer.getStrideV();
@@ -110,14 +181,20 @@ public class YuvFrame {
                 // Copy rotation information
                 rotationDegree = videoFrame.getRotation();  // Just save rotation info for now, doing actual rotation can wait until per-pixel processing.
                 // Copy the pixel data, processing as requested.
-                if (PROCESSING_CROP_TO_SQUARE == (processingFlags & PROCESSING_CROP_TO_SQUARE)) {
-                    copyPlanesCropped(i420Buffer);
+                if (crop != null) {
+                    processPlanes(i420Buffer, spec, crop);
+                } else if (retain) {
+                    // toI420() handed us our own reference, keep it instead of releasing it below.
+                    retainPlanes(i420Buffer);
+                    log("retained " + i420Buffer.getClass().getName());
+                    return;
                 } else {
                     copyPlanes(i420Buffer);
                 }
                 log("Y:" + yPlane.length + ", U:" + uPlane.length + ", V:" + vPlane.length);
                 i420Buffer.release();
             } catch (Throwable t) {
+                if (i420Buffer != null && i420Buffer != retainedBuffer) i420Buffer.release();
                 dispose();
             }
         }
@@ -125,377 +202,383 @@ public class YuvFrame {
 
 
     public void dispose() {
+        synchronized (planeLock) {
+            releaseRetainedBuffer();
+            yPlane = null;
+            vPlane = null;
+            uPlane = null;
+        }
+    }
+
+
+    /**
+     * @return true if the planes are views of a retained I420Buffer rather than heap copies.
+     */
+    public boolean isRetained() {
+        return retainedBuffer != null;
+    }
+
+
+    /**
+     * Copies the planes of a retained I420Buffer into {@link #yPlane}, {@link #uPlane} and {@link #vPlane} and releases
+     * the buffer. Does nothing if the frame already holds heap copies.
+     */
+    public void copyToHeap() {
+        synchronized (planeLock) {
+            final VideoFrame.I420Buffer buffer = retainedBuffer;
+            if (buffer == null) return;
+            copyPlanes(buffer);
+            releaseRetainedBuffer();
+        }
+    }
+
+
+    private void retainPlanes(final VideoFrame.I420Buffer i420Buffer) {
+        retainedBuffer = i420Buffer;
+        yBuffer = i420Buffer.getDataY();
+        uBuffer = i420Buffer.getDataU();
+        vBuffer = i420Buffer.getDataV();
         yPlane = null;
-        vPlane = null;
         uPlane = null;
+        vPlane = null;
+        width = i420Buffer.getWidth();
+        height = i420Buffer.getHeight();
+    }
+
+
+    private void releaseRetainedBuffer() {
+        if (retainedBuffer != null) {
+            retainedBuffer.release();
+            retainedBuffer = null;
+        }
+        yBuffer = null;
+        uBuffer = null;
+        vBuffer = null;
     }
 
 
     public boolean hasData() {
-        return yPlane != null && vPlane != null && uPlane != null;
+        return (yPlane != null && vPlane != null && uPlane != null) || retainedBuffer != null;
     }
 
 
     /**
-     * Copy the Y, V, and U planes from the source i420Buffer.
-     * Sets width and height.
+     * Copy the Y, V, and U planes from the source i420Buffer, dropping any row padding.
+     * Sets width, height and the (now packed) strides.
      *
      * @param i420Buffer Source frame.
      */
     private void copyPlanes(final VideoFrame.I420Buffer i420Buffer) {
         synchronized (planeLock) {
+            final int width = i420Buffer.getWidth();
+            final int height = i420Buffer.getHeight();
+            final int chromaWidth = (width + 1) / 2;
+            final int chromaHeight = (height + 1) / 2;
+
             // Copy the Y, V, and U ButeBuffers to their corresponding byte arrays.
             // Existing byte arrays are passed in for possible reuse.
-            yPlane = copyByteBuffer(yPlane, i420Buffer.getDataY());
-            vPlane = copyByteBuffer(vPlane, i420Buffer.getDataV());
-            uPlane = copyByteBuffer(uPlane, i420Buffer.getDataU());
+            yPlane = copyByteBuffer(yPlane, i420Buffer.getDataY(), width, height, i420Buffer.getStrideY());
+            vPlane = copyByteBuffer(vPlane, i420Buffer.getDataV(), chromaWidth, chromaHeight, i420Buffer.getStrideV());
+            uPlane = copyByteBuffer(uPlane, i420Buffer.getDataU(), chromaWidth, chromaHeight, i420Buffer.getStrideU());
 
             // Set the width and height of the frame.
-            width = i420Buffer.getWidth();
-            height = i420Buffer.getHeight();
+            this.width = width;
+            this.height = height;
+            yStride = width;
+            uStride = chromaWidth;
+            vStride = chromaWidth;
         }
     }
 
 
     /**
-     * Copies the entire contents of a ByteBuffer into a byte array.
+     * Copies the visible part of a plane into a packed byte array.
      * If the byte array exists, and is the correct size, it will be reused.
      * If the byte array is null, or isn't properly sized, a new byte array will be created.
      *
-     * @param dst A byte array to copy the ByteBuffer contents to. Can be null.
-     * @param src A ByteBuffer to copy data from.
-     * @return A byte array containing the contents of the ByteBuffer. If the provided dst was non-null and the correct size,
+     * @param dst       A byte array to copy the ByteBuffer contents to. Can be null.
+     * @param src       A ByteBuffer to copy data from. Its position is left untouched.
+     * @param rowWidth  Visible bytes per row.
+     * @param rows      Number of rows.
+     * @param srcStride The distance in bytes between the starts of two source rows.
+     * @return A byte array of rowWidth * rows bytes. If the provided dst was non-null and the correct size,
      * it will be returned. If not, a new byte array will be created.
      */
-    private byte[] copyByteBuffer(@Nullable byte[] dst, @NonNull final ByteBuffer src) {
+    private byte[] copyByteBuffer(@Nullable byte[] dst, @NonNull final ByteBuffer src, final int rowWidth,
+                                  final int rows, final int srcStride) {
         // Create a new byte array if necessary.
+        final int size = rowWidth * rows;
         byte[] out;
-        if ((null == dst) || (dst.length != src.capacity())) {
-            out = new byte[src.capacity()];
+        if ((null == dst) || (dst.length != size)) {
+            out = new byte[size];
         } else {
             out = dst;
         }
 
-        // Copy the ByteBuffer's contents to the byte array.
-        src.get(out);
+        PlaneScaler.copyPlane(src, srcStride, rowWidth, rows, out);
 
         return out;
     }
 
 
     /**
-     * Copy the Y, V, and U planes from the source i420Buffer, cropping them to square.
-     * Sets width and height.
+     * Resolves the crop rectangle and the output size of a spec for a frame.
+     *
+     * @return {cropX, cropY, cropWidth, cropHeight, targetWidth, targetHeight}
+     */
+    private static int[] cropRect(final FrameProcessingSpec spec, final int width, final int height) {
+        int cropX, cropY, cropWidth, cropHeight;
+        if (spec.cropToSquare) {
+            final int size = Math.min(width, height);
+            cropX = (width - size) / 2;
+            cropY = (height - size) / 2;
+            cropWidth = size;
+            cropHeight = size;
+        } else if (spec.cropWidth > 0 && spec.cropHeight > 0) {
+            cropX = Math.max(0, Math.min(spec.cropX, width - 2));
+            cropY = Math.max(0, Math.min(spec.cropY, height - 2));
+            cropWidth = Math.min(spec.cropWidth, width - cropX);
+            cropHeight = Math.min(spec.cropHeight, height - cropY);
+        } else {
+            cropX = 0;
+            cropY = 0;
+            cropWidth = width;
+            cropHeight = height;
+        }
+        // Even origin, so each chroma sample still covers the same 2x2 luma block.
+        cropX &= ~1;
+        cropY &= ~1;
+
+        int targetWidth = spec.targetWidth;
+        int targetHeight = spec.targetHeight;
+        if (targetWidth <= 0 && targetHeight <= 0) {
+            targetWidth = cropWidth;
+            targetHeight = cropHeight;
+        } else if (targetWidth <= 0) {
+            targetWidth = Math.max(1, (int) ((long) cropWidth * targetHeight / cropHeight));
+        } else if (targetHeight <= 0) {
+            targetHeight = Math.max(1, (int) ((long) cropHeight * targetWidth / cropWidth));
+        }
+        return new int[]{cropX, cropY, cropWidth, cropHeight, targetWidth, targetHeight};
+    }
+
+
+    /**
+     * Crops, scales and optionally rotates the planes of the source i420Buffer in a single pass.
+     * Sets width, height, the packed strides and rotationDegree.
      *
      * @param i420Buffer Source frame.
+     * @param spec       Processing to apply.
+     * @param crop       Output of {@link #cropRect}.
      */
-    private void copyPlanesCropped(final VideoFrame.I420Buffer i420Buffer) {
+    private void processPlanes(final VideoFrame.I420Buffer i420Buffer, final FrameProcessingSpec spec, final int[] crop) {
         synchronized (planeLock) {
-            // Verify that the dimensions of the i420Buffer are appropriate for cropping
-            // If improper dimensions are found, default back to copying the entire frame.
-            final int width = i420Buffer.getWidth();
-            final int height = i420Buffer.getHeight();
-
-            if (width > height) {
-                // Calculate the size of the cropped portion of the the image
-                // The cropped width must be divisible by 4, since it will be divided by 2 to crop the center of the frame,
-                // and then divided by two again for processing the U and V planes, as each value there corresponds to
-                // a 2x2 square of pixels. All of those measurements must be whole integers.
-                final int cropWidth = width - height;
-                if ((cropWidth % 4) == 0) {
-                    // Create a row buffer for the crop method to use - the largest row width will be equal to the source frame's height (since we're cropping to square)
-                    final byte[] row = new byte[height];  // TODO: Create a static row buffer, so this doesn't get created for every frame?
-
-                    // Copy the Y plane.  Existing yPlane is passed in for possible reuse if it's the same size.
-                    yPlane = cropByteBuffer(yPlane, i420Buffer.getDataY(), width, height, row);
-
-                    // Copy/crop the U and V planes. The U and V planes' width and height will be half that of the Y plane's.
-                    // The same row buffer can be reused, since being oversize isn't an issue.
-                    vPlane = cropByteBuffer(vPlane, i420Buffer.getDataV(), width / 2, height / 2, row);
-                    uPlane = cropByteBuffer(uPlane, i420Buffer.getDataU(), width / 2, height / 2, row);
-
-                    // Set size
-                    // noinspection SuspiciousNameCombination (Shut up, Lint, I know what I'm doing.)
-                    this.width = height;
-                    this.height = height;
-                } else {
-                    copyPlanes(i420Buffer);
-                }
-            } else {
-                // Calculate the size of the cropped portion of the the image
-                // The cropped height must be divisible by 4, since it will be divided by 2 to crop the center of the frame,
-                // and then divided by two again for processing the U and V planes, as each value there corresponds to
-                // a 2x2 square of pixels. All of those measurements must be whole integers.
-                final int cropHeight = height - width;
-                if ((cropHeight % 4) == 0) {
-                    // Copy the Y plane. (No row buffer is needed if height >= width.)
-                    yPlane = cropByteBuffer(yPlane, i420Buffer.getDataY(), width, height, null);
-
-                    // Copy/crop the U and V planes. The U and V planes' width and height will be half that of the Y plane's.
-                    // The same row buffer can be reused, since being oversize isn't an issue.
-                    vPlane = cropByteBuffer(vPlane, i420Buffer.getDataV(), width / 2, height / 2, null);
-                    uPlane = cropByteBuffer(uPlane, i420Buffer.getDataU(), width / 2, height / 2, null);
-
-                    // Set size
-                    // noinspection SuspiciousNameCombination (Shut up, Lint, I know what I'm doing.)
-                    this.height = width;
-                    this.width = width;
-                } else {
-                    copyPlanes(i420Buffer);
-                }
-            }
+            final int targetWidth = crop[4];
+            final int targetHeight = crop[5];
+            final int chromaTargetWidth = (targetWidth + 1) / 2;
+            final int chromaTargetHeight = (targetHeight + 1) / 2;
+            final int totalRotation = YuvArgbConverter.normalizeRotation(rotationDegree + spec.rotation);
+            final int planeRotation = spec.bakeRotation ? totalRotation : 0;
+
+            if (planeScaler == null) planeScaler = new PlaneScaler();
+            yPlane = ensureSize(yPlane, targetWidth * targetHeight);
+            uPlane = ensureSize(uPlane, chromaTargetWidth * chromaTargetHeight);
+            vPlane = ensureSize(vPlane, chromaTargetWidth * chromaTargetHeight);
+            planeScaler.scale(i420Buffer.getDataY(), i420Buffer.getStrideY(), crop[0], crop[1], crop[2], crop[3],
+                    yPlane, targetWidth, targetHeight, planeRotation, spec.filter);
+            planeScaler.scale(i420Buffer.getDataU(), i420Buffer.getStrideU(), crop[0] / 2, crop[1] / 2, (crop[2] + 1) / 2, (crop[3] + 1) / 2,
+                    uPlane, chromaTargetWidth, chromaTargetHeight, planeRotation, spec.filter);
+            planeScaler.scale(i420Buffer.getDataV(), i420Buffer.getStrideV(), crop[0] / 2, crop[1] / 2, (crop[2] + 1) / 2, (crop[3] + 1) / 2,
+                    vPlane, chromaTargetWidth, chromaTargetHeight, planeRotation, spec.filter);
+
+            final boolean swap = planeRotation % 180 != 0;
+            width = swap ? targetHeight : targetWidth;
+            height = swap ? targetWidth : targetHeight;
+            yStride = width;
+            uStride = swap ? chromaTargetHeight : chromaTargetWidth;
+            vStride = uStride;
+            rotationDegree = spec.bakeRotation ? 0 : totalRotation;
         }
     }
 
 
+    private static byte[] ensureSize(@Nullable final byte[] array, final int size) {
+        return array != null && array.length == size ? array : new byte[size];
+    }
+
+
     /**
-     * Copies the contents of a ByteBuffer into a byte array, cropping the center of the image to square.
-     * If the byte array exists, and is the correct size, it will be reused.
-     * If the byte array is null, or isn't properly sized, a new byte array will be created.
+     * Applies {@link #rotationDegree} to the Y, U and V planes with tiled rotation and writes the upright frame as
+     * I420 or NV12.
      *
-     * @param dst       A byte array to copy the ByteBuffer contents to. Can be null.
-     * @param src       A ByteBuffer to copy data from.
-     * @param srcWidth  The width of the source frame.
-     * @param srcHeight The height of ths source frame.
-     * @param row       A byte array with a length equal to or greater than the cropped frame's width, for use as a buffer.
-     *                  Can be null. If no row buffer is provided and one is needed, or the buffer is too short, an exception
-     *                  will likely result.
-     * @return A byte array containing the cropped contents of the ByteBuffer. If the provided dst was non-null and the correct size,
-     * it will be returned. If not, a new byte array will be created.
-     * @throws NullPointerException
+     * @param reuse  The buffer returned for the previous frame, or null. Its arrays are reused when the size matches.
+     * @param format Output layout.
+     * @return The upright frame, or null if the frame holds no data.
      */
-    private byte[] cropByteBuffer(@Nullable byte[] dst, @NonNull final ByteBuffer src, final int srcWidth, final int srcHeight, @Nullable final byte[] row)
-            throws NullPointerException {
-        // If the frame is wider than it is tall, copy the center of each row to trim off the left and right edges
-        if (srcWidth > srcHeight) {
-            // We'll need a row buffer, here. Throw an exception if we don't have one.
-            if (null == row) {
-                throw new NullPointerException("YuvFrame.cropByteBffer: Need row buffer array, and the array provided was null.");
-            }
-
-            // Create a new destination byte array if necessary.
-            final int croppedSize = srcHeight * srcHeight;
-            final byte[] out;
-            if ((null == dst) || (dst.length != croppedSize)) {
-                out = new byte[croppedSize];
+    @Nullable
+    public UprightYuvBuffer toUpright(@Nullable final UprightYuvBuffer reuse, @NonNull final UprightYuvBuffer.Format format) {
+        synchronized (planeLock) {
+            if (!hasData()) return null;
+            final int degree = YuvArgbConverter.normalizeRotation(rotationDegree);
+            final boolean swap = degree % 180 != 0;
+            final UprightYuvBuffer out = reuse != null ? reuse : new UprightYuvBuffer();
+            out.prepare(format, swap ? height : width, swap ? width : height);
+            out.timestamp = timestamp;
+
+            if (planeRotator == null) planeRotator = new PlaneRotator();
+            final PlaneRotator rotator = planeRotator;
+            final int chromaWidth = (width + 1) / 2;
+            final int chromaHeight = (height + 1) / 2;
+            final boolean nv12 = format == UprightYuvBuffer.Format.NV12;
+            final byte[] uDst = nv12 ? out.uv : out.u;
+            final byte[] vDst = nv12 ? out.uv : out.v;
+            final int vOffset = nv12 ? 1 : 0;
+            final int pixelStride = nv12 ? 2 : 1;
+            if (retainedBuffer != null) {
+                rotator.rotate(yBuffer, yStride, width, height, out.y, 0, out.strideY, 1, degree);
+                rotator.rotate(uBuffer, uStride, chromaWidth, chromaHeight, uDst, 0, out.strideUV, pixelStride, degree);
+                rotator.rotate(vBuffer, vStride, chromaWidth, chromaHeight, vDst, vOffset, out.strideUV, pixelStride, degree);
             } else {
-                out = dst;
+                rotator.rotate(yPlane, 0, yStride, width, height, out.y, 0, out.strideY, 1, degree);
+                rotator.rotate(uPlane, 0, uStride, chromaWidth, chromaHeight, uDst, 0, out.strideUV, pixelStride, degree);
+                rotator.rotate(vPlane, 0, vStride, chromaWidth, chromaHeight, vDst, vOffset, out.strideUV, pixelStride, degree);
             }
+            return out;
+        }
+    }
 
-            // Calculate where on each row to start copying
-            final int indent = (srcWidth - srcHeight) / 2;
-
-            // Copy the ByteBuffer
-            for (int i = 0; i < srcHeight; i++) {
-                // Set the position of the ByteBuffer to the beginning of the current row,
-                // adding the calculated indent to trim off the left side.
-                src.position((i * srcWidth) + indent);
-
-                // Copy the cropped row to the row buffer
-                src.get(row, 0, srcHeight);
 
-                // Copy the row buffer to the destination array
-                System.arraycopy(row, 0, out, i * srcHeight, srcHeight);
+    /**
+     * Returns the frame as an I420Buffer, e.g. to forward it to a VideoSource. Rotation is not applied.
+     * A retained buffer is shared (one more reference), heap planes are copied into a buffer from {@link I420BufferPool}.
+     * Either way the caller owns the result and must release it.
+     *
+     * @return The buffer, or null if the frame holds no data.
+     */
+    @Nullable
+    public VideoFrame.I420Buffer toI420Buffer() {
+        synchronized (planeLock) {
+            if (retainedBuffer != null) {
+                retainedBuffer.retain();
+                return retainedBuffer;
             }
-
+            if (!hasData()) return null;
+            final VideoFrame.I420Buffer out = I420BufferPool.acquire(width, height, yStride, uStride);
+            final int chromaHeight = (height + 1) / 2;
+            out.getDataY().put(yPlane, 0, Math.min(yPlane.length, yStride * height));
+            out.getDataU().put(uPlane, 0, Math.min(uPlane.length, uStride * chromaHeight));
+            out.getDataV().put(vPlane, 0, Math.min(vPlane.length, vStride * chromaHeight));
             return out;
         }
-        // If the frame is taller than it is wide, copy the center of the image, cropping off the top and bottom edges.
-        // NOTE: If the width and height are equal, this method should result in a straight copy of the source ByteBuffer,
-        //       as the calculated row offset will be zero.
-        else {
-            // Create a new destination byte array if necessary.
-            final int croppedSize = srcWidth * srcWidth;
-            final byte[] out;
-            if ((null == dst) || (dst.length != croppedSize)) {
-                out = new byte[croppedSize];
-            } else {
-                out = dst;
-            }
+    }
 
-            // Calculate where to start reading
-            final int start = ((srcHeight - srcWidth) / 2) * srcWidth;  // ((h-w)/2) is the number of rows to skip, multiply by w again to get the starting ByteBuffer position.
 
-            // Copy the ByteBuffer
-            // Since we need to take a sequential series of whole rows, only one copy is necessary
-            src.position(start);
-            src.get(out, 0, croppedSize);
+    /**
+     * Selects the colour space used by {@link #getBitmap()}. Defaults to BT.601 full range.
+     *
+     * @param matrix BT.601 for SD / most camera output, BT.709 for HD content.
+     * @param range  FULL for 0..255 samples, LIMITED for 16..235 studio swing.
+     */
+    public void setColorSpace(@NonNull final YuvArgbConverter.Matrix matrix, @NonNull final YuvArgbConverter.Range range) {
+        argbConverter = YuvArgbConverter.get(matrix, range);
+    }
 
-            return out;
-        }
+
+    /**
+     * Converts frames in row bands on several threads. Off by default.
+     *
+     * @param executor  Runs the bands, null to use {@link YuvArgbConverter#defaultExecutor()}.
+     * @param minPixels Frames smaller than this (width * height) stay single-threaded,
+     *                  see {@link #DEFAULT_PARALLEL_THRESHOLD}.
+     */
+    public void enableParallelConversion(@Nullable final Executor executor, final int minPixels) {
+        parallelExecutor = executor != null ? executor : YuvArgbConverter.defaultExecutor();
+        parallelThreshold = minPixels;
+    }
+
+    public void disableParallelConversion() {
+        parallelExecutor = null;
+        parallelThreshold = Integer.MAX_VALUE;
     }
 
 
     /**
      * Converts this YUV frame to an ARGB_8888 Bitmap. Applies stored rotation.
-     * Remaning code based on http://stackoverflow.com/a/12702836 by rics (http://stackoverflow.com/users/21047/rics)
      *
      * @return A new Bitmap containing the converted frame.
      */
     public Bitmap getBitmap() {
         if (!hasData()) return null;
-        // Calculate the size of the frame
-        final int size = width * height;
+        final int outWidth = rotationDegree % 180 != 0 ? height : width;
+        final int outHeight = rotationDegree % 180 != 0 ? width : height;
+
+        // The pixel array is only scratch space, Bitmap.createBitmap copies it.
+        final int[] argb = BitmapPool.acquirePixels(width * height);
+        try {
+            convertToArgb(argb);
+            return Bitmap.createBitmap(argb, outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        } finally {
+            BitmapPool.releasePixels(argb);
+        }
+    }
 
-        // Allocate an array to hold the ARGB pixel data
-        final int[] argb = new int[size];
+    /**
+     * Converts this YUV frame into an existing ARGB_8888 Bitmap. Applies stored rotation.
+     *
+     * @param into A mutable ARGB_8888 Bitmap with the rotated frame size. If it is null or doesn't fit,
+     *             a Bitmap from {@link BitmapPool} is used instead.
+     * @return The Bitmap holding the converted frame, either {@code into} or a pooled one that can be returned with
+     * {@link BitmapPool#releaseBitmap(Bitmap)}.
+     */
+    public Bitmap getBitmap(@Nullable final Bitmap into) {
+        if (!hasData()) return null;
+        final int outWidth = rotationDegree % 180 != 0 ? height : width;
+        final int outHeight = rotationDegree % 180 != 0 ? width : height;
 
-        if (yPlane.length / uPlane.length > 2) {
-            convertYuvToArgb(argb, rotationDegree);
+        final Bitmap out;
+        if (into != null && !into.isRecycled() && into.isMutable() && into.getConfig() == Bitmap.Config.ARGB_8888
+                && into.getWidth() == outWidth && into.getHeight() == outHeight) {
+            out = into;
         } else {
-            convertYuv422ToArgb(argb, rotationDegree);
+            out = BitmapPool.acquireBitmap(outWidth, outHeight);
         }
-        if (rotationDegree % 180 != 0) {
-            return Bitmap.createBitmap(argb, height, width, Bitmap.Config.ARGB_8888);
-        } else {
-            return Bitmap.createBitmap(argb, width, height, Bitmap.Config.ARGB_8888);
+        final int[] argb = BitmapPool.acquirePixels(width * height);
+        try {
+            convertToArgb(argb);
+            out.setPixels(argb, 0, outWidth, 0, 0, outWidth, outHeight);
+        } finally {
+            BitmapPool.releasePixels(argb);
         }
+        return out;
     }
 
-    private void convertYuvToArgb(final int[] outputArgb, int degree) {
+    /**
+     * Converts the planes to ARGB, rotated by {@link #rotationDegree}.
+     *
+     * @param outputArgb Destination, at least width * height long.
+     */
+    private void convertToArgb(final int[] outputArgb) {
         synchronized (planeLock) {
-            // Calculate the size of the frame
-            final int size = width * height;
-            final int invertSize = size - 1;
-            final int uvWidth = width / 2;
-            final int uvHeight = height / 2;
-            // 如果是90或270，先旋转90一下
-            final boolean needRotation = degree % 180 != 0;
-            // 270或者180，再翻转一下
-            final boolean needInvert = degree == -90 || degree == 270 || degree == 180 || degree == -180;
-
-            int u, v;
-            int y1, y2, y3, y4;
-            int p1, p2, p3, p4;
-            int uvIndex;
-            for (int row = 0; row < uvHeight; row++) {
-                for (int col = 0; col < uvWidth; col++) {
-                    p1 = (row * 2 * width) + (col * 2);
-                    p2 = p1 + 1;
-                    p3 = p1 + width;
-                    p4 = p3 + 1;
-                    uvIndex = (row * uvWidth) + col;
-
-                    if (uPlane.length > uvIndex) {
-                        u = uPlane[uvIndex] & 0xff;
-                        v = vPlane[uvIndex] & 0xff;
-                        u = u - 128;
-                        v = v - 128;
-                    } else {
-                        u = 0;
-                        v = 0;
-                    }
-                    if (yPlane.length > p4) {
-                        y1 = yPlane[p1] & 0xff;
-                        y2 = yPlane[p2] & 0xff;
-                        y3 = yPlane[p3] & 0xff;
-                        y4 = yPlane[p4] & 0xff;
-                    } else {
-                        y1 = 0;
-                        y2 = 0;
-                        y3 = 0;
-                        y4 = 0;
-                    }
-
-
-                    // 如果是90或270，先旋转90一下
-                    if (needRotation) {
-                        p1 = (col * 2 + 1) * height - row * 2 - 1;
-                        p2 = p1 + height;
-                        p3 = p1 - 1;
-                        p4 = p3 + height;
-                    }
-
-                    // 270或者180，再翻转一下
-                    if (needInvert) {
-                        p1 = invertSize - p1;
-                        p2 = invertSize - p2;
-                        p3 = invertSize - p3;
-                        p4 = invertSize - p4;
-                    }
-
-                    // Convert each YUV pixel to RGB
-                    outputArgb[p1] = convertYuvToArgb(y1, u, v);
-                    outputArgb[p2] = convertYuvToArgb(y2, u, v);
-                    outputArgb[p3] = convertYuvToArgb(y3, u, v);
-                    outputArgb[p4] = convertYuvToArgb(y4, u, v);
-
+            final Executor executor = parallelExecutor;
+            // Both the retained buffer and the copied planes come from an I420Buffer, so chroma is always 4:2:0.
+            if (retainedBuffer != null) {
+                if (executor != null && width * height >= parallelThreshold) {
+                    argbConverter.convertParallel(yBuffer, yStride, uBuffer, uStride, vBuffer, vStride, 1,
+                            width, height, rotationDegree, outputArgb, executor, YuvArgbConverter.defaultBandCount(height));
+                } else {
+                    argbConverter.convertRows(yBuffer, yStride, uBuffer, uStride, vBuffer, vStride, 1,
+                            width, height, rotationDegree, outputArgb, 0, height);
                 }
+                return;
             }
-        }
-    }
-
-    private void convertYuv422ToArgb(final int[] outputArgb, int degree) {
-        synchronized (planeLock) {
-            final int size = width * height;
-            final int invertSize = size - 1;
-            final int uvWidth = width / 2;
-            final int uvHeight = height;
-            // 如果是90或270，先旋转270一下
-            final boolean needRotation = degree % 180 != 0;
-            // 90或者180，再翻转一下
-            final boolean needInvert = degree == -90 || degree == 270 || degree == 180 || degree == -180;
-            int u, v;
-            int y1, y2;
-            int p1, p2;
-            int uvIndex;
-
-            for (int row = 0; row < uvHeight; row++) {
-                for (int col = 0; col < uvWidth; col++) {
-                    p1 = width * row + col * 2;
-                    p2 = p1 + 1;
-                    uvIndex = uvWidth * row + col;
-                    y1 = yPlane[p1] & 0xff;
-                    y2 = yPlane[p2] & 0xff;
-                    if (uPlane.length > uvIndex) {
-                        u = uPlane[uvIndex] & 0xff;
-                        v = vPlane[uvIndex] & 0xff;
-                        u = u - 128;
-                        v = v - 128;
-                    } else {
-                        u = 0;
-                        v = 0;
-                    }
-
-                    // 如果是90或270，先旋转90一下
-                    if (needRotation) {
-                        p1 = (col * 2 + 1) * height - row - 1;
-                        p2 = p1 + height;
-                    }
-
-                    // 270或者180，再翻转一下
-                    if (needInvert) {
-                        p1 = invertSize - p1;
-                        p2 = invertSize - p2;
-                    }
-                    outputArgb[p1] = convertYuvToArgb(y1, u, v);
-                    outputArgb[p2] = convertYuvToArgb(y2, u, v);
-                }
+            if (executor != null && width * height >= parallelThreshold) {
+                argbConverter.convertParallel(yPlane, yStride, uPlane, uStride, vPlane, vStride, 1,
+                        width, height, rotationDegree, outputArgb, executor, YuvArgbConverter.defaultBandCount(height));
+            } else {
+                argbConverter.convert(yPlane, yStride, uPlane, uStride, vPlane, vStride, 1,
+                        width, height, rotationDegree, outputArgb);
             }
         }
     }
 
-    private int convertYuvToArgb(final int y, final int u, final int v) {
-        int r, g, b;
-
-//        v = u;
-        // Convert YUV to RGB
-        r = y + (int) (1.402f * v);
-        g = y - (int) (0.344f * u + 0.714f * v);
-        b = y + (int) (1.772f * u);
-
-//		// Convert YUV to RGB
-//		r = y + (int)(1.13983f*v);
-//		g = y - (int)(0.39465f*u +0.5806f*v);
-//		b = y + (int)(2.03211f*u);
-
-        // Clamp RGB values to [0,255]
-        r = (r > 255) ? 255 : (r < 0) ? 0 : r;
-        g = (g > 255) ? 255 : (g < 0) ? 0 : g;
-        b = (b > 255) ? 255 : (b < 0) ? 0 : b;
-
-        // Shift the RGB values into position in the final ARGB pixel
-        return 0xff000000 | (r << 16) | (g << 8) | b;
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package cn.cleartv.webrtchelper
+
+import org.webrtc.VideoFrame
+import org.webrtc.VideoSink
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 三缓冲的[YuvFrame]，用于生产者（采集/渲染线程）和消费者（UI/工作线程）之间无阻塞地传递最新一帧
+ *
+ * 三个槽位分别归生产者、消费者所有，以及存放最新完成的一帧；两边只通过一次原子交换来交接槽位，
+ * 生产者永远写空闲槽位，不会因为消费者转换慢而阻塞。消费者未读取就被新帧覆盖的帧计入[Stats.overwritten]
+ *
+ * 可以直接作为[VideoSink]添加到VideoTrack上
+ *
+ * @param processingFlags 复制帧时的处理方式，见[YuvFrame.PROCESSING_NONE]等
+ * @param spec 不为空时按[FrameProcessingSpec]裁剪缩放，优先于processingFlags
+ */
+class YuvFrameTripleBuffer(
+    private val processingFlags: Int = YuvFrame.PROCESSING_NONE,
+    private val spec: FrameProcessingSpec? = null,
+) : VideoSink {
+
+    data class Stats(
+        val published: Long,
+        val consumed: Long,
+        val overwritten: Long,
+    )
+
+    private companion object {
+        const val INDEX_MASK = 0x3
+        const val FRESH = 0x4
+    }
+
+    private val slots = arrayOf(YuvFrame(), YuvFrame(), YuvFrame())
+
+    // 最新完成帧所在槽位，FRESH表示还未被消费者取走
+    private val latest = AtomicInteger(0)
+
+    // 只由生产者访问
+    private var backIndex = 1
+
+    // 只由消费者访问，受consumerLock保护
+    private var frontIndex = 2
+    private val consumerLock = Any()
+
+    private val published = AtomicLong()
+    private val consumed = AtomicLong()
+    private val overwritten = AtomicLong()
+
+    /**
+     * 写入一帧，只能由同一个生产者线程调用
+     */
+    fun publish(frame: VideoFrame) {
+        val slot = slots[backIndex]
+        if (spec != null) {
+            slot.fromi420Buffer(frame, spec, frame.timestampNs)
+        } else {
+            slot.fromi420Buffer(frame, processingFlags, frame.timestampNs)
+        }
+        if (!slot.hasData()) return
+        val previous = latest.getAndSet(backIndex or FRESH)
+        if (previous and FRESH != 0) {
+            overwritten.incrementAndGet()
+        }
+        backIndex = previous and INDEX_MASK
+        published.incrementAndGet()
+    }
+
+    override fun onFrame(frame: VideoFrame) {
+        publish(frame)
+    }
+
+    /**
+     * 获取最新的一帧，没有新帧时返回上一次获取的帧（可能为空帧）
+     *
+     * 返回的[YuvFrame]在下一次调用[acquireLatest]之前保持有效，只适合单个消费者；多个消费者请使用[readLatest]
+     */
+    fun acquireLatest(): YuvFrame {
+        synchronized(consumerLock) {
+            swapInLatestLocked()
+            return slots[frontIndex]
+        }
+    }
+
+    /**
+     * 在回调中读取最新的一帧，回调期间该帧不会被其他消费者替换，不影响生产者写入
+     *
+     * @return 没有数据时返回null
+     */
+    fun <T> readLatest(block: (YuvFrame) -> T): T? {
+        synchronized(consumerLock) {
+            swapInLatestLocked()
+            val frame = slots[frontIndex]
+            return if (frame.hasData()) block(frame) else null
+        }
+    }
+
+    /**
+     * 是否有消费者还未取走的新帧
+     */
+    fun hasNewFrame(): Boolean {
+        return latest.get() and FRESH != 0
+    }
+
+    private fun swapInLatestLocked() {
+        if (latest.get() and FRESH == 0) return
+        val previous = latest.getAndSet(frontIndex)
+        frontIndex = previous and INDEX_MASK
+        consumed.incrementAndGet()
+    }
+
+    fun getStats(): Stats {
+        return Stats(published.get(), consumed.get(), overwritten.get())
+    }
+
+    /**
+     * 释放所有槽位的数据，需要在生产者停止后调用
+     */
+    fun release() {
+        synchronized(consumerLock) {
+            slots.forEach { it.dispose() }
+            latest.set(0)
+            backIndex = 1
+            frontIndex = 2
+        }
+    }
+}